@@ -0,0 +1,104 @@
+package dev.welbyseely;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.gradle.api.logging.LogLevel;
+import org.gradle.api.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Copies the stdout and stderr of a verbose build, several MB of Ninja progress lines and compiler
+ * warnings, to a logger: with the shared OutputPump, and with a new pool of two threads per
+ * invocation reading lines with the platform charset and logging each one, as CMakeExecutor did
+ * before. The logger counts the characters it is given, with the level enabled or not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class OutputPumpBenchmark {
+
+  @Param({"8"})
+  public int megabytes;
+
+  @Param({"true", "false"})
+  public boolean logging;
+
+  private byte[] stdout;
+  private byte[] stderr;
+  private Logger logger;
+  private final AtomicLong logged = new AtomicLong();
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final StringBuilder out = new StringBuilder();
+    final StringBuilder err = new StringBuilder();
+    for (int i = 0; out.length() < megabytes * 1024 * 1024; i++) {
+      out.append('[').append(i).append("/40000] Building CXX object CMakeFiles/app.dir/src/module")
+        .append(i % 500).append("/file").append(i).append(".cpp.o\n");
+      if (i % 50 == 0) {
+        err.append("../src/module").append(i % 500).append("/file").append(i)
+          .append(".cpp:12:5: warning: unused variable \u2018r\u00e9sultat\u2019 [-Wunused-variable]\n");
+      }
+    }
+    stdout = out.toString().getBytes(StandardCharsets.UTF_8);
+    stderr = err.toString().getBytes(StandardCharsets.UTF_8);
+    logger = (Logger) Proxy.newProxyInstance(Logger.class.getClassLoader(), new Class<?>[]{Logger.class},
+      (proxy, method, args) -> {
+        if (method.getName().equals("isEnabled") || method.getName().endsWith("Enabled")) {
+          return logging;
+        }
+        if (logging && args != null && args.length > 0 && args[args.length - 1] instanceof String) {
+          logged.addAndGet(((String) args[args.length - 1]).length());
+        }
+        return null;
+      });
+  }
+
+  @Benchmark
+  public long outputPump() throws Exception {
+    final Future<Void> out = OutputPump.start(new ByteArrayInputStream(stdout), () -> true, logger,
+      LogLevel.INFO, null);
+    final Future<Void> err = OutputPump.start(new ByteArrayInputStream(stderr), () -> true, logger,
+      LogLevel.ERROR, null);
+    out.get();
+    err.get();
+    return logged.get();
+  }
+
+  @Benchmark
+  public long readerPerStream() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final Future<?> out = executor.submit(() -> readStream(new ByteArrayInputStream(stdout), true));
+      final Future<?> err = executor.submit(() -> readStream(new ByteArrayInputStream(stderr), false));
+      out.get();
+      err.get();
+    } finally {
+      executor.shutdown();
+    }
+    return logged.get();
+  }
+
+  private void readStream(final InputStream inputStream, final boolean isStdOut) {
+    new BufferedReader(new InputStreamReader(inputStream)).lines()
+      .forEach(isStdOut ? logger::info : logger::error);
+  }
+
+}
@@ -0,0 +1,194 @@
+package dev.welbyseely;
+
+import groovy.json.JsonOutput;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Build wide service shared by all CMake tasks. It bounds the number of concurrently running
+ * CMake processes, splits the available job budget between concurrently running CMake builds and
+ * collects the timings of all CMake invocations into a report. Builds whose make program supports
+ * it share the job slots through a jobserver instead. Folders deleted in the background
+ * by cmakeClean are awaited when the build finishes.
+ */
+public abstract class CMakeBuildService implements BuildService<CMakeBuildService.Params>,
+  AutoCloseable {
+
+  public static final String NAME = "cmakeBuildService";
+
+  public interface Params extends BuildServiceParameters {
+
+    // total number of parallel jobs shared by all cmake builds, defaults to --max-workers
+    Property<Integer> getMaxJobs();
+
+    // maximum number of cmake processes running at the same time, defaults to --max-workers
+    Property<Integer> getMaxProcesses();
+
+    // JSON report of the timings of all CMake invocations of the build
+    RegularFileProperty getTimingsReport();
+
+    // share maxJobs through a jobserver with make 4.4+ and ninja 1.13+
+    Property<Boolean> getJobServer();
+  }
+
+  private final Semaphore processes;
+  private final JobBudget jobs;
+  private final List<Map<String, Object>> timings = new ArrayList<>();
+  private final List<Thread> deletions = new ArrayList<>();
+  private final Map<String, Boolean> jobServerSupport = new ConcurrentHashMap<>();
+  private JobServer jobServer;
+  private boolean jobServerCreated;
+
+  public CMakeBuildService() {
+    processes = new Semaphore(Math.max(1, getParameters().getMaxProcesses().get()), true);
+    jobs = new JobBudget(getParameters().getMaxJobs().get());
+  }
+
+  /**
+   * The number of CMake processes that may run at the same time.
+   */
+  public int getMaxProcesses() {
+    return Math.max(1, getParameters().getMaxProcesses().get());
+  }
+
+  /**
+   * Blocks until another CMake process may be started.
+   */
+  public void acquireProcess() {
+    try {
+      processes.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GradleException("Interrupted while waiting for a CMake process slot", e);
+    }
+  }
+
+  public void releaseProcess() {
+    processes.release();
+  }
+
+  /**
+   * Registers a starting build and returns the number of parallel jobs it should use, its share of
+   * the job budget with the running builds. See {@link JobBudget}.
+   */
+  public int acquireJobs() {
+    return jobs.acquire();
+  }
+
+  public void releaseJobs(final int count) {
+    jobs.release(count);
+  }
+
+  /**
+   * The jobserver of the build if the given make program can join it, created on first use. Null
+   * if it is disabled or not supported by the make program or the platform.
+   */
+  JobServer jobServerFor(final String makeProgram) {
+    if (!getParameters().getJobServer().getOrElse(Boolean.FALSE)
+      || !jobServerSupport.computeIfAbsent(makeProgram, JobServer::supports)) {
+      return null;
+    }
+    synchronized (this) {
+      if (!jobServerCreated) {
+        jobServerCreated = true;
+        try {
+          jobServer = JobServer.create(Math.max(1, getParameters().getMaxJobs().get()));
+        } catch (IOException e) {
+          Logging.getLogger(CMakeBuildService.class).warn("Could not create the CMake jobserver", e);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return jobServer;
+    }
+  }
+
+  /**
+   * Adds the timings of a CMake invocation to the report.
+   */
+  public synchronized void recordTimings(final Map<String, Object> record) {
+    timings.add(record);
+  }
+
+  public synchronized List<Map<String, Object>> getTimings() {
+    return Collections.unmodifiableList(new ArrayList<>(timings));
+  }
+
+  /**
+   * Deletes the folder on a background thread. The build waits for it to finish at its end.
+   */
+  public synchronized void deleteInBackground(final Path folder) {
+    final Thread thread = new Thread(() -> {
+      try {
+        FileTrees.delete(folder);
+      } catch (IOException | RuntimeException e) {
+        Logging.getLogger(CMakeBuildService.class).warn("Could not delete " + folder, e);
+      }
+    }, "cmake-clean " + folder.getFileName());
+    thread.setDaemon(true);
+    thread.start();
+    deletions.add(thread);
+  }
+
+  @Override
+  public void close() {
+    final List<Thread> pending;
+    synchronized (this) {
+      pending = new ArrayList<>(deletions);
+    }
+    for (Thread deletion : pending) {
+      try {
+        deletion.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    writeTimings();
+    closeJobServer();
+  }
+
+  private synchronized void closeJobServer() {
+    if (jobServer != null) {
+      try {
+        jobServer.close();
+      } catch (IOException e) {
+        Logging.getLogger(CMakeBuildService.class).info("Could not remove the CMake jobserver", e);
+      }
+      jobServer = null;
+    }
+  }
+
+  private synchronized void writeTimings() {
+    final File report = getParameters().getTimingsReport().getAsFile().getOrNull();
+    if (report == null || timings.isEmpty()) {
+      return;
+    }
+    try {
+      Files.createDirectories(report.getParentFile().toPath());
+      Files.write(report.toPath(),
+        Collections.singletonList(JsonOutput.prettyPrint(JsonOutput.toJson(timings))),
+        StandardCharsets.UTF_8);
+      Logging.getLogger(CMakeBuildService.class).info("CMake timings written to " + report);
+    } catch (IOException e) {
+      Logging.getLogger(CMakeBuildService.class).warn("Could not write CMake timings to " + report, e);
+    }
+  }
+
+}
@@ -1,19 +1,40 @@
 package dev.welbyseely;
 
 import org.gradle.api.DefaultTask;
+import org.gradle.api.Task;
+import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
 import org.gradle.api.tasks.Input;
-import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectories;
+import org.gradle.api.tasks.OutputFiles;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkerExecutor;
 
+import java.io.File;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import javax.inject.Inject;
 
 /**
- * Build a configured Build with CMake
+ * Build a configured Build with CMake. The outputs are stored in the build cache when cacheable is
+ * set.
  */
+@CacheableTask
 public class CMakeBuildTask extends DefaultTask {
 
   private final Property<String> executable;
@@ -21,25 +42,102 @@ public class CMakeBuildTask extends DefaultTask {
   private final Property<String> buildConfig;
   private final Property<String> buildTarget;
   private final Property<Boolean> buildClean;
+  private final Property<Integer> buildJobs;
+  private final Property<Duration> buildTimeout; // stop cmake --build after this time
+  private final Property<String> buildPreset; // build with the settings of a build preset
+  private final DirectoryProperty presetFolder; // the folder containing CMakePresets.json
+  private final ConfigurableFileCollection sourceFiles;
+  private final MapProperty<String, File> artifacts; // for example "mylib": libmylib.so
+  private final MapProperty<String, File> artifactFolders; // for example "install": install prefix
+  private final Property<Boolean> cacheable;
+  private final Property<String> compilerCache; // "auto", "ccache", "sccache" or a launcher path
+  private final DirectoryProperty compilerCacheFolder;
+  private final DirectoryProperty rootFolder; // of the root project, set by the plugin
+  private final Property<CMakeBuildService> buildService;
+  private final WorkerExecutor workerExecutor;
+  private final ObjectFactory objects;
 
-  public CMakeBuildTask() {
+  @Inject
+  public CMakeBuildTask(final WorkerExecutor workerExecutor, final ObjectFactory objects) {
+    this.workerExecutor = workerExecutor;
+    this.objects = objects;
     setGroup("cmake");
     setDescription("Build a configured Build with CMake");
-    executable = getProject().getObjects().property(String.class);
-    workingFolder = getProject().getObjects().directoryProperty();
-    buildConfig = getProject().getObjects().property(String.class);
-    buildTarget = getProject().getObjects().property(String.class);
-    buildClean = getProject().getObjects().property(Boolean.class);
+    executable = objects.property(String.class);
+    workingFolder = objects.directoryProperty();
+    buildConfig = objects.property(String.class);
+    buildTarget = objects.property(String.class);
+    buildClean = objects.property(Boolean.class);
+    buildJobs = objects.property(Integer.class);
+    buildTimeout = objects.property(Duration.class);
+    buildPreset = objects.property(String.class);
+    presetFolder = objects.directoryProperty();
+    sourceFiles = objects.fileCollection();
+    artifacts = objects.mapProperty(String.class, File.class);
+    artifactFolders = objects.mapProperty(String.class, File.class);
+    cacheable = objects.property(Boolean.class);
+    compilerCache = objects.property(String.class);
+    compilerCacheFolder = objects.directoryProperty();
+    rootFolder = objects.directoryProperty();
+    buildService = objects.property(CMakeBuildService.class);
+
+    // without declared or discovered outputs there is nothing to compare the sources against
+    getOutputs().upToDateWhen(new HasOutputs());
+    getOutputs().cacheIf("cacheable is set", new IsCacheable());
+  }
+
+  // classes rather than lambdas, so the configuration cache can store them
+  private static class HasOutputs implements Spec<Task> {
+
+    @Override
+    public boolean isSatisfiedBy(final Task task) {
+      final CMakeBuildTask build = (CMakeBuildTask) task;
+      return !build.artifacts.get().isEmpty() || !build.artifactFolders.get().isEmpty()
+        || !build.getDiscoveredArtifacts().isEmpty();
+    }
+  }
+
+  private static class IsCacheable implements Spec<Task> {
+
+    @Override
+    public boolean isSatisfiedBy(final Task task) {
+      return ((CMakeBuildTask) task).cacheable.getOrElse(Boolean.FALSE);
+    }
   }
 
   public void configureFromProject() {
-    CMakePluginExtension ext = (CMakePluginExtension) getProject().getExtensions()
-      .getByName("cmake");
+    configureFrom((CMakePluginExtension) getProject().getExtensions().getByName("cmake"));
+  }
+
+  /**
+   * Uses the settings of the given cmake extension.
+   */
+  public void configureFrom(final CMakePluginExtension ext) {
     executable.set(ext.getExecutable());
     workingFolder.set(ext.getWorkingFolder());
     buildConfig.set(ext.getBuildConfig());
     buildTarget.set(ext.getBuildTarget());
     buildClean.set(ext.getBuildClean());
+    buildJobs.set(ext.getBuildJobs());
+    buildTimeout.set(ext.getBuildTimeout());
+    cacheable.set(ext.getCacheable());
+    compilerCache.set(ext.getCompilerCache());
+    compilerCacheFolder.set(ext.getCompilerCacheFolder());
+    sourcesFrom(ext.getSourceFolder());
+    artifacts.set(ext.getArtifacts());
+    artifactFolders.set(ext.getArtifactFolders());
+  }
+
+  /**
+   * Uses the files below the given source folder as inputs of the build, except the ones in the
+   * working folder and, once configured, the ones the built target(s) do not use: sources of other
+   * targets, unrelated files and the headers no compile included last time.
+   */
+  public void sourcesFrom(final Object sourceFolder) {
+    sourceFiles.from(objects.fileTree().from(sourceFolder)
+      .exclude(new FolderSpec(workingFolder))
+      .exclude(new DependencyIndex.UnusedFiles(workingFolder.file(DependencyIndex.FILE_NAME), workingFolder,
+        buildConfig, buildTarget)));
   }
 
   /// region getters
@@ -49,11 +147,97 @@ public class CMakeBuildTask extends DefaultTask {
     return executable;
   }
 
-  @InputDirectory
+  @Internal // written by the build, the configuration is tracked by getCacheEntries()
   public DirectoryProperty getWorkingFolder() {
     return workingFolder;
   }
 
+  /**
+   * The root folder of the build, replaced in the cache entries to keep them relocatable.
+   */
+  @Internal
+  public DirectoryProperty getRootFolder() {
+    return rootFolder;
+  }
+
+  /**
+   * The configuration of the build folder (generator, definitions, ...) from its CMakeCache.txt,
+   * with absolute paths of the checkout replaced to keep the build cache key relocatable.
+   */
+  @Input
+  public Map<String, String> getCacheEntries() {
+    final File working = workingFolder.getAsFile().get();
+    final CMakeCodeModel model = getCodeModel();
+    return CMakeCache.readRelocatable(working, model == null ? null : model.getSourceFolder(),
+      rootFolder.getAsFile().getOrNull());
+  }
+
+  /**
+   * The compiler identities of the configured build.
+   */
+  @Input
+  public Map<String, String> getToolchains() {
+    final CMakeCodeModel model = getCodeModel();
+    return model == null ? Collections.emptyMap() : model.getToolchains();
+  }
+
+  @Internal
+  public Property<Boolean> getCacheable() {
+    return cacheable;
+  }
+
+  /**
+   * The compilerCache setting. The build only isolates the launcher's cache folder if it is set.
+   */
+  @Internal
+  public Property<String> getCompilerCache() {
+    return compilerCache;
+  }
+
+  /**
+   * Cache folder for a ccache or sccache compiler launcher, if it should not use its default one.
+   */
+  @Internal
+  public DirectoryProperty getCompilerCacheFolder() {
+    return compilerCacheFolder;
+  }
+
+  @InputFiles
+  @PathSensitive(PathSensitivity.RELATIVE)
+  @IgnoreEmptyDirectories
+  public ConfigurableFileCollection getSourceFiles() {
+    return sourceFiles;
+  }
+
+  @OutputFiles
+  public MapProperty<String, File> getArtifacts() {
+    return artifacts;
+  }
+
+  @OutputDirectories
+  public MapProperty<String, File> getArtifactFolders() {
+    return artifactFolders;
+  }
+
+  /**
+   * The code model of the configured working folder, read from the File API reply of its last
+   * configure when asked for, or null before the first one.
+   */
+  @Internal
+  public CMakeCodeModel getCodeModel() {
+    return CMakeFileApi.readReply(workingFolder.getAsFile().get());
+  }
+
+  /**
+   * Artifacts of the built target(s) according to the code model.
+   */
+  @OutputFiles
+  public Map<String, File> getDiscoveredArtifacts() {
+    final CMakeCodeModel model = getCodeModel();
+    return model == null ? Collections.emptyMap()
+      : model.getArtifacts(buildConfig.getOrNull(), buildTarget.getOrNull());
+  }
+
   @Input
   @Optional
   public Property<String> getBuildConfig() {
@@ -71,37 +255,159 @@ public class CMakeBuildTask extends DefaultTask {
   public Property<Boolean> getBuildClean() {
     return buildClean;
   }
+
+  @Internal // the number of jobs does not change the build result
+  public Property<Integer> getBuildJobs() {
+    return buildJobs;
+  }
+
+  /**
+   * Stops cmake --build and all processes it started when it runs longer than this.
+   */
+  @Internal
+  public Property<Duration> getBuildTimeout() {
+    return buildTimeout;
+  }
+
+  /**
+   * A build preset of the CMakePresets.json in the presetFolder. The working folder is built with
+   * the preset's targets, configuration, jobs and cleanFirst, which buildTarget, buildConfig,
+   * buildJobs and buildClean override, and with its verbose, nativeToolOptions and environment.
+   */
+  @Input
+  @Optional
+  public Property<String> getBuildPreset() {
+    return buildPreset;
+  }
+
+  @Internal // only used to find the presets, tracked by getBuildPresetSettings()
+  public DirectoryProperty getPresetFolder() {
+    return presetFolder;
+  }
+
+  /**
+   * The settings of the build preset that change the build result, null without a preset.
+   */
+  @Input
+  @Optional
+  public Map<String, String> getBuildPresetSettings() {
+    final CMakePresets.BuildPreset preset = findBuildPreset();
+    if (preset == null) {
+      return null;
+    }
+    final Map<String, String> settings = new LinkedHashMap<>();
+    settings.put("targets", String.join(";", preset.targets));
+    settings.put("configuration", String.valueOf(preset.configuration));
+    settings.put("cleanFirst", String.valueOf(preset.cleanFirst));
+    settings.put("nativeToolOptions", String.join(";", preset.nativeToolOptions));
+    settings.put("environment", preset.environment.toString());
+    return settings;
+  }
+
+  @Internal
+  public Property<CMakeBuildService> getBuildService() {
+    return buildService;
+  }
   /// endregion
 
-  private List<String> buildCmdLine() {
+  private CMakePresets.BuildPreset findBuildPreset() {
+    return buildPreset.isPresent()
+      ? CMakePresets.read(presetFolder.getAsFile().get()).getBuildPreset(buildPreset.get()) : null;
+  }
+
+  private List<String> buildCmdLine(final CMakePresets.BuildPreset preset) {
+    final List<String> targets = buildTarget.isPresent() ? Collections.singletonList(buildTarget.get())
+      : preset != null ? preset.targets : Collections.emptyList();
+    return buildCmdLine(executable.getOrNull(), buildConfig.getOrNull(), targets,
+      buildClean.getOrElse(preset != null && preset.cleanFirst), buildJobs.getOrNull(), preset);
+  }
+
+  /**
+   * The cmake --build command line of the working folder for the given settings, falling back to
+   * the ones of the build preset, if any.
+   */
+  static List<String> buildCmdLine(final String executable, final String buildConfig,
+    final List<String> targets, final boolean clean, final Integer buildJobs,
+    final CMakePresets.BuildPreset preset) {
     List<String> parameters = new ArrayList<>();
 
-    parameters.add(executable.getOrElse("cmake"));
+    parameters.add(executable != null ? executable : "cmake");
     parameters.add("--build");
+    // the working folder, even with a preset, as it is what cmakeConfigure configured
     parameters.add(
       "."); // working folder will be executable working dir --- workingFolder.getAsFile().get().getAbsolutePath()
 
-    if (buildConfig.isPresent()) {
+    final String config = buildConfig != null ? buildConfig
+      : preset != null ? preset.configuration : null;
+    if (config != null) {
       parameters.add("--config");
-      parameters.add(buildConfig.get());
+      parameters.add(config);
     }
 
-    if (buildTarget.isPresent()) {
+    if (!targets.isEmpty()) {
+      // several targets need CMake 3.15+
       parameters.add("--target");
-      parameters.add(buildTarget.get());
+      parameters.addAll(targets);
     }
 
-      if (buildClean.getOrElse(Boolean.FALSE).booleanValue()) {
+      if (clean) {
           parameters.add("--clean-first");
       }
 
+    // 0 leaves parallelism to the generator (or CMAKE_BUILD_PARALLEL_LEVEL)
+    final Integer jobs = buildJobs != null ? buildJobs : preset != null ? preset.jobs : null;
+    if (jobs != null && jobs > 0) {
+      parameters.add("--parallel");
+      parameters.add(jobs.toString());
+    }
+
+    if (preset != null && preset.verbose) {
+      parameters.add("--verbose");
+    }
+    if (preset != null && !preset.nativeToolOptions.isEmpty()) {
+      parameters.add("--");
+      parameters.addAll(preset.nativeToolOptions);
+    }
+
     return parameters;
   }
 
+  /**
+   * Whether the build should share the job budget with the other running builds, as neither the
+   * settings, the preset nor CMAKE_BUILD_PARALLEL_LEVEL give it an explicit job count.
+   */
+  static boolean sharesJobs(final Integer buildJobs, final CMakePresets.BuildPreset preset) {
+    return buildJobs == null
+      && (preset == null || preset.jobs == null && !preset.environment.containsKey("CMAKE_BUILD_PARALLEL_LEVEL"))
+      && System.getenv("CMAKE_BUILD_PARALLEL_LEVEL") == null;
+  }
+
   @TaskAction
   public void build() {
-    CMakeExecutor executor = new CMakeExecutor(getLogger(), getName());
-    executor.exec(buildCmdLine(), workingFolder.getAsFile().get());
+    final CMakePresets.BuildPreset preset = findBuildPreset();
+    // without an explicit job count, share the job budget with the other running builds
+    final boolean shareJobs = sharesJobs(buildJobs.getOrNull(), preset);
+
+    workerExecutor.noIsolation().submit(CMakeWorkAction.class, parameters -> {
+      parameters.getTaskName().set(getName());
+      parameters.getCommandLine().set(buildCmdLine(preset));
+      if (preset != null) {
+        parameters.getEnvironment().set(preset.environment);
+      }
+      parameters.getWorkingFolder().set(workingFolder);
+      parameters.getBuildService().set(buildService);
+      parameters.getShareJobs().set(shareJobs);
+      parameters.getJoinJobServer().set(true);
+      parameters.getTimeoutMillis().set(buildTimeout.map(Duration::toMillis));
+      parameters.getCompilerLauncher().set(
+        CompilerCache.launcherOf(CMakeCache.read(workingFolder.getAsFile().get())));
+      if (compilerCache.isPresent()) {
+        parameters.getCompilerCacheFolder().set(compilerCacheFolder);
+      }
+      parameters.getDiagnosticsReport().set(workingFolder.file("diagnostics.json"));
+      parameters.getDependencyIndex().set(workingFolder.file(DependencyIndex.FILE_NAME));
+      parameters.getJobMemoryProfile().set(workingFolder.file(JobPools.FILE_NAME));
+    });
   }
 
 }
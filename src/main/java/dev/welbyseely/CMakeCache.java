@@ -0,0 +1,125 @@
+package dev.welbyseely;
+
+import org.gradle.api.GradleException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Reads the entries of a CMakeCache.txt file.
+ */
+final class CMakeCache {
+
+  static final String FILE_NAME = "CMakeCache.txt";
+
+  // internal entries that are still part of the requested configuration
+  private static final Set<String> CONFIGURATION_ENTRIES = new HashSet<>(Arrays.asList(
+    "CMAKE_GENERATOR", "CMAKE_GENERATOR_PLATFORM", "CMAKE_GENERATOR_TOOLSET",
+    "CMAKE_GENERATOR_INSTANCE"));
+
+  private CMakeCache() {
+  }
+
+  /**
+   * The entries of the cache in the build folder by name, empty if the folder is not configured.
+   */
+  static Map<String, String> read(final File buildFolder) {
+    return read(buildFolder, false);
+  }
+
+  /**
+   * Whether the cmake that wrote the cache entries is at least the given version, true if the
+   * version is unknown, as the folder is not configured yet.
+   */
+  static boolean isAtLeast(final Map<String, String> entries, final int major, final int minor) {
+    final String cacheMajor = entries.get("CMAKE_CACHE_MAJOR_VERSION");
+    final String cacheMinor = entries.get("CMAKE_CACHE_MINOR_VERSION");
+    if (cacheMajor == null || cacheMinor == null) {
+      return true;
+    }
+    try {
+      final int actualMajor = Integer.parseInt(cacheMajor.trim());
+      return actualMajor > major || actualMajor == major && Integer.parseInt(cacheMinor.trim()) >= minor;
+    } catch (NumberFormatException e) {
+      return true;
+    }
+  }
+
+  /**
+   * The user visible entries and the generator entries of the cache, with the build, source and
+   * root folders replaced by placeholders so caches of different checkouts compare equal.
+   */
+  static Map<String, String> readRelocatable(final File buildFolder, final File sourceFolder,
+    final File rootFolder) {
+    final Map<String, String> entries = read(buildFolder, true);
+    // replace the longer path first, the build folder often is below the source folder
+    final Map<String, String> placeholders = new TreeMap<>(
+      Comparator.comparingInt(String::length).reversed().thenComparing(Comparator.naturalOrder()));
+    placeholders.put(buildFolder.getAbsolutePath(), "${buildDir}");
+    if (sourceFolder != null) {
+      placeholders.put(sourceFolder.getAbsolutePath(), "${sourceDir}");
+    }
+    if (rootFolder != null) {
+      placeholders.put(rootFolder.getAbsolutePath(), "${rootDir}");
+    }
+    entries.replaceAll((name, value) -> {
+      String normalized = value;
+      for (Map.Entry<String, String> placeholder : placeholders.entrySet()) {
+        // cmake writes paths with forward slashes, also on windows
+        normalized = normalized.replace(placeholder.getKey(), placeholder.getValue())
+          .replace(placeholder.getKey().replace('\\', '/'), placeholder.getValue());
+      }
+      return normalized;
+    });
+    return entries;
+  }
+
+  private static Map<String, String> read(final File buildFolder, final boolean skipInternal) {
+    final File cacheFile = new File(buildFolder, FILE_NAME);
+    if (!cacheFile.isFile()) {
+      return Collections.emptyMap();
+    }
+
+    final Map<String, String> entries = new TreeMap<>();
+    try (BufferedReader reader = Files.newBufferedReader(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        // entries look like NAME:TYPE=VALUE, comments start with # or //
+        if (line.isEmpty() || line.startsWith("#") || line.startsWith("//")) {
+          continue;
+        }
+        final int equals = line.indexOf('=');
+        final int colon = line.lastIndexOf(':', equals);
+        if (equals < 0 || colon < 0) {
+          continue;
+        }
+        final String name = unquote(line.substring(0, colon));
+        final String type = line.substring(colon + 1, equals);
+        if (skipInternal && (type.equals("INTERNAL") || type.equals("STATIC"))
+          && !CONFIGURATION_ENTRIES.contains(name)) {
+          continue;
+        }
+        entries.put(name, line.substring(equals + 1));
+      }
+    } catch (IOException e) {
+      throw new GradleException("Could not read " + cacheFile, e);
+    }
+    return entries;
+  }
+
+  private static String unquote(final String name) {
+    return name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")
+      ? name.substring(1, name.length() - 1) : name;
+  }
+
+}
@@ -0,0 +1,170 @@
+package dev.welbyseely;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.DisableCachingByDefault;
+import org.gradle.workers.WorkerExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import javax.inject.Inject;
+
+/**
+ * Cleans a CMake working folder. The cleanMode selects what is deleted:
+ * "full" deletes the whole folder, "cache" only the configuration (CMakeCache.txt and CMakeFiles)
+ * and "build" the built files, with cmake --build . --target clean.
+ */
+@DisableCachingByDefault(because = "Deletes files")
+public class CMakeCleanTask extends DefaultTask {
+
+  static final String FULL = "full";
+  static final String CACHE = "cache";
+  static final String BUILD = "build";
+  private static final String TRASH = ".trash-";
+
+  private final Property<String> executable;
+  private final DirectoryProperty workingFolder;
+  private final Property<String> cleanMode;
+  private final Property<Boolean> cleanInBackground;
+  private final Property<CMakeBuildService> buildService;
+  private final WorkerExecutor workerExecutor;
+
+  @Inject
+  public CMakeCleanTask(final WorkerExecutor workerExecutor, final ObjectFactory objects) {
+    this.workerExecutor = workerExecutor;
+    setGroup("cmake");
+    setDescription("Clean CMake configuration");
+    executable = objects.property(String.class);
+    workingFolder = objects.directoryProperty();
+    cleanMode = objects.property(String.class);
+    cleanInBackground = objects.property(Boolean.class);
+    buildService = objects.property(CMakeBuildService.class);
+    getDestroyables().register(workingFolder);
+  }
+
+  /// region getters
+  @Input
+  @Optional
+  public Property<String> getExecutable() {
+    return executable;
+  }
+
+  @Internal // destroyed
+  public DirectoryProperty getWorkingFolder() {
+    return workingFolder;
+  }
+
+  /**
+   * "full" (default), "cache" or "build".
+   */
+  @Input
+  @Optional
+  public Property<String> getCleanMode() {
+    return cleanMode;
+  }
+
+  /**
+   * Rename the folder and delete it on a background thread, so following tasks can start
+   * immediately. The build waits for the deletion to finish before it ends.
+   */
+  @Input
+  @Optional
+  public Property<Boolean> getCleanInBackground() {
+    return cleanInBackground;
+  }
+
+  @Internal
+  public Property<CMakeBuildService> getBuildService() {
+    return buildService;
+  }
+  /// endregion
+
+  @TaskAction
+  public void clean() {
+    final File working = workingFolder.getAsFile().get().getAbsoluteFile();
+    final String mode = cleanMode.getOrElse(FULL);
+    deleteLeftovers(working);
+    switch (mode) {
+      case FULL:
+        delete(working);
+        break;
+      case CACHE:
+        delete(new File(working, CMakeCache.FILE_NAME));
+        delete(new File(working, "CMakeFiles"));
+        break;
+      case BUILD:
+        if (!new File(working, CMakeCache.FILE_NAME).isFile()) {
+          setDidWork(false);
+          return;
+        }
+        workerExecutor.noIsolation().submit(CMakeWorkAction.class, parameters -> {
+          parameters.getTaskName().set(getName());
+          parameters.getCommandLine().set(Arrays.asList(executable.getOrElse("cmake"), "--build",
+            ".", "--target", "clean"));
+          parameters.getWorkingFolder().set(workingFolder);
+          parameters.getBuildService().set(buildService);
+        });
+        break;
+      default:
+        throw new GradleException("Unknown cleanMode '" + mode + "', expected one of "
+          + Arrays.asList(FULL, CACHE, BUILD));
+    }
+  }
+
+  private void delete(final File file) {
+    final Path path = file.toPath();
+    if (!Files.exists(path)) {
+      return;
+    }
+    getLogger().info("Deleting " + file);
+    final CMakeBuildService service = buildService.getOrNull();
+    if (cleanInBackground.getOrElse(Boolean.FALSE) && service != null && Files.isDirectory(path)) {
+      final Path trash = path.resolveSibling(path.getFileName() + TRASH + System.currentTimeMillis());
+      try {
+        Files.move(path, trash, StandardCopyOption.ATOMIC_MOVE);
+        service.deleteInBackground(trash);
+        return;
+      } catch (IOException e) {
+        getLogger().info("Could not rename " + file + ", deleting it in place", e);
+      }
+    }
+    try {
+      FileTrees.delete(path);
+    } catch (IOException e) {
+      throw new GradleException("Could not delete " + file, e);
+    }
+  }
+
+  // folders renamed by a background clean of an earlier build that did not finish
+  private void deleteLeftovers(final File working) {
+    final File[] siblings = working.getParentFile() == null ? null : working.getParentFile()
+      .listFiles((dir, name) -> name.startsWith(working.getName() + TRASH));
+    if (siblings == null) {
+      return;
+    }
+    final CMakeBuildService service = buildService.getOrNull();
+    for (File sibling : siblings) {
+      if (service != null) {
+        service.deleteInBackground(sibling.toPath());
+      } else {
+        try {
+          FileTrees.delete(sibling.toPath());
+        } catch (IOException e) {
+          getLogger().warn("Could not delete " + sibling, e);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,176 @@
+package dev.welbyseely;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * What a configured CMake build produces and depends on, as reported by the CMake File API.
+ */
+public class CMakeCodeModel {
+
+  public static class Target {
+
+    private final String name;
+    private final String type; // for example "EXECUTABLE", "SHARED_LIBRARY" or "UTILITY"
+    private final List<File> artifacts;
+    private final List<File> sources;
+    private final List<String> dependencies; // names of the targets this one depends on
+
+    Target(final String name, final String type, final List<File> artifacts,
+      final List<File> sources, final List<String> dependencies) {
+      this.name = name;
+      this.type = type;
+      this.artifacts = Collections.unmodifiableList(artifacts);
+      this.sources = Collections.unmodifiableList(sources);
+      this.dependencies = Collections.unmodifiableList(dependencies);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public List<File> getArtifacts() {
+      return artifacts;
+    }
+
+    public List<File> getSources() {
+      return sources;
+    }
+
+    public List<String> getDependencies() {
+      return dependencies;
+    }
+  }
+
+  private final File sourceFolder;
+  private final File buildFolder;
+  private final Map<String, List<Target>> configurations; // by configuration name, in reply order
+  private final List<File> cmakeInputs;
+  private final Map<String, String> toolchains;
+
+  CMakeCodeModel(final File sourceFolder, final File buildFolder,
+    final Map<String, List<Target>> configurations, final List<File> cmakeInputs,
+    final Map<String, String> toolchains) {
+    this.sourceFolder = sourceFolder;
+    this.buildFolder = buildFolder;
+    this.configurations = Collections.unmodifiableMap(new LinkedHashMap<>(configurations));
+    this.cmakeInputs = Collections.unmodifiableList(cmakeInputs);
+    this.toolchains = Collections.unmodifiableMap(toolchains);
+  }
+
+  public File getSourceFolder() {
+    return sourceFolder;
+  }
+
+  public File getBuildFolder() {
+    return buildFolder;
+  }
+
+  public Map<String, List<Target>> getConfigurations() {
+    return configurations;
+  }
+
+  /**
+   * CMakeLists.txt files, included .cmake scripts and other files read while configuring, without
+   * the ones generated by the build or belonging to the CMake installation.
+   */
+  public List<File> getCMakeInputs() {
+    return cmakeInputs;
+  }
+
+  /**
+   * The compiler id, version and target by language, for example "CXX": "GNU 12.2.0". Empty
+   * before CMake 3.20.
+   */
+  public Map<String, String> getToolchains() {
+    return toolchains;
+  }
+
+  /**
+   * The targets of the given configuration. Single-config generators report just one
+   * configuration, which is used when the requested one is not found.
+   */
+  public List<Target> getTargets(final String configuration) {
+    if (configuration != null) {
+      for (Map.Entry<String, List<Target>> entry : configurations.entrySet()) {
+        if (entry.getKey().equalsIgnoreCase(configuration)) {
+          return entry.getValue();
+        }
+      }
+    }
+    return configurations.isEmpty() ? Collections.emptyList()
+      : configurations.values().iterator().next();
+  }
+
+  /**
+   * The artifacts produced when building the given target, keyed by "target/file name". All
+   * artifacts are returned for the default, "all" and "install" targets.
+   */
+  public Map<String, File> getArtifacts(final String configuration, final String buildTarget) {
+    final boolean allTargets = isAllTargets(buildTarget);
+
+    final Map<String, File> artifacts = new LinkedHashMap<>();
+    for (Target target : getTargets(configuration)) {
+      if (allTargets || target.getName().equals(buildTarget)) {
+        for (File artifact : target.getArtifacts()) {
+          artifacts.put(target.getName() + "/" + artifact.getName(), artifact);
+        }
+      }
+    }
+    return artifacts;
+  }
+
+  /**
+   * The names of the given target and of the targets it depends on, directly or not, as they are
+   * built with it. Null for the default, "all" and "install" targets, which build all of them.
+   */
+  public Set<String> getTargetsBuiltWith(final String configuration, final String buildTarget) {
+    if (isAllTargets(buildTarget)) {
+      return null;
+    }
+    final Map<String, Target> byName = new HashMap<>();
+    for (Target target : getTargets(configuration)) {
+      byName.put(target.getName(), target);
+    }
+    final Set<String> built = new TreeSet<>();
+    final Deque<String> pending = new ArrayDeque<>(Collections.singleton(buildTarget));
+    while (!pending.isEmpty()) {
+      final String name = pending.pop();
+      if (built.add(name) && byName.containsKey(name)) {
+        pending.addAll(byName.get(name).getDependencies());
+      }
+    }
+    return built;
+  }
+
+  private static boolean isAllTargets(final String buildTarget) {
+    return buildTarget == null || buildTarget.isEmpty()
+      || buildTarget.equals("all") || buildTarget.equals("ALL_BUILD")
+      || buildTarget.equals("install") || buildTarget.equals("INSTALL");
+  }
+
+  /**
+   * The source files of all targets of the given configuration.
+   */
+  public List<File> getSources(final String configuration) {
+    final List<File> sources = new ArrayList<>();
+    for (Target target : getTargets(configuration)) {
+      sources.addAll(target.getSources());
+    }
+    return sources;
+  }
+
+}
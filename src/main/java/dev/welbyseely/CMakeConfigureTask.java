@@ -2,50 +2,93 @@ package dev.welbyseely;
 
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.ProjectLayout;
+import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.*;
+import org.gradle.work.DisableCachingByDefault;
+import org.gradle.workers.WorkerExecutor;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import javax.inject.Inject;
 
+@DisableCachingByDefault(because = "The configured build folder contains absolute paths")
 public class CMakeConfigureTask extends DefaultTask {
     private final Property<String> executable;
     private final DirectoryProperty workingFolder;
     private final DirectoryProperty sourceFolder;
     private final Property<String> configurationTypes;
     private final Property<String> installPrefix;
-    private final Property<String> generator; // for example: "Visual Studio 16 2019"
+    private final Property<String> generator; // for example: "Visual Studio 16 2019", or "auto" to prefer Ninja
     private final Property<String> platform ; // for example "x64" or "Win32" or "ARM" or "ARM64", supported on vs > 8.0
     private final Property<String> toolset; // for example "v142", supported on vs > 10.0
     private final Property<Boolean> buildSharedLibs;
     private final Property<Boolean> buildStaticLibs;
     private final MapProperty<String,String> def;
-
-    public CMakeConfigureTask() {
+    private final Property<String> compilerCache; // "auto", "ccache", "sccache" or a launcher path
+    private final Property<Boolean> forceConfigure; // run cmake even if the configuration is unchanged
+    private final Property<String> configurePreset; // configure with cmake --preset
+    private final Property<Duration> configureTimeout; // stop cmake after this time
+    private final Property<Boolean> jobPools; // size ninja job pools by the available memory
+    private final Property<Integer> compileJobMemory; // MiB per compile job, until one is observed
+    private final Property<Integer> linkJobMemory; // MiB per link job, until one is observed
+    private final Property<Integer> concurrentBuilds; // builds sharing the memory of the job pools
+    private final Property<CMakeBuildService> buildService;
+    private final DirectoryProperty generatorCacheFolder; // set by the plugin
+    private final WorkerExecutor workerExecutor;
+    private final ObjectFactory objects;
+
+    @Inject
+    public CMakeConfigureTask(final WorkerExecutor workerExecutor, final ObjectFactory objects,
+        final ProjectLayout layout) {
+        this.workerExecutor = workerExecutor;
+        this.objects = objects;
         setGroup("cmake");
         setDescription("Configure a Build with CMake");
-        executable = getProject().getObjects().property(String.class);
-        workingFolder = getProject().getObjects().directoryProperty();
-        sourceFolder = getProject().getObjects().directoryProperty();
-        configurationTypes = getProject().getObjects().property(String.class);
-        installPrefix = getProject().getObjects().property(String.class);
-        generator = getProject().getObjects().property(String.class);
-        platform = getProject().getObjects().property(String.class);
-        toolset = getProject().getObjects().property(String.class);
-        buildSharedLibs = getProject().getObjects().property(Boolean.class);
-        buildStaticLibs = getProject().getObjects().property(Boolean.class);
-        def = getProject().getObjects().mapProperty(String.class, String.class);
+        executable = objects.property(String.class);
+        workingFolder = objects.directoryProperty();
+        sourceFolder = objects.directoryProperty();
+        configurationTypes = objects.property(String.class);
+        installPrefix = objects.property(String.class);
+        generator = objects.property(String.class);
+        platform = objects.property(String.class);
+        toolset = objects.property(String.class);
+        buildSharedLibs = objects.property(Boolean.class);
+        buildStaticLibs = objects.property(Boolean.class);
+        def = objects.mapProperty(String.class, String.class);
+        compilerCache = objects.property(String.class);
+        forceConfigure = objects.property(Boolean.class);
+        configurePreset = objects.property(String.class);
+        configureTimeout = objects.property(Duration.class);
+        jobPools = objects.property(Boolean.class);
+        compileJobMemory = objects.property(Integer.class);
+        linkJobMemory = objects.property(Integer.class);
+        concurrentBuilds = objects.property(Integer.class);
+        buildService = objects.property(CMakeBuildService.class);
+        generatorCacheFolder = objects.directoryProperty();
 
         // default values
-        workingFolder.set(new File(getProject().getBuildDir(), "cmake"));
-        sourceFolder.set(new File(getProject().getBuildDir(), "src" + File.separator + "main" + File.separator + "cpp"));
+        workingFolder.set(layout.getBuildDirectory().dir("cmake"));
+        sourceFolder.set(layout.getBuildDirectory().dir("src" + File.separator + "main" + File.separator + "cpp"));
     }
 
     public void configureFromProject() {
-        CMakePluginExtension ext = (CMakePluginExtension)getProject().getExtensions().getByName("cmake");
+        configureFrom( (CMakePluginExtension)getProject().getExtensions().getByName("cmake") );
+    }
+
+    /**
+     * Uses the settings of the given cmake extension.
+     */
+    public void configureFrom(final CMakePluginExtension ext) {
         executable.set( ext.getExecutable() );
         workingFolder.set( ext.getWorkingFolder() );
         sourceFolder.set( ext.getSourceFolder() );
@@ -57,6 +100,13 @@ public class CMakeConfigureTask extends DefaultTask {
         buildSharedLibs.set( ext.getBuildSharedLibs() );
         buildStaticLibs.set( ext.getBuildStaticLibs() );
         def.set( ext.getDefs() );
+        compilerCache.set( ext.getCompilerCache() );
+        forceConfigure.set( ext.getForceConfigure() );
+        configureTimeout.set( ext.getConfigureTimeout() );
+        jobPools.set( ext.getJobPools() );
+        compileJobMemory.set( ext.getCompileJobMemory() );
+        linkJobMemory.set( ext.getLinkJobMemory() );
+        concurrentBuilds.set( ext.getConcurrentBuilds() );
     }
 
     /// region getters
@@ -71,11 +121,20 @@ public class CMakeConfigureTask extends DefaultTask {
         return workingFolder;
     }
 
-    @InputDirectory
+    @Internal // tracked by getConfigureInputs()
     public DirectoryProperty getSourceFolder() {
         return sourceFolder;
     }
 
+    /**
+     * The CMake scripts of the last configure, see {@link #findConfigureInputs()}.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public FileCollection getConfigureInputs() {
+        return objects.fileCollection().from(findConfigureInputs());
+    }
+
     @Input
     @Optional
     public Property<String> getConfigurationTypes() {
@@ -123,16 +182,276 @@ public class CMakeConfigureTask extends DefaultTask {
     public MapProperty<String, String> getDef() {
         return def;
     }
+
+    @Internal // tracked by getCompilerLauncher()
+    public Property<String> getCompilerCache() {
+        return compilerCache;
+    }
+
+    /**
+     * The compiler launcher the compilerCache setting resolves to, so that installing or removing
+     * ccache or sccache re-runs configure.
+     */
+    @Input
+    @Optional
+    public String getCompilerLauncher() {
+        return CompilerCache.find(compilerCache.getOrNull());
+    }
+
+    /**
+     * A configure preset of the source folder's CMakePresets.json. The preset selects the generator,
+     * platform, toolset and cache variables, definitions of this task are added to them.
+     */
+    @Input
+    @Optional
+    public Property<String> getConfigurePreset() {
+        return configurePreset;
+    }
+
+    @Internal
+    public Property<Boolean> getForceConfigure() {
+        return forceConfigure;
+    }
+
+    /**
+     * Defines CMAKE_JOB_POOLS with a compile and a link pool sized by the available memory, which
+     * the Ninja generators limit the parallel compile and link jobs with.
+     */
+    @Input
+    @Optional
+    public Property<Boolean> getJobPools() {
+        return jobPools;
+    }
+
+    @Input
+    @Optional
+    public Property<Integer> getCompileJobMemory() {
+        return compileJobMemory;
+    }
+
+    @Input
+    @Optional
+    public Property<Integer> getLinkJobMemory() {
+        return linkJobMemory;
+    }
+
+    /**
+     * The number of builds expected to run at the same time on this machine, which split the
+     * memory of the job pools between them, 1 by default.
+     */
+    @Input
+    @Optional
+    public Property<Integer> getConcurrentBuilds() {
+        return concurrentBuilds;
+    }
+
+    /**
+     * Stops cmake and all processes it started when it runs longer than this.
+     */
+    @Internal
+    public Property<Duration> getConfigureTimeout() {
+        return configureTimeout;
+    }
+
+    @Internal
+    public Property<CMakeBuildService> getBuildService() {
+        return buildService;
+    }
+
+    /**
+     * Where the generators cmake supports are remembered, by cmake version.
+     */
+    @Internal
+    public DirectoryProperty getGeneratorCacheFolder() {
+        return generatorCacheFolder;
+    }
+
+    /**
+     * The CMake File API reply of the last configure, read when asked for, null before the first one.
+     */
+    @Internal
+    public CMakeCodeModel getCodeModel() {
+        return CMakeFileApi.readReply(workingFolder.getAsFile().get());
+    }
     /// endregion
 
+    /**
+     * Configuring only reads the CMake scripts, so only those are fingerprinted instead of the
+     * whole source folder: the files CMake reported reading during the last configure, relative
+     * to the source folder so the fingerprint doesn't depend on the checkout location. Before the
+     * first configure, which runs anyway, that is only the top-level CMakeLists.txt and presets.
+     */
+    private List<Object> findConfigureInputs() {
+        final File source = sourceFolder.getAsFile().get();
+        final File working = workingFolder.getAsFile().get();
+        final List<String> scripts = new ArrayList<>();
+        scripts.add("CMakeLists.txt");
+        scripts.add("CMakePresets.json");
+        scripts.add("CMakeUserPresets.json");
+
+        final List<Object> inputs = new ArrayList<>();
+        final CMakeCodeModel model = CMakeFileApi.readReply(working);
+        if (model != null && model.getSourceFolder().toPath().normalize().equals(source.toPath().normalize())) {
+            final Path root = source.toPath().normalize();
+            for ( File input : model.getCMakeInputs() ) {
+                final Path path = input.toPath().normalize();
+                if ( path.startsWith(root) )
+                    scripts.add(root.relativize(path).toString().replace(File.separatorChar, '/'));
+                else
+                    inputs.add(input);
+            }
+        }
+        // only the listed files are visited, not the whole source folder
+        inputs.add(objects.fileTree().from(source).include(scripts));
+
+        final String toolchainFile = def.getOrElse(Collections.emptyMap()).get("CMAKE_TOOLCHAIN_FILE");
+        if ( toolchainFile != null && !toolchainFile.isEmpty() ) {
+            // relative toolchain files are resolved against the build folder by cmake
+            final File toolchain = new File(toolchainFile);
+            inputs.add(toolchain.isAbsolute() ? toolchain : new File(working, toolchainFile));
+        }
+
+        return inputs;
+    }
+
+    /**
+     * The -D cache definitions of the command line, by name.
+     */
+    private Map<String, String> cacheDefinitions() {
+        final Map<String, String> definitions = new LinkedHashMap<>();
+
+        if ( configurationTypes.isPresent() && !configurationTypes.get().isEmpty() )
+            definitions.put("CMAKE_CONFIGURATION_TYPES", configurationTypes.get());
+
+        if ( installPrefix.isPresent() && !installPrefix.get().isEmpty() )
+            definitions.put("CMAKE_INSTALL_PREFIX", installPrefix.get());
+
+        if ( buildSharedLibs.isPresent() )
+            definitions.put("BUILD_SHARED_LIBS", buildSharedLibs.get().booleanValue() ? "ON" : "OFF");
+
+        if ( buildStaticLibs.isPresent() )
+            definitions.put("BUILD_STATIC_LIBS", buildStaticLibs.get().booleanValue() ? "ON" : "OFF");
+
+        if ( def.isPresent() )
+            definitions.putAll(def.get());
+
+        // explicit pool definitions win as well. Each of the concurrentBuilds gets its share
+        // of the memory
+        if ( jobPools.getOrElse(Boolean.FALSE) ) {
+            JobPools.definitions(workingFolder.getAsFile().get(),
+                compileJobMemory.getOrElse(JobPools.DEFAULT_COMPILE_JOB_MEMORY),
+                linkJobMemory.getOrElse(JobPools.DEFAULT_LINK_JOB_MEMORY),
+                concurrentBuilds.getOrElse(1))
+                .forEach(definitions::putIfAbsent);
+        }
+
+        // explicit launcher definitions win over the compiler cache
+        final String launcher = getCompilerLauncher();
+        if ( launcher != null ) {
+            definitions.putIfAbsent("CMAKE_C_COMPILER_LAUNCHER", launcher);
+            definitions.putIfAbsent("CMAKE_CXX_COMPILER_LAUNCHER", launcher);
+        }
+
+        return definitions;
+    }
+
+    /**
+     * Whether the working folder is already configured from the source folder with the requested
+     * generator, platform, toolset and cache definitions. Changed CMake scripts don't matter, as
+     * cmake --build re-runs cmake for those by itself. Preset configurations are always re-run, as
+     * the cache variables of the preset are not compared.
+     */
+    private boolean isConfigurationUnchanged() {
+        if ( configurePreset.isPresent() )
+            return false;
+
+        final File working = workingFolder.getAsFile().get();
+        final Map<String, String> cache = CMakeCache.read(working);
+        if ( cache.isEmpty() || CMakeFileApi.readReply(working) == null )
+            return false;
+
+        final String home = cache.get("CMAKE_HOME_DIRECTORY");
+        if ( home == null || !new File(home).toPath().normalize()
+            .equals(sourceFolder.getAsFile().get().toPath().normalize()) )
+            return false;
+
+        final String resolvedGenerator = resolveGenerator();
+        if ( (resolvedGenerator != null && !resolvedGenerator.equals(cache.get("CMAKE_GENERATOR")))
+            || !matches(cache, "CMAKE_GENERATOR_PLATFORM", platform)
+            || !matches(cache, "CMAKE_GENERATOR_TOOLSET", toolset) )
+            return false;
+
+        for ( Map.Entry<String, String> entry : cacheDefinitions().entrySet() ) {
+            // definitions may carry a type, as in -DNAME:BOOL=ON
+            final String name = entry.getKey().contains(":")
+                ? entry.getKey().substring(0, entry.getKey().indexOf(':')) : entry.getKey();
+            if ( jobPools.getOrElse(Boolean.FALSE) && name.equals("CMAKE_JOB_POOLS")
+                && JobPools.similar(cache.get(name), entry.getValue()) )
+                continue;
+            if ( !entry.getValue().equals(cache.get(name)) )
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean matches(final Map<String, String> cache, final String name, final Property<String> requested) {
+        return !requested.isPresent() || requested.get().isEmpty() || requested.get().equals(cache.get(name));
+    }
+
+    /**
+     * The generator to pass with -G, or null for cmake's default. "auto" keeps the generator of an
+     * existing configuration and otherwise picks Ninja (Ninja Multi-Config if configurationTypes
+     * is set) when cmake supports it and ninja is installed. Platform and toolset are not
+     * supported by Ninja, so cmake's default is used with those.
+     */
+    private String resolveGenerator() {
+        if ( !generator.isPresent() || generator.get().isEmpty() )
+            return null;
+        if ( !generator.get().equals(CMakeGenerators.AUTO) )
+            return generator.get();
+
+        final String configured = CMakeCache.read(workingFolder.getAsFile().get()).get("CMAKE_GENERATOR");
+        if ( configured != null )
+            return configured;
+
+        if ( (platform.isPresent() && !platform.get().isEmpty()) || (toolset.isPresent() && !toolset.get().isEmpty()) )
+            return null;
+
+        final boolean ninjaInstalled = def.getOrElse(Collections.emptyMap()).containsKey("CMAKE_MAKE_PROGRAM")
+            || CMakeExecutor.findOnPath("ninja") != null || CMakeExecutor.findOnPath("ninja-build") != null;
+        if ( !ninjaInstalled )
+            return null;
+
+        final List<String> available = CMakeGenerators.available(executable.getOrElse("cmake"),
+            generatorCacheFolder.getAsFile().getOrNull());
+        final boolean multiConfig = configurationTypes.isPresent() && !configurationTypes.get().isEmpty();
+        if ( multiConfig && available.contains(CMakeGenerators.NINJA_MULTI_CONFIG) )
+            return CMakeGenerators.NINJA_MULTI_CONFIG;
+        return available.contains(CMakeGenerators.NINJA) ? CMakeGenerators.NINJA : null;
+    }
+
     private List<String> buildCmdLine() {
         List<String> parameters = new ArrayList<>();
 
         parameters.add(executable.getOrElse("cmake"));
 
-        if ( generator.isPresent() && !generator.get().isEmpty() ) {
+        if ( configurePreset.isPresent() ) {
+            // the preset's binaryDir is overridden by -B, which is the working folder either way
+            parameters.add("--preset");
+            parameters.add(configurePreset.get());
+            parameters.add("-S");
+            parameters.add(sourceFolder.getAsFile().get().getAbsolutePath());
+            parameters.add("-B");
+            parameters.add(workingFolder.getAsFile().get().getAbsolutePath());
+            for ( Map.Entry<String,String> entry : cacheDefinitions().entrySet() )
+                parameters.add("-D"+entry.getKey()+"="+entry.getValue());
+            return parameters;
+        }
+
+        final String resolvedGenerator = resolveGenerator();
+        if ( resolvedGenerator != null ) {
             parameters.add("-G");
-            parameters.add(generator.get());
+            parameters.add(resolvedGenerator);
         }
 
         if ( platform.isPresent() && !platform.get().isEmpty() ) {
@@ -145,24 +464,8 @@ public class CMakeConfigureTask extends DefaultTask {
             parameters.add(toolset.get());
         }
 
-        if ( configurationTypes.isPresent() && !configurationTypes.get().isEmpty() )
-            parameters.add("-DCMAKE_CONFIGURATION_TYPES="+ configurationTypes.get());
-
-        if ( installPrefix.isPresent() && !installPrefix.get().isEmpty() )
-            parameters.add("-DCMAKE_INSTALL_PREFIX="+installPrefix.get() );
-
-
-        if ( buildSharedLibs.isPresent() )
-            parameters.add("-DBUILD_SHARED_LIBS=" + (buildSharedLibs.get().booleanValue() ? "ON" : "OFF") );
-
-        if ( buildStaticLibs.isPresent() )
-            parameters.add("-DBUILD_STATIC_LIBS=" + (buildStaticLibs.get().booleanValue() ? "ON" : "OFF") );
-
-
-        if ( def.isPresent() ) {
-            for ( Map.Entry<String,String> entry : def.get().entrySet() )
-                parameters.add("-D"+entry.getKey()+"="+entry.getValue());
-        }
+        for ( Map.Entry<String,String> entry : cacheDefinitions().entrySet() )
+            parameters.add("-D"+entry.getKey()+"="+entry.getValue());
 
         parameters.add( sourceFolder.getAsFile().get().getAbsolutePath() );
 
@@ -171,8 +474,22 @@ public class CMakeConfigureTask extends DefaultTask {
 
     @TaskAction
     public void configure() {
-        CMakeExecutor executor = new CMakeExecutor(getLogger(), getName());
-        executor.exec(buildCmdLine(), workingFolder.getAsFile().get());
+        CMakeFileApi.writeQuery(workingFolder.getAsFile().get());
+
+        if ( !forceConfigure.getOrElse(Boolean.FALSE) && isConfigurationUnchanged() ) {
+            getLogger().info("  CMakePlugin.task " + getName()
+                + " - configuration unchanged, leaving regeneration to cmake --build");
+            setDidWork(false);
+            return;
+        }
+
+        workerExecutor.noIsolation().submit(CMakeWorkAction.class, parameters -> {
+            parameters.getTaskName().set(getName());
+            parameters.getCommandLine().set(buildCmdLine());
+            parameters.getWorkingFolder().set(workingFolder);
+            parameters.getBuildService().set(buildService);
+            parameters.getTimeoutMillis().set(configureTimeout.map(Duration::toMillis));
+        });
     }
 
 }
@@ -2,24 +2,43 @@ package dev.welbyseely;
 
 import org.gradle.api.GradleException;
 import org.gradle.api.GradleScriptException;
+import org.gradle.api.logging.LogLevel;
 import org.gradle.api.logging.Logger;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.stream.Stream;
 
 public class CMakeExecutor {
 
+  /**
+   * A command that failed, timed out or was cancelled, with what it used until then.
+   */
+  static final class Failure extends GradleException {
+
+    private static final long serialVersionUID = 1L;
+
+    final transient ProcessMonitor.Usage usage;
+    final String status; // "failed", "timed out" or "cancelled"
+    final int exitCode; // of a failed command, -1 otherwise
+
+    Failure(final String message, final ProcessMonitor.Usage usage, final String status,
+      final int exitCode, final Throwable cause) {
+      super(message, cause);
+      this.usage = usage;
+      this.status = status;
+      this.exitCode = exitCode;
+    }
+  }
+
   private final Logger logger;
   private final String taskName;
 
@@ -28,7 +47,29 @@ public class CMakeExecutor {
     this.taskName = taskName;
   }
 
-  protected void exec(final List<String> cmdLine, final File workingFolder) throws GradleException {
+  protected ProcessMonitor.Usage exec(final List<String> cmdLine, final File workingFolder)
+    throws GradleException {
+    return exec(cmdLine, workingFolder, Collections.emptyMap());
+  }
+
+  protected ProcessMonitor.Usage exec(final List<String> cmdLine, final File workingFolder,
+    final Map<String, String> environment) throws GradleException {
+    return exec(cmdLine, workingFolder, environment, null);
+  }
+
+  protected ProcessMonitor.Usage exec(final List<String> cmdLine, final File workingFolder,
+    final Map<String, String> environment, final OutputPump.LineListener outputListener)
+    throws GradleException {
+    return exec(cmdLine, workingFolder, environment, outputListener, 0);
+  }
+
+  /**
+   * Runs the command and waits for it. If the calling thread is interrupted or the command runs
+   * longer than timeoutMillis (if positive), the command and all processes it started are stopped.
+   */
+  protected ProcessMonitor.Usage exec(final List<String> cmdLine, final File workingFolder,
+    final Map<String, String> environment, final OutputPump.LineListener outputListener,
+    final long timeoutMillis) throws GradleException {
     // log command line parameters
     StringBuilder sb = new StringBuilder("  CMakePlugin.task " + taskName + " - exec: ");
     for (String s : cmdLine) {
@@ -39,8 +80,7 @@ public class CMakeExecutor {
     // build process
     ProcessBuilder pb = new ProcessBuilder(cmdLine);
     pb.directory(workingFolder);
-
-    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    pb.environment().putAll(environment);
 
     try {
       // make sure working folder exists
@@ -48,38 +88,80 @@ public class CMakeExecutor {
 
       // start
       Process process = pb.start();
+      final ProcessMonitor monitor = ProcessMonitor.start(process);
 
-      Future<Void> stdoutFuture = executor.submit(() -> {
-        readStream(process.getInputStream(), true);
-        return null;
-      });
-      Future<Void> stderrFuture = executor.submit(() -> {
-        readStream(process.getErrorStream(), false);
-        return null;
-      });
+      Future<Void> stdoutFuture = OutputPump.start(process.getInputStream(), () -> !process.isAlive(),
+        logger, LogLevel.INFO, outputListener);
+      Future<Void> stderrFuture = OutputPump.start(process.getErrorStream(), () -> !process.isAlive(),
+        logger, LogLevel.ERROR, outputListener);
 
-      int retCode = process.waitFor();
+      ProcessTree.track(process);
+      final boolean exited;
+      try {
+        if (timeoutMillis > 0) {
+          exited = process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+        } else {
+          process.waitFor();
+          exited = true;
+        }
+      } catch (InterruptedException e) {
+        logger.warn("CMakeExecutor[" + taskName + "]Warn: cancelled, stopping CMake and its child processes.");
+        final ProcessMonitor.Usage usage = monitor.stop();
+        ProcessTree.destroy(process, ProcessTree.GRACE_MILLIS);
+        Thread.currentThread().interrupt();
+        throw new Failure("[" + taskName + "]Error: CMAKE was cancelled", usage, "cancelled", -1, e);
+      }
+      if (!exited) {
+        final ProcessMonitor.Usage usage = monitor.stop();
+        ProcessTree.destroy(process, ProcessTree.GRACE_MILLIS);
+        throw new Failure(String.format(Locale.ROOT,
+          "[%s]Error: CMAKE timed out after %ds, it and its child processes were stopped", taskName,
+          TimeUnit.MILLISECONDS.toSeconds(timeoutMillis)), usage, "timed out", -1, null);
+      }
+      ProcessTree.untrack(process);
+      int retCode = process.exitValue();
+      final ProcessMonitor.Usage usage = monitor.stop();
+      logger.info(String.format(Locale.ROOT, "  CMakePlugin.task %s - wall %.1fs, cpu %s, peak rss %s",
+        taskName, usage.wallMillis / 1000.0,
+        usage.cpuMillis < 0 ? "n/a" : String.format(Locale.ROOT, "%.1fs", usage.cpuMillis / 1000.0),
+        JobPools.describe(usage.peakRssBytes)));
+      if (usage.peakCompileJobBytes > 0 || usage.peakLinkJobBytes > 0) {
+        logger.info("  CMakePlugin.task " + taskName + " - peak compile job "
+          + JobPools.describe(usage.peakCompileJobBytes) + ", peak link job "
+          + JobPools.describe(usage.peakLinkJobBytes));
+      }
       warnIfTimeout(stdoutFuture,
         "CMakeExecutor[" + taskName + "]Warn: timed out waiting for stdout to be closed.");
       warnIfTimeout(stderrFuture,
         "CMakeExecutor[" + taskName + "]Warn: timed out waiting for stderr to be closed.");
       if (retCode != 0) {
-        throw new GradleException("[" + taskName + "]Error: CMAKE returned " + retCode);
+        throw new Failure("[" + taskName + "]Error: CMAKE returned " + retCode, usage, "failed", retCode,
+          null);
       }
+      return usage;
     } catch (IOException | InterruptedException | ExecutionException e) {
       throw new GradleScriptException("CMakeExecutor[" + taskName + "].", e);
-    } finally {
-      executor.shutdown();
     }
   }
 
-  private void readStream(final InputStream inputStream, boolean isStdOut) {
-    final Stream<String> lines = new BufferedReader(new InputStreamReader(inputStream)).lines();
-    if (isStdOut) {
-      lines.forEach(logger::info);
-    } else {
-      lines.forEach(logger::error);
+  /**
+   * The executable with the given name in one of the PATH folders, or null if there is none.
+   */
+  static File findOnPath(final String name) {
+    final String path = System.getenv("PATH");
+    if (path == null) {
+      return null;
+    }
+    final boolean windows = System.getProperty("os.name").toLowerCase(Locale.ROOT).contains("windows");
+    for (String folder : path.split(File.pathSeparator)) {
+      for (String suffix : windows ? Arrays.asList(".exe", ".cmd", ".bat", "") : Collections.singletonList("")) {
+        final File candidate = new File(folder, name + suffix);
+        if (candidate.isFile() && candidate.canExecute()) {
+          return candidate;
+        }
+      }
     }
+    return null;
   }
 
   private void warnIfTimeout(final Future<Void> future, final String message)
@@ -0,0 +1,194 @@
+package dev.welbyseely;
+
+import groovy.json.JsonSlurper;
+import org.gradle.api.GradleException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Queries and reads the CMake File API (see cmake-file-api(7)) of a build folder. The query is
+ * written before configuring, CMake writes the reply while generating.
+ */
+final class CMakeFileApi {
+
+  static final String CLIENT = "client-gradle-cmake-plugin";
+  private static final List<String> QUERIES = Arrays.asList("codemodel-v2", "cmakeFiles-v1",
+    "toolchains-v1");
+
+  // the last reply read from each build folder, reused while its index file is unchanged
+  private static final Map<String, CachedReply> REPLIES = new ConcurrentHashMap<>();
+
+  private static final class CachedReply {
+
+    final String indexName;
+    final long indexModified;
+    final CMakeCodeModel model;
+
+    CachedReply(final String indexName, final long indexModified, final CMakeCodeModel model) {
+      this.indexName = indexName;
+      this.indexModified = indexModified;
+      this.model = model;
+    }
+  }
+
+  private CMakeFileApi() {
+  }
+
+  /**
+   * Writes the stateless queries for the code model, the CMake input files and the toolchains.
+   */
+  static void writeQuery(final File buildFolder) {
+    final File queryFolder = new File(buildFolder, ".cmake/api/v1/query/" + CLIENT);
+    if (!queryFolder.isDirectory() && !queryFolder.mkdirs()) {
+      throw new GradleException("Could not create CMake file API query folder " + queryFolder);
+    }
+    try {
+      for (String query : QUERIES) {
+        File queryFile = new File(queryFolder, query);
+        if (!queryFile.exists() && !queryFile.createNewFile()) {
+          throw new GradleException("Could not create CMake file API query " + queryFile);
+        }
+      }
+    } catch (IOException e) {
+      throw new GradleException("Could not write CMake file API query to " + queryFolder, e);
+    }
+  }
+
+  static File replyFolder(final File buildFolder) {
+    return new File(buildFolder, ".cmake/api/v1/reply");
+  }
+
+  /**
+   * Reads the latest reply in the build folder, or returns null if CMake did not write one yet.
+   * The reply is only parsed again when CMake wrote a new one.
+   */
+  static CMakeCodeModel readReply(final File buildFolder) {
+    final File replyFolder = replyFolder(buildFolder);
+    final File[] indexFiles = replyFolder.listFiles((dir, name) ->
+      name.startsWith("index-") && name.endsWith(".json"));
+    if (indexFiles == null || indexFiles.length == 0) {
+      return null;
+    }
+    // index file names contain a timestamp, the latest one sorts last
+    Arrays.sort(indexFiles);
+    final File indexFile = indexFiles[indexFiles.length - 1];
+
+    final String key = buildFolder.getAbsolutePath();
+    final long modified = indexFile.lastModified();
+    final CachedReply cached = REPLIES.get(key);
+    if (cached != null && cached.indexName.equals(indexFile.getName())
+      && cached.indexModified == modified) {
+      return cached.model;
+    }
+    final CMakeCodeModel model = parseReply(replyFolder, indexFile);
+    if (model != null) {
+      REPLIES.put(key, new CachedReply(indexFile.getName(), modified, model));
+    }
+    return model;
+  }
+
+  private static CMakeCodeModel parseReply(final File replyFolder, final File indexFile) {
+    final Map<?, ?> index = parse(indexFile);
+    final Map<?, ?> reply = map(map(index.get("reply")).get(CLIENT));
+    final Map<?, ?> codemodelReply = map(reply.get("codemodel-v2"));
+    final Map<?, ?> cmakeFilesReply = map(reply.get("cmakeFiles-v1"));
+    final Map<?, ?> toolchainsReply = map(reply.get("toolchains-v1")); // cmake 3.20+
+    if (codemodelReply.get("jsonFile") == null) {
+      return null;
+    }
+
+    final Map<?, ?> codemodel = parse(new File(replyFolder, (String) codemodelReply.get("jsonFile")));
+    final File sourceFolder = new File((String) map(codemodel.get("paths")).get("source"));
+    final File buildRoot = new File((String) map(codemodel.get("paths")).get("build"));
+
+    final Map<String, List<CMakeCodeModel.Target>> configurations = new LinkedHashMap<>();
+    for (Object configuration : list(codemodel.get("configurations"))) {
+      final List<Map<?, ?>> targetReplies = new ArrayList<>();
+      final Map<String, String> namesById = new HashMap<>();
+      for (Object targetRef : list(map(configuration).get("targets"))) {
+        final Map<?, ?> target = parse(new File(replyFolder, (String) map(targetRef).get("jsonFile")));
+        targetReplies.add(target);
+        namesById.put((String) target.get("id"), (String) target.get("name"));
+      }
+      final List<CMakeCodeModel.Target> targets = new ArrayList<>();
+      for (Map<?, ?> target : targetReplies) {
+        final List<File> artifacts = new ArrayList<>();
+        for (Object artifact : list(target.get("artifacts"))) {
+          artifacts.add(resolve(buildRoot, (String) map(artifact).get("path")));
+        }
+        final List<File> sources = new ArrayList<>();
+        for (Object source : list(target.get("sources"))) {
+          if (!Boolean.TRUE.equals(map(source).get("isGenerated"))) {
+            sources.add(resolve(sourceFolder, (String) map(source).get("path")));
+          }
+        }
+        final List<String> dependencies = new ArrayList<>();
+        for (Object dependency : list(target.get("dependencies"))) {
+          final String name = namesById.get((String) map(dependency).get("id"));
+          if (name != null) {
+            dependencies.add(name);
+          }
+        }
+        targets.add(new CMakeCodeModel.Target((String) target.get("name"),
+          (String) target.get("type"), artifacts, sources, dependencies));
+      }
+      configurations.put((String) map(configuration).get("name"), targets);
+    }
+
+    final List<File> cmakeInputs = new ArrayList<>();
+    if (cmakeFilesReply.get("jsonFile") != null) {
+      final Map<?, ?> cmakeFiles = parse(new File(replyFolder, (String) cmakeFilesReply.get("jsonFile")));
+      for (Object input : list(cmakeFiles.get("inputs"))) {
+        final Map<?, ?> entry = map(input);
+        if (!Boolean.TRUE.equals(entry.get("isGenerated")) && !Boolean.TRUE.equals(entry.get("isCMake"))) {
+          cmakeInputs.add(resolve(sourceFolder, (String) entry.get("path")));
+        }
+      }
+    }
+
+    final Map<String, String> toolchains = new TreeMap<>();
+    if (toolchainsReply.get("jsonFile") != null) {
+      final Map<?, ?> toolchainList = parse(new File(replyFolder, (String) toolchainsReply.get("jsonFile")));
+      for (Object toolchain : list(toolchainList.get("toolchains"))) {
+        final Map<?, ?> compiler = map(map(toolchain).get("compiler"));
+        toolchains.put((String) map(toolchain).get("language"), compiler.get("id") + " "
+          + compiler.get("version") + (compiler.get("target") != null ? " " + compiler.get("target") : ""));
+      }
+    }
+
+    return new CMakeCodeModel(sourceFolder, buildRoot, configurations, cmakeInputs, toolchains);
+  }
+
+  private static File resolve(final File base, final String path) {
+    final File file = new File(path);
+    return file.isAbsolute() ? file : new File(base, path);
+  }
+
+  private static Map<?, ?> parse(final File file) {
+    try {
+      return (Map<?, ?>) new JsonSlurper().parse(file, StandardCharsets.UTF_8.name());
+    } catch (RuntimeException e) {
+      throw new GradleException("Could not read CMake file API reply " + file, e);
+    }
+  }
+
+  private static Map<?, ?> map(final Object value) {
+    return value instanceof Map ? (Map<?, ?>) value : Collections.emptyMap();
+  }
+
+  private static List<?> list(final Object value) {
+    return value instanceof List ? (List<?>) value : Collections.emptyList();
+  }
+
+}
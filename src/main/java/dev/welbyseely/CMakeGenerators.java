@@ -0,0 +1,141 @@
+package dev.welbyseely;
+
+import org.gradle.api.GradleScriptException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The generators of a cmake executable, parsed from the "Generators" section of cmake --help.
+ */
+final class CMakeGenerators {
+
+  static final String AUTO = "auto";
+  static final String NINJA = "Ninja";
+  static final String NINJA_MULTI_CONFIG = "Ninja Multi-Config";
+
+  private static final Map<String, List<String>> PROBED = new ConcurrentHashMap<>();
+
+  private CMakeGenerators() {
+  }
+
+  /**
+   * The "Generators" section of cmake --help, as printed.
+   */
+  static List<String> helpSection(final String executable) {
+    final ProcessBuilder pb = new ProcessBuilder(executable, "--help");
+    pb.redirectErrorStream(true);
+    final List<String> section = new ArrayList<>();
+    try {
+      final Process process = pb.start();
+      try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+        String line;
+        boolean foundGenerators = false;
+        while ((line = reader.readLine()) != null) {
+          if (line.equals("Generators")) {
+            foundGenerators = true;
+          }
+          if (foundGenerators) {
+            section.add(line);
+          }
+        }
+      }
+      process.waitFor();
+    } catch (IOException | InterruptedException e) {
+      throw new GradleScriptException("cmake --help failed.", e);
+    }
+    return section;
+  }
+
+  /**
+   * The generator names of a "Generators" section. Names are indented by two characters (or
+   * "* " for the default one), descriptions and wrapped lines are indented further.
+   */
+  static List<String> parse(final List<String> helpSection) {
+    final List<String> generators = new ArrayList<>();
+    for (String line : helpSection) {
+      if (line.length() < 3 || !(line.startsWith("  ") || line.startsWith("* "))
+        || line.charAt(2) == ' ') {
+        continue;
+      }
+      String name = line.substring(2);
+      final int equals = name.indexOf('=');
+      if (equals >= 0) {
+        name = name.substring(0, equals);
+      }
+      name = name.trim();
+      if (name.endsWith("[arch]")) {
+        name = name.substring(0, name.length() - "[arch]".length()).trim();
+      }
+      generators.add(name);
+    }
+    return generators;
+  }
+
+  /**
+   * The generators of the given cmake executable. The result is cached in memory and in the
+   * cache folder (usually in the Gradle user home), keyed by the executable's path, size and
+   * modification time, so cmake --help only runs once per installed cmake version.
+   */
+  static List<String> available(final String executable, final File cacheFolder) {
+    File resolved = new File(executable);
+    if (!resolved.isAbsolute()) {
+      resolved = CMakeExecutor.findOnPath(executable);
+      if (resolved == null) {
+        return parse(helpSection(executable));
+      }
+    }
+    final String key = hash(resolved.getAbsolutePath() + "|" + resolved.length() + "|"
+      + resolved.lastModified());
+    final File resolvedExecutable = resolved;
+    return PROBED.computeIfAbsent(key, k -> {
+      if (cacheFolder == null) {
+        return parse(helpSection(resolvedExecutable.getAbsolutePath()));
+      }
+      final File cacheFile = new File(cacheFolder, k + ".txt");
+      try {
+        if (cacheFile.isFile()) {
+          return Collections.unmodifiableList(
+            Files.readAllLines(cacheFile.toPath(), StandardCharsets.UTF_8));
+        }
+        final List<String> generators = parse(helpSection(resolvedExecutable.getAbsolutePath()));
+        if (cacheFolder.isDirectory() || cacheFolder.mkdirs()) {
+          // write to a temporary file first, concurrent builds may probe at the same time
+          final File temporary = File.createTempFile(k, ".tmp", cacheFolder);
+          Files.write(temporary.toPath(), generators, StandardCharsets.UTF_8);
+          if (!temporary.renameTo(cacheFile)) {
+            temporary.delete();
+          }
+        }
+        return Collections.unmodifiableList(generators);
+      } catch (IOException e) {
+        throw new GradleScriptException("Could not cache the cmake generators in " + cacheFile, e);
+      }
+    });
+  }
+
+  private static String hash(final String value) {
+    try {
+      final StringBuilder sb = new StringBuilder();
+      for (byte b : MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8))) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
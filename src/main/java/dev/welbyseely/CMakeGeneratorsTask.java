@@ -0,0 +1,44 @@
+package dev.welbyseely;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.logging.LogLevel;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.DisableCachingByDefault;
+
+import javax.inject.Inject;
+
+/**
+ * Lists the generators available on the current platform by parsing cmake --help's output.
+ */
+@DisableCachingByDefault(because = "Only prints the available generators")
+public class CMakeGeneratorsTask extends DefaultTask {
+
+  private final Property<String> executable;
+
+  @Inject
+  public CMakeGeneratorsTask(final ObjectFactory objects) {
+    setGroup("cmake");
+    setDescription("List available CMake generators");
+    executable = objects.property(String.class);
+  }
+
+  /// region getters
+  @Input
+  @Optional
+  public Property<String> getExecutable() {
+    return executable;
+  }
+  /// endregion
+
+  @TaskAction
+  public void listGenerators() {
+    for (String line : CMakeGenerators.helpSection(executable.getOrElse("cmake"))) {
+      getLogger().log(LogLevel.QUIET, line);
+    }
+  }
+
+}
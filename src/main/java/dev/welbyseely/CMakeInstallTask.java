@@ -0,0 +1,174 @@
+package dev.welbyseely;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.Task;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.DisableCachingByDefault;
+import org.gradle.workers.WorkerExecutor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Inject;
+
+/**
+ * Installs a built CMake build with cmake --install (CMake 3.15+). The files are installed into a
+ * staging folder in the build folder first and then the ones in the install manifest are copied
+ * into the install folder, skipping the files whose contents did not change. The task is up to
+ * date while the built files and sources are unchanged and the installed files are the ones the
+ * last install wrote.
+ */
+@DisableCachingByDefault(because = "Installing only copies files")
+public class CMakeInstallTask extends DefaultTask {
+
+  private final Property<String> executable;
+  private final DirectoryProperty workingFolder;
+  private final Property<String> installConfig;
+  private final Property<String> installComponent;
+  private final ConfigurableFileCollection installInputs;
+  private final DirectoryProperty installFolder;
+  private final Property<CMakeBuildService> buildService;
+  private final WorkerExecutor workerExecutor;
+
+  @Inject
+  public CMakeInstallTask(final WorkerExecutor workerExecutor, final ObjectFactory objects) {
+    this.workerExecutor = workerExecutor;
+    setGroup("cmake");
+    setDescription("Install a built Build with CMake");
+    executable = objects.property(String.class);
+    workingFolder = objects.directoryProperty();
+    installConfig = objects.property(String.class);
+    installComponent = objects.property(String.class);
+    installInputs = objects.fileCollection();
+    installFolder = objects.directoryProperty();
+    buildService = objects.property(CMakeBuildService.class);
+
+    // the install folder may hold other files, only the installed ones need to be unchanged
+    getOutputs().upToDateWhen(new InSync());
+  }
+
+  private static class InSync implements Spec<Task> {
+
+    @Override
+    public boolean isSatisfiedBy(final Task task) {
+      final CMakeInstallTask install = (CMakeInstallTask) task;
+      final File staging = install.stagingFolder();
+      return InstallSync.isInSync(staging,
+        InstallSync.manifest(install.workingFolder.getAsFile().get(), install.installComponent.getOrNull()),
+        install.installFolder.getAsFile().get(), install.stateFile(staging));
+    }
+  }
+
+  /// region getters
+  @Input
+  @Optional
+  public Property<String> getExecutable() {
+    return executable;
+  }
+
+  @Internal // the installed files are tracked by getInstallInputs()
+  public DirectoryProperty getWorkingFolder() {
+    return workingFolder;
+  }
+
+  @Input
+  @Optional
+  public Property<String> getInstallConfig() {
+    return installConfig;
+  }
+
+  /**
+   * Only install this component, for example "Runtime" or "Development".
+   */
+  @Input
+  @Optional
+  public Property<String> getInstallComponent() {
+    return installComponent;
+  }
+
+  /**
+   * The built files and the source folder, usually the outputs of the build task and its sources,
+   * as install rules can install any file of the source tree.
+   */
+  @InputFiles
+  @PathSensitive(PathSensitivity.RELATIVE)
+  public ConfigurableFileCollection getInstallInputs() {
+    return installInputs;
+  }
+
+  @OutputDirectory
+  public DirectoryProperty getInstallFolder() {
+    return installFolder;
+  }
+
+  @Internal
+  public Property<CMakeBuildService> getBuildService() {
+    return buildService;
+  }
+  /// endregion
+
+  private File stagingFolder() {
+    return new File(workingFolder.getAsFile().get(),
+      "gradle-install" + File.separator + installComponent.getOrElse("all"));
+  }
+
+  private File stateFile(final File staging) {
+    return new File(staging.getParentFile(), staging.getName() + ".state");
+  }
+
+  private List<String> buildCmdLine() {
+    List<String> parameters = new ArrayList<>();
+
+    parameters.add(executable.getOrElse("cmake"));
+    parameters.add("--install");
+    parameters.add(".");
+    parameters.add("--prefix");
+    parameters.add(stagingFolder().getAbsolutePath());
+
+    if (installConfig.isPresent()) {
+      parameters.add("--config");
+      parameters.add(installConfig.get());
+    }
+
+    if (installComponent.isPresent()) {
+      parameters.add("--component");
+      parameters.add(installComponent.get());
+    }
+
+    return parameters;
+  }
+
+  @TaskAction
+  public void install() {
+    // cmake skips staged files with an unchanged timestamp itself
+    workerExecutor.noIsolation().submit(CMakeWorkAction.class, parameters -> {
+      parameters.getTaskName().set(getName());
+      parameters.getCommandLine().set(buildCmdLine());
+      parameters.getWorkingFolder().set(workingFolder);
+      parameters.getBuildService().set(buildService);
+    });
+    workerExecutor.await();
+
+    final File staging = stagingFolder();
+    final InstallSync.Result result = InstallSync.sync(staging,
+      InstallSync.manifest(workingFolder.getAsFile().get(), installComponent.getOrNull()),
+      installFolder.getAsFile().get(),
+      stateFile(staging));
+    getLogger().info("  CMakePlugin.task " + getName() + " - " + result.copied + " files copied, "
+      + result.unchanged + " unchanged, " + result.deleted + " deleted");
+    setDidWork(result.copied + result.deleted > 0);
+  }
+
+}
@@ -1,30 +1,110 @@
 package dev.welbyseely;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.gradle.api.Action;
 import org.gradle.api.GradleException;
-import org.gradle.api.GradleScriptException;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
-import org.gradle.api.logging.LogLevel;
+import org.gradle.api.artifacts.type.ArtifactTypeDefinition;
+import org.gradle.api.attributes.Attribute;
+import org.gradle.api.attributes.Category;
+import org.gradle.api.attributes.Usage;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DuplicatesStrategy;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.Sync;
 import org.gradle.api.tasks.TaskContainer;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.nativeplatform.MachineArchitecture;
+import org.gradle.nativeplatform.OperatingSystemFamily;
 
 public class CMakePlugin implements Plugin<Project> {
 
   final private static String CMAKE_CONFIGURE = "cmakeConfigure";
   final private static String CMAKE_BUILD = "cmakeBuild";
+  final private static String CMAKE_TEST = "cmakeTest";
+  final private static String CMAKE_INSTALL = "cmakeInstall";
+  final private static String CMAKE_WATCH = "cmakeWatch";
+  final private static String CMAKE_ARTIFACTS = "cmakeArtifacts";
+  final private static String CMAKE_ELEMENTS = "cmakeElements";
 
-  private boolean deleteDirectory(File directoryToBeDeleted) {
-    File[] allContents = directoryToBeDeleted.listFiles();
-    if (allContents != null) {
-      for (File file : allContents) {
-        deleteDirectory(file);
-      }
-    }
-    return directoryToBeDeleted.delete();
+  /**
+   * The buildConfig of published build outputs, "default" if there is none.
+   */
+  public static final Attribute<String> BUILD_CONFIG_ATTRIBUTE =
+    Attribute.of("dev.welbyseely.cmake.buildConfig", String.class);
+
+  /**
+   * The target of published build outputs, "main" for the outputs of the default tasks.
+   */
+  public static final Attribute<String> TARGET_ATTRIBUTE =
+    Attribute.of("dev.welbyseely.cmake.target", String.class);
+
+  /**
+   * The install prefix is an output of builds of the "install" target.
+   */
+  private static Provider<Map<String, File>> installFolder(final Project project,
+    final Provider<String> buildTarget, final Provider<String> installPrefix) {
+    return project.getProviders().provider(() ->
+      "install".equals(buildTarget.getOrNull()) && !installPrefix.getOrElse("").isEmpty()
+        ? Collections.singletonMap("install", new File(installPrefix.get()))
+        : Collections.emptyMap());
+  }
+
+  /**
+   * The install prefix, or a folder in the build directory if there is none, so cmake --install
+   * never installs into the system.
+   */
+  private static Provider<Directory> installPrefixFolder(final Project project,
+    final Provider<String> installPrefix, final String taskName) {
+    return project.getLayout().dir(installPrefix
+      .map(prefix -> prefix.isEmpty() ? null : project.file(prefix)))
+      .orElse(project.getLayout().getBuildDirectory().dir("install/" + taskName));
+  }
+
+  /**
+   * Collects the outputs of a build task into a folder in build/cmake-artifacts and publishes it in
+   * a consumable configuration, so other projects can depend on the native libraries through
+   * attributes instead of paths and task dependencies.
+   */
+  private static void registerOutgoing(final Project project, final String name,
+    final Provider<String> operatingSystem, final Provider<String> architecture,
+    final Provider<String> buildConfig) {
+    final ObjectFactory objects = project.getObjects();
+    final TaskProvider<Sync> collect = project.getTasks().register(CMAKE_ARTIFACTS + name, Sync.class, task -> {
+      task.setGroup("cmake");
+      task.setDescription("Collect the outputs of " + CMAKE_BUILD + name + " for consumers");
+      task.from(project.getTasks().named(CMAKE_BUILD + name));
+      task.into(project.getLayout().getBuildDirectory().dir("cmake-artifacts/" + (name.isEmpty() ? "main" : name)));
+      task.setDuplicatesStrategy(DuplicatesStrategy.EXCLUDE);
+    });
+    project.getConfigurations().register(CMAKE_ELEMENTS + name, configuration -> {
+      configuration.setDescription("Outputs of " + CMAKE_BUILD + name);
+      configuration.setCanBeConsumed(true);
+      configuration.setCanBeResolved(false);
+      configuration.attributes(attributes -> {
+        attributes.attribute(Usage.USAGE_ATTRIBUTE, objects.named(Usage.class, Usage.NATIVE_RUNTIME));
+        attributes.attribute(Category.CATEGORY_ATTRIBUTE, objects.named(Category.class, Category.LIBRARY));
+        attributes.attributeProvider(OperatingSystemFamily.OPERATING_SYSTEM_ATTRIBUTE,
+          operatingSystem.map(os -> objects.named(OperatingSystemFamily.class, os)));
+        attributes.attributeProvider(MachineArchitecture.ARCHITECTURE_ATTRIBUTE,
+          architecture.map(arch -> objects.named(MachineArchitecture.class, arch)));
+        attributes.attributeProvider(BUILD_CONFIG_ATTRIBUTE, buildConfig.orElse("default"));
+        // the targets may only differ in their outputs
+        attributes.attribute(TARGET_ATTRIBUTE, name.isEmpty() ? "main" : name);
+      });
+      configuration.getOutgoing().artifact(collect.map(Sync::getDestinationDir), artifact -> {
+        artifact.setType(ArtifactTypeDefinition.DIRECTORY_TYPE);
+        artifact.builtBy(collect);
+      });
+    });
   }
 
   @Override
@@ -33,105 +113,292 @@ public class CMakePlugin implements Plugin<Project> {
     final CMakePluginExtension extension = project.getExtensions()
       .create("cmake", CMakePluginExtension.class, project);
 
-    final Task cmakeClean = project.task("cmakeClean").doFirst(task -> {
-      File workingFolder = extension.getWorkingFolder().getAsFile().get().getAbsoluteFile();
-      if (workingFolder.exists()) {
-        project.getLogger().info("Deleting folder " + workingFolder);
-        if (!deleteDirectory(workingFolder)) {
-          throw new GradleException("Could not delete working folder " + workingFolder);
-        }
-      }
+    // shared by all projects applying the plugin, so concurrent builds split the same job budget
+    final int maxWorkers = project.getGradle().getStartParameter().getMaxWorkerCount();
+    final Provider<CMakeBuildService> buildService = project.getGradle().getSharedServices()
+      .registerIfAbsent(CMakeBuildService.NAME, CMakeBuildService.class, spec -> {
+        spec.getParameters().getMaxJobs().set(maxWorkers);
+        spec.getParameters().getMaxProcesses().set(extension.getMaxProcesses().orElse(maxWorkers));
+        spec.getParameters().getJobServer().set(extension.getJobServer().orElse(true));
+        spec.getParameters().getTimingsReport().set(project.getRootProject().getLayout()
+          .getBuildDirectory().file("reports/cmake/timings.json"));
+      });
+    // the tasks don't access the project when they run, so the configuration cache can store them
+    final File generatorCacheFolder = new File(project.getGradle().getGradleUserHomeDir(),
+      "caches" + File.separator + "cmake-plugin" + File.separator + "generators");
+    project.getTasks().withType(CMakeConfigureTask.class).configureEach(task -> {
+      task.getBuildService().set(buildService);
+      task.usesService(buildService);
+      task.getGeneratorCacheFolder().set(generatorCacheFolder);
+    });
+    project.getTasks().withType(CMakeBuildTask.class).configureEach(task -> {
+      task.getBuildService().set(buildService);
+      task.usesService(buildService);
+      task.getRootFolder().set(project.getRootProject().getLayout().getProjectDirectory());
+    });
+    project.getTasks().withType(CMakeTestTask.class).configureEach(task -> {
+      task.getBuildService().set(buildService);
+      task.usesService(buildService);
+    });
+    project.getTasks().withType(CMakeInstallTask.class).configureEach(task -> {
+      task.getBuildService().set(buildService);
+      task.usesService(buildService);
+    });
+    project.getTasks().withType(CMakeCleanTask.class).configureEach(task -> {
+      task.getBuildService().set(buildService);
+      task.usesService(buildService);
+    });
+    project.getTasks().withType(CMakeWatchTask.class).configureEach(task -> {
+      task.getBuildService().set(buildService);
+      task.usesService(buildService);
+    });
+
+    project.getTasks().register("cmakeClean", CMakeCleanTask.class, task -> {
+      task.getExecutable().set(extension.getExecutable());
+      task.getWorkingFolder().set(extension.getWorkingFolder());
+      task.getCleanMode().set(extension.getCleanMode());
+      task.getCleanInBackground().set(extension.getCleanInBackground());
+    });
+
+    project.getTasks().register("cmakeGenerators", CMakeGeneratorsTask.class,
+      task -> task.getExecutable().set(extension.getExecutable()));
+
+    // the default tasks are registered before the build script declares any targets. If it does,
+    // they are skipped and run the tasks of all targets instead
+    final TaskContainer tasks = project.getTasks();
+    final Provider<Boolean> noTargets = project.getProviders()
+      .provider(() -> !extension.getTargets().hasTargets());
+    tasks.register(CMAKE_CONFIGURE, CMakeConfigureTask.class, task -> {
+      task.getExecutable().set(extension.getExecutable());
+      task.getWorkingFolder().set(extension.getWorkingFolder());
+      task.getSourceFolder().set(extension.getSourceFolder());
+      task.getConfigurationTypes().set(extension.getConfigurationTypes());
+      task.getInstallPrefix().set(extension.getInstallPrefix());
+      task.getGenerator().set(extension.getGenerator());
+      task.getPlatform().set(extension.getPlatform());
+      task.getToolset().set(extension.getToolset());
+      task.getBuildSharedLibs().set(extension.getBuildSharedLibs());
+      task.getBuildStaticLibs().set(extension.getBuildStaticLibs());
+      task.getDef().set(extension.getDefs().isPresent() ? extension.getDefs() : extension.getDef());
+      task.getCompilerCache().set(extension.getCompilerCache());
+      task.getForceConfigure().set(extension.getForceConfigure());
+      task.getConfigureTimeout().set(extension.getConfigureTimeout());
+      task.getJobPools().set(extension.getJobPools());
+      task.getCompileJobMemory().set(extension.getCompileJobMemory());
+      task.getLinkJobMemory().set(extension.getLinkJobMemory());
+      task.getConcurrentBuilds().set(extension.getConcurrentBuilds());
+      task.onlyIf(new WithoutTargets(noTargets));
+      task.dependsOn(targetTasks(project, extension, CMAKE_CONFIGURE));
+    });
+
+    tasks.register(CMAKE_BUILD, CMakeBuildTask.class, task -> {
+      task.getExecutable().set(extension.getExecutable());
+      task.getWorkingFolder().set(extension.getWorkingFolder());
+      task.getBuildConfig().set(extension.getBuildConfig());
+      task.getBuildTarget().set(extension.getBuildTarget());
+      task.getBuildClean().set(extension.getBuildClean());
+      task.getBuildJobs().set(extension.getBuildJobs());
+      task.getBuildTimeout().set(extension.getBuildTimeout());
+      task.getCacheable().set(extension.getCacheable());
+      task.getCompilerCache().set(extension.getCompilerCache());
+      task.getCompilerCacheFolder().set(extension.getCompilerCacheFolder());
+      task.sourcesFrom(extension.getSourceFolder());
+      task.getArtifacts().set(extension.getArtifacts());
+      task.getArtifactFolders().set(extension.getArtifactFolders());
+      task.getArtifactFolders().putAll(installFolder(project, extension.getBuildTarget(),
+        extension.getInstallPrefix()));
+      task.dependsOn(CMAKE_CONFIGURE);
+      task.onlyIf(new WithoutTargets(noTargets));
+      task.dependsOn(targetTasks(project, extension, CMAKE_BUILD));
+    });
+
+    tasks.register(CMAKE_TEST, CMakeTestTask.class, task -> {
+      task.getExecutable().set(extension.getExecutable());
+      task.getWorkingFolder().set(extension.getWorkingFolder());
+      task.getTestConfig().set(extension.getBuildConfig());
+      task.getTestInputs().from(tasks.named(CMAKE_BUILD));
+      task.onlyIf(new WithoutTargets(noTargets));
+      task.dependsOn(targetTasks(project, extension, CMAKE_TEST));
     });
-    cmakeClean.setGroup("cmake");
-    cmakeClean.setDescription("Clean CMake configuration");
-
-    final Task cmakeGenerators = project.task("cmakeGenerators").doFirst(task -> {
-      ProcessBuilder pb = new ProcessBuilder(extension.getExecutable().getOrElse("cmake"),
-        "--help");
-      try {
-        // start
-        Process process = pb.start();
-
-        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-        String line;
-        boolean foundGenerators = false;
-        while ((line = reader.readLine()) != null) {
-          if (line.equals("Generators")) {
-            foundGenerators = true;
-          }
-          if (foundGenerators) {
-            project.getLogger().log(LogLevel.QUIET, line);
-          }
+
+    tasks.register(CMAKE_INSTALL, CMakeInstallTask.class, task -> {
+      task.getExecutable().set(extension.getExecutable());
+      task.getWorkingFolder().set(extension.getWorkingFolder());
+      task.getInstallConfig().set(extension.getBuildConfig());
+      task.getInstallComponent().set(extension.getInstallComponent());
+      task.getInstallInputs().from(tasks.named(CMAKE_BUILD), extension.getSourceFolder());
+      task.getInstallFolder().set(installPrefixFolder(project, extension.getInstallPrefix(), CMAKE_INSTALL));
+      task.onlyIf(new WithoutTargets(noTargets));
+      task.dependsOn(targetTasks(project, extension, CMAKE_INSTALL));
+    });
+
+    tasks.register(CMAKE_WATCH, CMakeWatchTask.class, task -> {
+      task.buildsLike(tasks.named(CMAKE_BUILD, CMakeBuildTask.class));
+      task.getSourceFolder().set(extension.getSourceFolder());
+      task.dependsOn(CMAKE_CONFIGURE);
+      // watching never ends, so the watch tasks of the targets can't run one after the other
+      task.doFirst(new FailWithTargets(targetTasks(project, extension, CMAKE_WATCH)));
+    });
+
+    registerOutgoing(project, "", extension.getOperatingSystem(), extension.getArchitecture(),
+      extension.getBuildConfig());
+    // the outputs of the default tasks are no variant once the build script declares a target
+    extension.getTargets().whenTargetDeclared(name -> project.getConfigurations().named(CMAKE_ELEMENTS)
+      .configure(configuration -> configuration.setCanBeConsumed(false)));
+
+    // the tasks of a target are registered as soon as it is declared, the target itself is only
+    // created and configured when one of its tasks is
+    extension.getTargets().whenTargetDeclared(name -> {
+      tasks.register(CMAKE_CONFIGURE + name, CMakeConfigureTask.class, task -> {
+        final TargetExtension target = extension.getTargets().getTargetContainer().getByName(name);
+        task.configureFrom(extension);
+        if (target.getConfigurePreset().isPresent()) {
+          // the preset's cache variables are only overridden by settings of the target itself
+          task.getConfigurationTypes().set((String) null);
+          task.getInstallPrefix().set((String) null);
+          task.getBuildSharedLibs().set((Boolean) null);
+          task.getBuildStaticLibs().set((Boolean) null);
+          task.getDef().set((Map<String, String>) null);
+          task.getCompilerCache().set((String) null);
+          task.getJobPools().set((Boolean) null);
         }
-        process.waitFor();
-      } catch (IOException | InterruptedException e) {
-        throw new GradleScriptException("cmake --help failed.", e);
-      }
+        if (target.getExecutable().isPresent()) task.getExecutable().set(target.getExecutable());
+        if (target.getWorkingFolder().isPresent()) task.getWorkingFolder().set(target.getWorkingFolder());
+        if (target.getSourceFolder().isPresent()) task.getSourceFolder().set(target.getSourceFolder());
+        if (target.getConfigurationTypes().isPresent()) task.getConfigurationTypes().set(target.getConfigurationTypes());
+        if (target.getInstallPrefix().isPresent()) task.getInstallPrefix().set(target.getInstallPrefix());
+        if (target.getGenerator().isPresent()) task.getGenerator().set(target.getGenerator());
+        if (target.getPlatform().isPresent()) task.getPlatform().set(target.getPlatform());
+        if (target.getToolset().isPresent()) task.getToolset().set(target.getToolset());
+        if (target.getBuildSharedLibs().isPresent()) task.getBuildSharedLibs().set(target.getBuildSharedLibs());
+        if (target.getBuildStaticLibs().isPresent()) task.getBuildStaticLibs().set(target.getBuildStaticLibs());
+        if (target.getDefs().isPresent()) task.getDef().set(target.getDefs());
+        if (target.getCompilerCache().isPresent()) task.getCompilerCache().set(target.getCompilerCache());
+        if (target.getForceConfigure().isPresent()) task.getForceConfigure().set(target.getForceConfigure());
+        if (target.getConfigurePreset().isPresent()) task.getConfigurePreset().set(target.getConfigurePreset());
+        if (target.getConfigureTimeout().isPresent()) task.getConfigureTimeout().set(target.getConfigureTimeout());
+        if (target.getJobPools().isPresent()) task.getJobPools().set(target.getJobPools());
+        if (target.getCompileJobMemory().isPresent()) task.getCompileJobMemory().set(target.getCompileJobMemory());
+        if (target.getLinkJobMemory().isPresent()) task.getLinkJobMemory().set(target.getLinkJobMemory());
+        if (target.getConcurrentBuilds().isPresent()) task.getConcurrentBuilds().set(target.getConcurrentBuilds());
+        task.dependsOn(target.getDependsOn().map(names -> names.stream()
+          .map(dependency -> CMAKE_BUILD + dependency)
+          .collect(Collectors.toList())));
+      });
+      tasks.register(CMAKE_BUILD + name, CMakeBuildTask.class, task -> {
+        final TargetExtension target = extension.getTargets().getTargetContainer().getByName(name);
+        task.configureFrom(extension);
+        if (target.getBuildPreset().isPresent()) {
+          // the preset's settings are only overridden by settings of the target itself
+          task.getBuildConfig().set((String) null);
+          task.getBuildTarget().set((String) null);
+          task.getBuildClean().set((Boolean) null);
+          task.getBuildJobs().set((Integer) null);
+        }
+        if (target.getExecutable().isPresent()) task.getExecutable().set(target.getExecutable());
+        if (target.getWorkingFolder().isPresent()) task.getWorkingFolder().set(target.getWorkingFolder());
+        if (target.getBuildConfig().isPresent()) task.getBuildConfig().set(target.getBuildConfig());
+        if (target.getBuildTarget().isPresent()) task.getBuildTarget().set(target.getBuildTarget());
+        if (target.getBuildClean().isPresent()) task.getBuildClean().set(target.getBuildClean());
+        if (target.getBuildJobs().isPresent()) task.getBuildJobs().set(target.getBuildJobs());
+        if (target.getBuildTimeout().isPresent()) task.getBuildTimeout().set(target.getBuildTimeout());
+        if (target.getCacheable().isPresent()) task.getCacheable().set(target.getCacheable());
+        if (target.getBuildPreset().isPresent()) {
+          task.getBuildPreset().set(target.getBuildPreset());
+          task.getPresetFolder().set(target.getSourceFolder().isPresent() ? target.getSourceFolder()
+            : extension.getSourceFolder());
+        }
+        if (target.getCompilerCache().isPresent()) task.getCompilerCache().set(target.getCompilerCache());
+        if (target.getSourceFolder().isPresent()) {
+          task.getSourceFiles().setFrom();
+          task.sourcesFrom(target.getSourceFolder());
+        }
+        if (!target.getArtifacts().get().isEmpty()) task.getArtifacts().set(target.getArtifacts());
+        if (!target.getArtifactFolders().get().isEmpty()) task.getArtifactFolders().set(target.getArtifactFolders());
+        task.getArtifactFolders().putAll(installFolder(project,
+          target.getBuildTarget().orElse(extension.getBuildTarget()),
+          target.getInstallPrefix().orElse(extension.getInstallPrefix())));
+        task.dependsOn(CMAKE_CONFIGURE + name);
+      });
+      tasks.register(CMAKE_TEST + name, CMakeTestTask.class, task -> {
+        final TargetExtension target = extension.getTargets().getTargetContainer().getByName(name);
+        task.getExecutable().set(target.getExecutable().orElse(extension.getExecutable()));
+        task.getWorkingFolder().set(target.getWorkingFolder().isPresent() ? target.getWorkingFolder()
+          : extension.getWorkingFolder());
+        task.getTestConfig().set(target.getBuildConfig().orElse(extension.getBuildConfig()));
+        task.getTestInputs().from(tasks.named(CMAKE_BUILD + name));
+      });
+      tasks.register(CMAKE_WATCH + name, CMakeWatchTask.class, task -> {
+        final TargetExtension target = extension.getTargets().getTargetContainer().getByName(name);
+        task.buildsLike(tasks.named(CMAKE_BUILD + name, CMakeBuildTask.class));
+        task.getSourceFolder().set(target.getSourceFolder().isPresent() ? target.getSourceFolder()
+          : extension.getSourceFolder());
+        task.dependsOn(CMAKE_CONFIGURE + name);
+      });
+      tasks.register(CMAKE_INSTALL + name, CMakeInstallTask.class, task -> {
+        final TargetExtension target = extension.getTargets().getTargetContainer().getByName(name);
+        task.getExecutable().set(target.getExecutable().orElse(extension.getExecutable()));
+        task.getWorkingFolder().set(target.getWorkingFolder().isPresent() ? target.getWorkingFolder()
+          : extension.getWorkingFolder());
+        task.getInstallConfig().set(target.getBuildConfig().orElse(extension.getBuildConfig()));
+        task.getInstallComponent().set(target.getInstallComponent().orElse(extension.getInstallComponent()));
+        task.getInstallInputs().from(tasks.named(CMAKE_BUILD + name), target.getSourceFolder().isPresent()
+          ? target.getSourceFolder() : extension.getSourceFolder());
+        task.getInstallFolder().set(installPrefixFolder(project,
+          target.getInstallPrefix().orElse(extension.getInstallPrefix()), CMAKE_INSTALL + name));
+      });
+      final Provider<TargetExtension> target = project.getProviders()
+        .provider(() -> extension.getTargets().getTargetContainer().getByName(name));
+      registerOutgoing(project, name,
+        target.flatMap(t -> t.getOperatingSystem().orElse(extension.getOperatingSystem())),
+        target.flatMap(t -> t.getArchitecture().orElse(extension.getArchitecture())),
+        target.flatMap(t -> t.getBuildConfig().orElse(extension.getBuildConfig())));
     });
-    cmakeGenerators.setGroup("cmake");
-    cmakeGenerators.setDescription("List available CMake generators");
-
-    project.afterEvaluate(p -> {
-      final TaskContainer tasks = project.getTasks();
-      
-      if (extension.getTargets().getTargetContainer().isEmpty()) {
-        p.getTasks().register(CMAKE_CONFIGURE, CMakeConfigureTask.class, task -> {
-          task.getExecutable().set(extension.getExecutable());
-          task.getWorkingFolder().set(extension.getWorkingFolder());
-          task.getSourceFolder().set(extension.getSourceFolder());
-          task.getConfigurationTypes().set(extension.getConfigurationTypes());
-          task.getInstallPrefix().set(extension.getInstallPrefix());
-          task.getGenerator().set(extension.getGenerator());
-          task.getPlatform().set(extension.getPlatform());
-          task.getToolset().set(extension.getToolset());
-          task.getBuildSharedLibs().set(extension.getBuildSharedLibs());
-          task.getBuildStaticLibs().set(extension.getBuildStaticLibs());
-          task.getDef().set(extension.getDefs().isPresent() ? extension.getDefs() : extension.getDef());
-        });
-
-        p.getTasks().register(CMAKE_BUILD, CMakeBuildTask.class, task -> {
-          task.getExecutable().set(extension.getExecutable());
-          task.getWorkingFolder().set(extension.getWorkingFolder());
-          task.getBuildConfig().set(extension.getBuildConfig());
-          task.getBuildTarget().set(extension.getBuildTarget());
-          task.getBuildClean().set(extension.getBuildClean());
-        });
-      } else {
-        extension.getTargets().getTargetContainer().getAsMap()
-          .forEach((name, target) -> {
-            tasks.register(CMAKE_CONFIGURE + name, CMakeConfigureTask.class, task -> {
-              task.configureFromProject();
-              if (target.getExecutable().isPresent()) task.getExecutable().set(target.getExecutable());
-              if (target.getWorkingFolder().isPresent()) task.getWorkingFolder().set(target.getWorkingFolder());
-              if (target.getSourceFolder().isPresent()) task.getSourceFolder().set(target.getSourceFolder());
-              if (target.getConfigurationTypes().isPresent()) task.getConfigurationTypes().set(target.getConfigurationTypes());
-              if (target.getInstallPrefix().isPresent()) task.getInstallPrefix().set(target.getInstallPrefix());
-              if (target.getGenerator().isPresent()) task.getGenerator().set(target.getGenerator());
-              if (target.getPlatform().isPresent()) task.getPlatform().set(target.getPlatform());
-              if (target.getToolset().isPresent()) task.getToolset().set(target.getToolset());
-              if (target.getBuildSharedLibs().isPresent()) task.getBuildSharedLibs().set(target.getBuildSharedLibs());
-              if (target.getBuildStaticLibs().isPresent()) task.getBuildStaticLibs().set(target.getBuildStaticLibs());
-              if (target.getDefs().isPresent()) task.getDef().set(target.getDefs());
-            });
-            tasks.register(CMAKE_BUILD + name, CMakeBuildTask.class, task -> {
-              task.configureFromProject();
-              if (target.getExecutable().isPresent()) task.getExecutable().set(target.getExecutable());
-              if (target.getWorkingFolder().isPresent()) task.getWorkingFolder().set(target.getWorkingFolder());
-              if (target.getBuildConfig().isPresent()) task.getBuildConfig().set(target.getBuildConfig());
-              if (target.getBuildTarget().isPresent()) task.getBuildTarget().set(target.getBuildTarget());
-              if (target.getBuildClean().isPresent()) task.getBuildClean().set(target.getBuildClean());
-            });
-          });
+
+    tasks.named("clean").configure(task -> task.dependsOn("cmakeClean"));
+
+    tasks.named("build").configure(task -> task.dependsOn(tasks.withType(CMakeBuildTask.class)));
+  }
+
+  /**
+   * The tasks of the given kind of all declared targets.
+   */
+  private static Provider<List<String>> targetTasks(final Project project,
+    final CMakePluginExtension extension, final String taskName) {
+    return project.getProviders().provider(() -> extension.getTargets().getTargetNames().stream()
+      .map(name -> taskName + name)
+      .collect(Collectors.toList()));
+  }
+
+  private static class FailWithTargets implements Action<Task> {
+
+    private final Provider<List<String>> targetTasks;
+
+    FailWithTargets(final Provider<List<String>> targetTasks) {
+      this.targetTasks = targetTasks;
+    }
+
+    @Override
+    public void execute(final Task task) {
+      if (!targetTasks.get().isEmpty()) {
+        throw new GradleException(task.getName() + " has nothing to watch as targets are declared, run one of "
+          + String.join(", ", targetTasks.get()) + " instead");
       }
+    }
+  }
 
-      tasks.withType(CMakeBuildTask.class)
-        .forEach(task -> task.dependsOn(tasks.withType(CMakeConfigureTask.class)));
+  private static class WithoutTargets implements Spec<Task> {
 
-      p.getTasks().named("clean").configure(task -> task.dependsOn("cmakeClean"));
+    private final Provider<Boolean> noTargets;
 
-      p.getTasks().named("build").configure(task -> task.dependsOn(tasks.withType(
-        CMakeBuildTask.class)));
-    });
+    WithoutTargets(final Provider<Boolean> noTargets) {
+      this.noTargets = noTargets;
+    }
+
+    @Override
+    public boolean isSatisfiedBy(final Task task) {
+      return noTargets.get();
+    }
   }
 
-}
\ No newline at end of file
+}
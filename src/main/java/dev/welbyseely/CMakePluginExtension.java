@@ -21,36 +21,68 @@ import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 
 import java.io.File;
+import java.time.Duration;
+import java.util.Locale;
 
 public class CMakePluginExtension {
 
   // parameters used by config and build step
   private final Property<String> executable;
   private final DirectoryProperty workingFolder;
+  // maximum number of concurrently running cmake processes in the whole build, defaults to --max-workers
+  private final Property<Integer> maxProcesses;
+  // share the job budget through a jobserver when make 4.4+ or ninja 1.13+ build, defaults to true
+  private final Property<Boolean> jobServer;
 
   // parameters used by config step
   private final DirectoryProperty sourceFolder;
   private final Property<String> configurationTypes;
   private final Property<String> installPrefix;
-  private final Property<String> generator; // for example: "Visual Studio 16 2019"
+  private final Property<String> generator; // for example: "Visual Studio 16 2019", or "auto" to prefer Ninja
 
   private final Property<String> platform; // for example "x64" or "Win32" or "ARM" or "ARM64", supported on vs > 8.0
   private final Property<String> toolset; // for example "v142", supported on vs > 10.0
   private final Property<Boolean> buildSharedLibs;
   private final Property<Boolean> buildStaticLibs;
   private final MapProperty<String, String> defs;
+  private final Property<String> compilerCache; // "auto", "ccache", "sccache" or a launcher path
+  private final Property<Boolean> forceConfigure; // run cmake even if the configuration is unchanged
+  private final Property<Duration> configureTimeout; // stop cmake and its child processes after this time
+  private final Property<Boolean> jobPools; // size ninja compile and link job pools by the available memory
+  private final Property<Integer> compileJobMemory; // MiB per compile job, until one is observed
+  private final Property<Integer> linkJobMemory; // MiB per link job, until one is observed
+  private final Property<Integer> concurrentBuilds; // builds sharing the memory of the job pools
+  private final DirectoryProperty compilerCacheFolder; // per project compiler cache folder
   private final MapProperty<String, String> def;
 
   // parameters used on build step
   private final Property<String> buildConfig;
   private final Property<String> buildTarget;
   private final Property<Boolean> buildClean;
+  private final Property<Integer> buildJobs; // parallel jobs, defaults to a share of --max-workers
+  private final Property<Duration> buildTimeout; // stop cmake --build and its child processes after this time
+  private final MapProperty<String, File> artifacts; // files produced by the build, by name
+  private final MapProperty<String, File> artifactFolders; // folders produced by the build, by name
+  private final Property<Boolean> cacheable; // store the build outputs in the gradle build cache
+
+  // parameters used on install step
+  private final Property<String> installComponent; // only install this component
+
+  // parameters used on clean step
+  private final Property<String> cleanMode; // "full", "cache" or "build"
+  private final Property<Boolean> cleanInBackground; // rename and delete on a background thread
+
+  // attributes of the published build outputs
+  private final Property<String> operatingSystem; // for example "linux", "windows" or "macos"
+  private final Property<String> architecture; // for example "x86-64" or "aarch64"
   private final TargetListExtension targets;
   private final Project project;
 
   public CMakePluginExtension(Project project) {
     executable = project.getObjects().property(String.class);
     workingFolder = project.getObjects().directoryProperty();
+    maxProcesses = project.getObjects().property(Integer.class);
+    jobServer = project.getObjects().property(Boolean.class);
     sourceFolder = project.getObjects().directoryProperty();
     configurationTypes = project.getObjects().property(String.class);
     installPrefix = project.getObjects().property(String.class);
@@ -60,18 +92,68 @@ public class CMakePluginExtension {
     buildSharedLibs = project.getObjects().property(Boolean.class);
     buildStaticLibs = project.getObjects().property(Boolean.class);
     defs = project.getObjects().mapProperty(String.class, String.class);
+    compilerCache = project.getObjects().property(String.class);
+    forceConfigure = project.getObjects().property(Boolean.class);
+    configureTimeout = project.getObjects().property(Duration.class);
+    jobPools = project.getObjects().property(Boolean.class);
+    compileJobMemory = project.getObjects().property(Integer.class);
+    linkJobMemory = project.getObjects().property(Integer.class);
+    concurrentBuilds = project.getObjects().property(Integer.class);
+    compilerCacheFolder = project.getObjects().directoryProperty();
     def = project.getObjects().mapProperty(String.class, String.class); // for backwards compat
     buildConfig = project.getObjects().property(String.class);
     buildTarget = project.getObjects().property(String.class);
     buildClean = project.getObjects().property(Boolean.class);
+    buildJobs = project.getObjects().property(Integer.class);
+    buildTimeout = project.getObjects().property(Duration.class);
+    artifacts = project.getObjects().mapProperty(String.class, File.class);
+    artifactFolders = project.getObjects().mapProperty(String.class, File.class);
+    cacheable = project.getObjects().property(Boolean.class);
+    installComponent = project.getObjects().property(String.class);
+    cleanMode = project.getObjects().property(String.class);
+    cleanInBackground = project.getObjects().property(Boolean.class);
+    operatingSystem = project.getObjects().property(String.class);
+    architecture = project.getObjects().property(String.class);
     this.targets = project.getObjects().newInstance(TargetListExtension.class, project);
     // default values
     workingFolder.set(new File(project.getBuildDir(), "cmake"));
     sourceFolder.set(
       new File(project.getBuildDir(), "src" + File.separator + "main" + File.separator + "cpp"));
+    compilerCacheFolder.set(new File(project.getRootDir(), ".gradle" + File.separator
+      + "cmake-compiler-cache" + File.separator + compilerCacheName(project)));
+    operatingSystem.set(hostOperatingSystem());
+    architecture.set(hostArchitecture());
     this.project = project;
   }
 
+  // the names of Gradle's OperatingSystemFamily and MachineArchitecture
+  private static String hostOperatingSystem() {
+    final String os = System.getProperty("os.name").toLowerCase(Locale.ROOT);
+    return os.contains("windows") ? "windows" : os.contains("mac") ? "macos" : os.replace(' ', '-');
+  }
+
+  private static String hostArchitecture() {
+    final String arch = System.getProperty("os.arch").toLowerCase(Locale.ROOT);
+    switch (arch) {
+      case "amd64":
+      case "x86_64":
+        return "x86-64";
+      case "x86":
+      case "i386":
+      case "i686":
+        return "x86";
+      case "arm64":
+        return "aarch64";
+      default:
+        return arch;
+    }
+  }
+
+  private static String compilerCacheName(Project project) {
+    return project == project.getRootProject() ? project.getName()
+      : project.getPath().substring(1).replace(':', File.separatorChar);
+  }
+
   public Property<String> getExecutable() {
     return executable;
   }
@@ -80,6 +162,14 @@ public class CMakePluginExtension {
     return workingFolder;
   }
 
+  public Property<Integer> getMaxProcesses() {
+    return maxProcesses;
+  }
+
+  public Property<Boolean> getJobServer() {
+    return jobServer;
+  }
+
   public DirectoryProperty getSourceFolder() {
     return sourceFolder;
   }
@@ -119,6 +209,38 @@ public class CMakePluginExtension {
     return defs;
   }
 
+  public Property<String> getCompilerCache() {
+    return compilerCache;
+  }
+
+  public Property<Boolean> getForceConfigure() {
+    return forceConfigure;
+  }
+
+  public Property<Duration> getConfigureTimeout() {
+    return configureTimeout;
+  }
+
+  public Property<Boolean> getJobPools() {
+    return jobPools;
+  }
+
+  public Property<Integer> getCompileJobMemory() {
+    return compileJobMemory;
+  }
+
+  public Property<Integer> getLinkJobMemory() {
+    return linkJobMemory;
+  }
+
+  public Property<Integer> getConcurrentBuilds() {
+    return concurrentBuilds;
+  }
+
+  public DirectoryProperty getCompilerCacheFolder() {
+    return compilerCacheFolder;
+  }
+
   public Property<String> getBuildConfig() {
     return buildConfig;
   }
@@ -131,6 +253,46 @@ public class CMakePluginExtension {
     return buildClean;
   }
 
+  public Property<Integer> getBuildJobs() {
+    return buildJobs;
+  }
+
+  public Property<Duration> getBuildTimeout() {
+    return buildTimeout;
+  }
+
+  public MapProperty<String, File> getArtifacts() {
+    return artifacts;
+  }
+
+  public MapProperty<String, File> getArtifactFolders() {
+    return artifactFolders;
+  }
+
+  public Property<Boolean> getCacheable() {
+    return cacheable;
+  }
+
+  public Property<String> getInstallComponent() {
+    return installComponent;
+  }
+
+  public Property<String> getCleanMode() {
+    return cleanMode;
+  }
+
+  public Property<Boolean> getCleanInBackground() {
+    return cleanInBackground;
+  }
+
+  public Property<String> getOperatingSystem() {
+    return operatingSystem;
+  }
+
+  public Property<String> getArchitecture() {
+    return architecture;
+  }
+
   public TargetListExtension getTargets() {
     return targets;
   }
@@ -0,0 +1,376 @@
+package dev.welbyseely;
+
+import groovy.json.JsonSlurper;
+import org.gradle.api.GradleException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The configure and build presets of a source folder's CMakePresets.json and
+ * CMakeUserPresets.json, and of the files they include. Conditions are not evaluated.
+ */
+final class CMakePresets {
+
+  static final String FILE_NAME = "CMakePresets.json";
+  static final String USER_FILE_NAME = "CMakeUserPresets.json";
+
+  private static final Pattern ENV_MACRO = Pattern.compile("\\$(p?env)\\{([^}]*)\\}");
+
+  // by source folder and hash of the preset files, so unchanged files are parsed once per daemon
+  private static final Map<String, CMakePresets> PARSED = new ConcurrentHashMap<>();
+
+  static final class ConfigurePreset {
+
+    final String name;
+    final File binaryDir; // null if the preset does not set one
+
+    ConfigurePreset(final String name, final File binaryDir) {
+      this.name = name;
+      this.binaryDir = binaryDir;
+    }
+  }
+
+  /**
+   * The settings of a build preset that cmake --build takes from it.
+   */
+  static final class BuildPreset {
+
+    final String name;
+    final String configurePreset;
+    final List<String> targets; // empty for the default target
+    final String configuration; // null if the preset does not set one
+    final Integer jobs; // null if the preset does not set one
+    final boolean cleanFirst;
+    final boolean verbose;
+    final List<String> nativeToolOptions; // passed to the build tool after --
+    // set for the build, with the configure preset's unless inheritConfigureEnvironment is false
+    final Map<String, String> environment;
+
+    BuildPreset(final String name, final String configurePreset, final List<String> targets,
+      final String configuration, final Integer jobs, final boolean cleanFirst, final boolean verbose,
+      final List<String> nativeToolOptions, final Map<String, String> environment) {
+      this.name = name;
+      this.configurePreset = configurePreset;
+      this.targets = Collections.unmodifiableList(targets);
+      this.configuration = configuration;
+      this.jobs = jobs;
+      this.cleanFirst = cleanFirst;
+      this.verbose = verbose;
+      this.nativeToolOptions = Collections.unmodifiableList(nativeToolOptions);
+      this.environment = Collections.unmodifiableMap(environment);
+    }
+  }
+
+  private final List<ConfigurePreset> configurePresets; // without hidden ones, in file order
+  private final Map<String, BuildPreset> buildPresets; // without hidden ones, in file order
+  private final Map<File, String> included; // hash of each included file when it was parsed
+
+  private CMakePresets(final List<ConfigurePreset> configurePresets,
+    final Map<String, BuildPreset> buildPresets, final Map<File, String> included) {
+    this.configurePresets = Collections.unmodifiableList(configurePresets);
+    this.buildPresets = Collections.unmodifiableMap(buildPresets);
+    this.included = included;
+  }
+
+  List<ConfigurePreset> getConfigurePresets() {
+    return configurePresets;
+  }
+
+  /**
+   * The first build preset of the given configure preset, or null if there is none.
+   */
+  String buildPresetOf(final String configurePreset) {
+    for (BuildPreset preset : buildPresets.values()) {
+      if (preset.configurePreset.equals(configurePreset)) {
+        return preset.name;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The build preset with the given name.
+   */
+  BuildPreset getBuildPreset(final String name) {
+    final BuildPreset preset = buildPresets.get(name);
+    if (preset == null) {
+      throw new GradleException("No build preset " + name + " in " + FILE_NAME + " or " + USER_FILE_NAME);
+    }
+    return preset;
+  }
+
+  static CMakePresets read(final File sourceFolder) {
+    final List<byte[]> contents = new ArrayList<>();
+    try {
+      for (String fileName : new String[]{FILE_NAME, USER_FILE_NAME}) {
+        final File file = new File(sourceFolder, fileName);
+        contents.add(file.isFile() ? Files.readAllBytes(file.toPath()) : null);
+      }
+    } catch (IOException e) {
+      throw new GradleException("Could not read the CMake presets of " + sourceFolder, e);
+    }
+    if (contents.get(0) == null && contents.get(1) == null) {
+      throw new GradleException("No " + FILE_NAME + " found in " + sourceFolder);
+    }
+    final String key = sourceFolder.getAbsolutePath() + "|" + hash(contents);
+    final CMakePresets parsed = PARSED.get(key);
+    if (parsed != null && parsed.includedUnchanged()) {
+      return parsed;
+    }
+    final CMakePresets presets = parse(sourceFolder, contents);
+    PARSED.put(key, presets);
+    return presets;
+  }
+
+  private boolean includedUnchanged() {
+    for (Map.Entry<File, String> entry : included.entrySet()) {
+      final File file = entry.getKey();
+      try {
+        if (!file.isFile() || !hash(Collections.singletonList(Files.readAllBytes(file.toPath())))
+          .equals(entry.getValue())) {
+          return false;
+        }
+      } catch (IOException e) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static CMakePresets parse(final File sourceFolder, final List<byte[]> contents) {
+    // user presets may inherit from project presets, so both share one namespace
+    final Map<String, Map<?, ?>> configure = new LinkedHashMap<>();
+    final Map<String, Map<?, ?>> build = new LinkedHashMap<>();
+    final Set<File> visited = new HashSet<>();
+    final Map<File, String> included = new LinkedHashMap<>();
+    final String[] fileNames = {FILE_NAME, USER_FILE_NAME};
+    for (int i = 0; i < fileNames.length; i++) {
+      if (contents.get(i) != null) {
+        collect(sourceFolder, new File(sourceFolder, fileNames[i]), contents.get(i), configure, build,
+          visited, included);
+      }
+    }
+
+    final List<ConfigurePreset> configurePresets = new ArrayList<>();
+    for (Map.Entry<String, Map<?, ?>> entry : configure.entrySet()) {
+      if (Boolean.TRUE.equals(entry.getValue().get("hidden"))) {
+        continue;
+      }
+      final String binaryDir = (String) inherited(configure, entry.getKey(), "binaryDir",
+        new HashSet<>());
+      final Map<String, String> environment = environment(configure, entry.getKey(), new HashSet<>());
+      environment.values().removeIf(value -> value == null);
+      configurePresets.add(new ConfigurePreset(entry.getKey(), binaryDir == null ? null
+        : path(sourceFolder, expand(sourceFolder, entry.getKey(), binaryDir, environment))));
+    }
+
+    final Map<String, BuildPreset> buildPresets = new LinkedHashMap<>();
+    for (Map.Entry<String, Map<?, ?>> entry : build.entrySet()) {
+      final String name = entry.getKey();
+      final Object configurePreset = inherited(build, name, "configurePreset", new HashSet<>());
+      if (Boolean.TRUE.equals(entry.getValue().get("hidden")) || configurePreset == null) {
+        continue;
+      }
+      final Object targets = inherited(build, name, "targets", new HashSet<>());
+      final Object jobs = inherited(build, name, "jobs", new HashSet<>());
+      final Object nativeToolOptions = inherited(build, name, "nativeToolOptions", new HashSet<>());
+      // the environment of cmake --build --preset: the configure preset's, then the build preset's
+      final Map<String, String> environment = new LinkedHashMap<>();
+      if (!Boolean.FALSE.equals(inherited(build, name, "inheritConfigureEnvironment", new HashSet<>()))) {
+        environment.putAll(environment(configure, (String) configurePreset, new HashSet<>()));
+      }
+      environment.putAll(environment(build, name, new HashSet<>()));
+      environment.values().removeIf(value -> value == null);
+      buildPresets.put(name, new BuildPreset(name, (String) configurePreset,
+        targets instanceof List ? toStrings((List<?>) targets)
+          : targets == null ? Collections.emptyList() : Collections.singletonList((String) targets),
+        (String) inherited(build, name, "configuration", new HashSet<>()),
+        jobs instanceof Number ? ((Number) jobs).intValue() : null,
+        Boolean.TRUE.equals(inherited(build, name, "cleanFirst", new HashSet<>())),
+        Boolean.TRUE.equals(inherited(build, name, "verbose", new HashSet<>())),
+        nativeToolOptions instanceof List ? toStrings((List<?>) nativeToolOptions) : Collections.emptyList(),
+        expand(sourceFolder, name, environment)));
+    }
+    return new CMakePresets(configurePresets, buildPresets, included);
+  }
+
+  // the presets of the file and of the files it includes, relative to its folder
+  private static void collect(final File sourceFolder, final File file, final byte[] content,
+    final Map<String, Map<?, ?>> configure, final Map<String, Map<?, ?>> build, final Set<File> visited,
+    final Map<File, String> included) {
+    if (!visited.add(file.getAbsoluteFile().toPath().normalize().toFile())) {
+      return;
+    }
+    final Map<?, ?> json = (Map<?, ?>) new JsonSlurper().parse(
+      new StringReader(new String(content, StandardCharsets.UTF_8)));
+    collect(json.get("configurePresets"), configure);
+    collect(json.get("buildPresets"), build);
+    final Object include = json.get("include");
+    for (Object name : include instanceof List ? (List<?>) include : Collections.emptyList()) {
+      final String expanded = expand(sourceFolder, "", (String) name, Collections.emptyMap())
+        .replace("${fileDir}", file.getAbsoluteFile().getParent());
+      final File includedFile = new File(expanded).isAbsolute() ? new File(expanded)
+        : new File(file.getAbsoluteFile().getParentFile(), expanded);
+      final byte[] includedContent;
+      try {
+        includedContent = Files.readAllBytes(includedFile.toPath());
+      } catch (IOException e) {
+        throw new GradleException("Could not read " + includedFile + " included by " + file, e);
+      }
+      included.put(includedFile, hash(Collections.singletonList(includedContent)));
+      collect(sourceFolder, includedFile, includedContent, configure, build, visited, included);
+    }
+  }
+
+  private static List<String> toStrings(final List<?> values) {
+    final List<String> strings = new ArrayList<>();
+    for (Object value : values) {
+      strings.add((String) value);
+    }
+    return strings;
+  }
+
+  private static void collect(final Object presets, final Map<String, Map<?, ?>> byName) {
+    if (presets instanceof List) {
+      for (Object preset : (List<?>) presets) {
+        final Map<?, ?> map = (Map<?, ?>) preset;
+        byName.put((String) map.get("name"), map);
+      }
+    }
+  }
+
+  // the environment of the preset over the ones it inherits, the first parent winning, with null
+  // for the variables it unsets
+  private static Map<String, String> environment(final Map<String, Map<?, ?>> presets, final String name,
+    final Set<String> visited) {
+    final Map<?, ?> preset = presets.get(name);
+    final Map<String, String> environment = new LinkedHashMap<>();
+    if (preset == null || !visited.add(name)) {
+      return environment;
+    }
+    final Object inherits = preset.get("inherits");
+    final List<?> parents = new ArrayList<>(inherits instanceof List ? (List<?>) inherits
+      : inherits == null ? Collections.emptyList() : Collections.singletonList(inherits));
+    Collections.reverse(parents);
+    for (Object parent : parents) {
+      environment.putAll(environment(presets, (String) parent, visited));
+    }
+    final Object own = preset.get("environment");
+    if (own instanceof Map) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) own).entrySet()) {
+        environment.put((String) entry.getKey(), (String) entry.getValue());
+      }
+    }
+    return environment;
+  }
+
+  // the field of the preset or of the first preset it inherits from that has it
+  private static Object inherited(final Map<String, Map<?, ?>> presets, final String name,
+    final String field, final Set<String> visited) {
+    final Map<?, ?> preset = presets.get(name);
+    if (preset == null || !visited.add(name)) {
+      return null;
+    }
+    if (preset.get(field) != null) {
+      return preset.get(field);
+    }
+    final Object inherits = preset.get("inherits");
+    final List<?> parents = inherits instanceof List ? (List<?>) inherits
+      : inherits == null ? Collections.emptyList() : Collections.singletonList(inherits);
+    for (Object parent : parents) {
+      final Object value = inherited(presets, (String) parent, field, visited);
+      if (value != null) {
+        return value;
+      }
+    }
+    return null;
+  }
+
+  // the environment with the macros of its values expanded
+  private static Map<String, String> expand(final File sourceFolder, final String presetName,
+    final Map<String, String> environment) {
+    final Map<String, String> macros = new LinkedHashMap<>();
+    for (Map.Entry<String, String> entry : environment.entrySet()) {
+      macros.put(entry.getKey(), macros(sourceFolder, presetName, entry.getValue()));
+    }
+    final Map<String, String> expanded = new LinkedHashMap<>();
+    for (Map.Entry<String, String> entry : macros.entrySet()) {
+      expanded.put(entry.getKey(), environmentMacros(entry.getValue(), macros));
+    }
+    return expanded;
+  }
+
+  // the macros cmake supports in binaryDir and environment values
+  private static String expand(final File sourceFolder, final String presetName, final String value,
+    final Map<String, String> environment) {
+    return environmentMacros(macros(sourceFolder, presetName, value), expand(sourceFolder, presetName,
+      environment));
+  }
+
+  private static String macros(final File sourceFolder, final String presetName, final String value) {
+    final File source = sourceFolder.getAbsoluteFile();
+    return value
+      .replace("${sourceDir}", source.getPath())
+      .replace("${sourceParentDir}", source.getParent() == null ? "" : source.getParent())
+      .replace("${sourceDirName}", source.getName())
+      .replace("${presetName}", presetName)
+      .replace("${dollar}", "$")
+      .replace("${pathListSep}", File.pathSeparator);
+  }
+
+  // $env{} takes the variables of the preset's environment before the ones of this process, whose
+  // own $env{} references are not followed
+  private static String environmentMacros(final String value, final Map<String, String> environment) {
+    final Matcher matcher = ENV_MACRO.matcher(value);
+    final StringBuffer sb = new StringBuffer();
+    while (matcher.find()) {
+      String variable = matcher.group(1).equals("env") ? environment.get(matcher.group(2)) : null;
+      if (variable == null) {
+        variable = System.getenv(matcher.group(2));
+      }
+      matcher.appendReplacement(sb, Matcher.quoteReplacement(variable == null ? "" : variable));
+    }
+    matcher.appendTail(sb);
+    return sb.toString();
+  }
+
+  // a relative path is relative to the source folder
+  private static File path(final File sourceFolder, final String path) {
+    final File file = new File(path);
+    return file.isAbsolute() ? file : new File(sourceFolder.getAbsoluteFile(), path);
+  }
+
+  private static String hash(final List<byte[]> contents) {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      for (byte[] content : contents) {
+        digest.update(content == null ? new byte[]{0} : content);
+        digest.update((byte) 1);
+      }
+      final StringBuilder sb = new StringBuilder();
+      for (byte b : digest.digest()) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,265 @@
+package dev.welbyseely;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.Task;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.ProjectLayout;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+import org.gradle.api.tasks.testing.TestEventReporterFactory;
+import org.gradle.work.DisableCachingByDefault;
+import org.gradle.workers.WorkerExecutor;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Inject;
+
+/**
+ * Runs the tests of a built CMake build with ctest. With CMake 3.21 or later the results are
+ * written as JUnit XML, summarized in the log and reported to Gradle, which renders its HTML test
+ * report and fails the task for failed tests.
+ */
+@DisableCachingByDefault(because = "Tests depend on more than the declared inputs")
+public class CMakeTestTask extends DefaultTask {
+
+  private final Property<String> executable; // cmake, ctest is expected next to it
+  private final DirectoryProperty workingFolder;
+  private final Property<String> testConfig;
+  private final Property<Integer> testJobs;
+  private final Property<Integer> shardIndex; // 0 based
+  private final Property<Integer> shardCount;
+  private final Property<Boolean> rerunFailed;
+  private final ConfigurableFileCollection testInputs;
+  private final RegularFileProperty junitReport;
+  private final DirectoryProperty binaryResults;
+  private final DirectoryProperty htmlReport;
+  private final Property<CMakeBuildService> buildService;
+  private final WorkerExecutor workerExecutor;
+  private final TestEventReporterFactory testEventReporterFactory;
+
+  @Inject
+  public CMakeTestTask(final WorkerExecutor workerExecutor, final ObjectFactory objects,
+    final ProjectLayout layout, final TestEventReporterFactory testEventReporterFactory) {
+    this.workerExecutor = workerExecutor;
+    this.testEventReporterFactory = testEventReporterFactory;
+    setGroup("cmake");
+    setDescription("Run the tests of a CMake build with ctest");
+    executable = objects.property(String.class);
+    workingFolder = objects.directoryProperty();
+    testConfig = objects.property(String.class);
+    testJobs = objects.property(Integer.class);
+    shardIndex = objects.property(Integer.class);
+    shardCount = objects.property(Integer.class);
+    rerunFailed = objects.property(Boolean.class);
+    testInputs = objects.fileCollection();
+    junitReport = objects.fileProperty();
+    binaryResults = objects.directoryProperty();
+    htmlReport = objects.directoryProperty();
+    buildService = objects.property(CMakeBuildService.class);
+
+    junitReport.convention(layout.getBuildDirectory().file("test-results/" + getName() + "/ctest.xml"));
+    binaryResults.convention(layout.getBuildDirectory().dir("test-results/" + getName() + "/binary"));
+    htmlReport.convention(layout.getBuildDirectory().dir("reports/tests/" + getName()));
+
+    // the tests can only be skipped if the files they test are known
+    getOutputs().upToDateWhen(new HasInputs());
+  }
+
+  private static class HasInputs implements Spec<Task> {
+
+    @Override
+    public boolean isSatisfiedBy(final Task task) {
+      final CMakeTestTask test = (CMakeTestTask) task;
+      return !test.testInputs.isEmpty() && !test.rerunFailed.getOrElse(Boolean.FALSE);
+    }
+  }
+
+  /// region getters
+  @Input
+  @Optional
+  public Property<String> getExecutable() {
+    return executable;
+  }
+
+  @Internal // the tests are tracked by getTestInputs()
+  public DirectoryProperty getWorkingFolder() {
+    return workingFolder;
+  }
+
+  @Input
+  @Optional
+  public Property<String> getTestConfig() {
+    return testConfig;
+  }
+
+  @Internal // the number of jobs does not change the test results
+  public Property<Integer> getTestJobs() {
+    return testJobs;
+  }
+
+  @Input
+  @Optional
+  @Option(option = "shard-index", description = "Runs the shard with this index, starting at 0, of the tests.")
+  public Property<Integer> getShardIndex() {
+    return shardIndex;
+  }
+
+  @Input
+  @Optional
+  @Option(option = "shard-count", description = "Splits the tests into this many shards.")
+  public Property<Integer> getShardCount() {
+    return shardCount;
+  }
+
+  @Input
+  @Optional
+  @Option(option = "rerun-failed", description = "Runs only the tests that failed the last time.")
+  public Property<Boolean> getRerunFailed() {
+    return rerunFailed;
+  }
+
+  /**
+   * The files under test, usually the outputs of the build task.
+   */
+  @InputFiles
+  @PathSensitive(PathSensitivity.RELATIVE)
+  public ConfigurableFileCollection getTestInputs() {
+    return testInputs;
+  }
+
+  /**
+   * The JUnit XML report of ctest, only written with CMake 3.21 or later.
+   */
+  @OutputFile
+  public RegularFileProperty getJunitReport() {
+    return junitReport;
+  }
+
+  /**
+   * The results of the JUnit XML report in the binary format of Gradle's test tasks.
+   */
+  @OutputDirectory
+  public DirectoryProperty getBinaryResults() {
+    return binaryResults;
+  }
+
+  /**
+   * The folder of Gradle's HTML report of the JUnit XML report.
+   */
+  @OutputDirectory
+  public DirectoryProperty getHtmlReport() {
+    return htmlReport;
+  }
+
+  @Internal
+  public Property<CMakeBuildService> getBuildService() {
+    return buildService;
+  }
+  /// endregion
+
+  private String ctest() {
+    if (!executable.isPresent()) {
+      return "ctest";
+    }
+    final File cmake = new File(executable.get());
+    final String name = cmake.getName().endsWith(".exe") ? "ctest.exe" : "ctest";
+    return cmake.getParentFile() == null ? name : new File(cmake.getParentFile(), name).getPath();
+  }
+
+  private List<String> buildCmdLine(final boolean writeJunit) {
+    List<String> parameters = new ArrayList<>();
+
+    parameters.add(ctest());
+    parameters.add("--output-on-failure");
+    if (writeJunit) {
+      parameters.add("--output-junit");
+      parameters.add(junitReport.getAsFile().get().getAbsolutePath());
+    }
+
+    if (testConfig.isPresent()) {
+      parameters.add("-C");
+      parameters.add(testConfig.get());
+    }
+
+    // every shardCount-th test, starting with test shardIndex + 1
+    if (shardCount.isPresent() && shardCount.get() > 1) {
+      parameters.add("-I");
+      parameters.add((shardIndex.getOrElse(0) + 1) + ",," + shardCount.get());
+    }
+
+    if (rerunFailed.getOrElse(Boolean.FALSE)) {
+      parameters.add("--rerun-failed");
+    }
+
+    if (testJobs.isPresent() && testJobs.get() > 0) {
+      parameters.add("--parallel");
+      parameters.add(testJobs.get().toString());
+    }
+
+    return parameters;
+  }
+
+  @TaskAction
+  public void test() {
+    final File junitFile = junitReport.getAsFile().get();
+    junitFile.getParentFile().mkdirs();
+    // a report of an earlier run must not be taken for the results of this one
+    junitFile.delete();
+
+    // --output-junit was added in CMake 3.21, older versions fail on it
+    final boolean writeJunit = CMakeCache.isAtLeast(CMakeCache.read(workingFolder.getAsFile().get()), 3, 21);
+    if (!writeJunit) {
+      getLogger().info("ctest writes no JUnit XML report before CMake 3.21, {} has no test report", getName());
+    }
+
+    final Instant started = Instant.now();
+    // without an explicit job count, share the job budget with the running builds
+    final boolean shareJobs = !testJobs.isPresent()
+      && System.getenv("CTEST_PARALLEL_LEVEL") == null;
+
+    workerExecutor.noIsolation().submit(CMakeWorkAction.class, parameters -> {
+      parameters.getTaskName().set(getName());
+      parameters.getCommandLine().set(buildCmdLine(writeJunit));
+      parameters.getWorkingFolder().set(workingFolder);
+      parameters.getBuildService().set(buildService);
+      parameters.getShareJobs().set(shareJobs);
+      if (writeJunit) {
+        parameters.getTestReport().set(junitFile);
+      }
+    });
+
+    // ctest only fails the work if there is no report of failed tests
+    workerExecutor.await();
+    report(junitFile, started);
+  }
+
+  /**
+   * Reports the results of the JUnit XML report to Gradle, which logs the failed tests and fails
+   * the task if there are any.
+   */
+  private void report(final File junitFile, final Instant started) {
+    final CTestReport report = CTestReport.read(junitFile);
+    if (report == null) {
+      return;
+    }
+    getLogger().info(report.summary());
+    report.reportTo(testEventReporterFactory.createTestEventReporter(getName(), binaryResults.get(),
+      htmlReport.get()), started);
+  }
+
+}
@@ -0,0 +1,459 @@
+package dev.welbyseely;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.work.DisableCachingByDefault;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+
+/**
+ * Watches the source folder and, after each burst of changes, rebuilds only the targets affected
+ * by the changed files with cmake --build, until the build is cancelled. The affected targets are
+ * the ones compiling a changed file, found through the code model and the compile dependencies of
+ * the last build, and the targets depending on those. Changes to CMake scripts and unknown source
+ * files rebuild everything, which lets cmake regenerate the build first. The builds use the settings
+ * of the build task they are configured like and share the process and job limits of the plugin's
+ * build service with the other CMake tasks.
+ */
+@DisableCachingByDefault(because = "Runs until cancelled")
+public class CMakeWatchTask extends DefaultTask {
+
+  private static final WatchEvent.Kind<?>[] KINDS = {StandardWatchEventKinds.ENTRY_CREATE,
+    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE};
+  private static final WatchEvent.Modifier[] MODIFIERS = sensitivity();
+
+  private final Property<String> executable;
+  private final DirectoryProperty workingFolder;
+  private final DirectoryProperty sourceFolder;
+  private final Property<String> buildConfig;
+  private final Property<String> buildTarget;
+  private final Property<Integer> buildJobs;
+  private final Property<Duration> buildTimeout;
+  private final Property<String> buildPreset;
+  private final DirectoryProperty presetFolder;
+  private final Property<String> compilerCache;
+  private final DirectoryProperty compilerCacheFolder;
+  private final Property<CMakeBuildService> buildService;
+  private final Property<Integer> debounceMillis;
+
+  @Inject
+  public CMakeWatchTask(final ObjectFactory objects) {
+    setGroup("cmake");
+    setDescription("Rebuild the targets affected by changed sources until cancelled");
+    executable = objects.property(String.class);
+    workingFolder = objects.directoryProperty();
+    sourceFolder = objects.directoryProperty();
+    buildConfig = objects.property(String.class);
+    buildTarget = objects.property(String.class);
+    buildJobs = objects.property(Integer.class);
+    buildTimeout = objects.property(Duration.class);
+    buildPreset = objects.property(String.class);
+    presetFolder = objects.directoryProperty();
+    compilerCache = objects.property(String.class);
+    compilerCacheFolder = objects.directoryProperty();
+    buildService = objects.property(CMakeBuildService.class);
+    debounceMillis = objects.property(Integer.class);
+    debounceMillis.convention(100);
+  }
+
+  /**
+   * Builds with the settings of the given build task: its executable, working folder, build
+   * configuration, target, jobs, timeout, preset and compiler cache.
+   */
+  public void buildsLike(final TaskProvider<CMakeBuildTask> build) {
+    executable.set(build.flatMap(CMakeBuildTask::getExecutable));
+    workingFolder.set(build.flatMap(CMakeBuildTask::getWorkingFolder));
+    buildConfig.set(build.flatMap(CMakeBuildTask::getBuildConfig));
+    buildTarget.set(build.flatMap(CMakeBuildTask::getBuildTarget));
+    buildJobs.set(build.flatMap(CMakeBuildTask::getBuildJobs));
+    buildTimeout.set(build.flatMap(CMakeBuildTask::getBuildTimeout));
+    buildPreset.set(build.flatMap(CMakeBuildTask::getBuildPreset));
+    presetFolder.set(build.flatMap(CMakeBuildTask::getPresetFolder));
+    compilerCache.set(build.flatMap(CMakeBuildTask::getCompilerCache));
+    compilerCacheFolder.set(build.flatMap(CMakeBuildTask::getCompilerCacheFolder));
+  }
+
+  // polling implementations of the WatchService (macOS) check every 2s instead of every 10s
+  private static WatchEvent.Modifier[] sensitivity() {
+    try {
+      final Class<?> modifier = Class.forName("com.sun.nio.file.SensitivityWatchEventModifier");
+      return new WatchEvent.Modifier[]{(WatchEvent.Modifier) modifier.getField("HIGH").get(null)};
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return new WatchEvent.Modifier[0];
+    }
+  }
+
+  /// region getters
+  @Input
+  @Optional
+  public Property<String> getExecutable() {
+    return executable;
+  }
+
+  @Internal
+  public DirectoryProperty getWorkingFolder() {
+    return workingFolder;
+  }
+
+  @Internal
+  public DirectoryProperty getSourceFolder() {
+    return sourceFolder;
+  }
+
+  @Input
+  @Optional
+  public Property<String> getBuildConfig() {
+    return buildConfig;
+  }
+
+  /**
+   * The target the rebuilds are limited to, with its dependencies, all targets if absent.
+   */
+  @Input
+  @Optional
+  public Property<String> getBuildTarget() {
+    return buildTarget;
+  }
+
+  @Input
+  @Optional
+  public Property<Integer> getBuildJobs() {
+    return buildJobs;
+  }
+
+  /**
+   * Stops a rebuild and all processes it started when it runs longer than this.
+   */
+  @Internal
+  public Property<Duration> getBuildTimeout() {
+    return buildTimeout;
+  }
+
+  /**
+   * A build preset of the CMakePresets.json in the presetFolder, whose targets, configuration and
+   * jobs are used unless buildTarget, buildConfig or buildJobs are set.
+   */
+  @Input
+  @Optional
+  public Property<String> getBuildPreset() {
+    return buildPreset;
+  }
+
+  @Internal
+  public DirectoryProperty getPresetFolder() {
+    return presetFolder;
+  }
+
+  /**
+   * The compilerCache setting. The rebuilds only isolate the launcher's cache folder if it is set.
+   */
+  @Internal
+  public Property<String> getCompilerCache() {
+    return compilerCache;
+  }
+
+  @Internal
+  public DirectoryProperty getCompilerCacheFolder() {
+    return compilerCacheFolder;
+  }
+
+  @Internal
+  public Property<CMakeBuildService> getBuildService() {
+    return buildService;
+  }
+
+  /**
+   * How long to wait for further changes after a change before building, 100 ms by default.
+   */
+  @Input
+  public Property<Integer> getDebounceMillis() {
+    return debounceMillis;
+  }
+  /// endregion
+
+  @TaskAction
+  public void watch() {
+    final File working = workingFolder.getAsFile().get().getAbsoluteFile();
+    final Path source = sourceFolder.getAsFile().get().toPath().toAbsolutePath().normalize();
+    final CMakePresets.BuildPreset preset = buildPreset.isPresent()
+      ? CMakePresets.read(presetFolder.getAsFile().get()).getBuildPreset(buildPreset.get()) : null;
+    // the targets the build task builds, all if empty
+    final List<String> buildTargets = buildTarget.isPresent()
+      ? Collections.singletonList(buildTarget.get())
+      : preset != null ? preset.targets : Collections.<String>emptyList();
+    final String config = buildConfig.isPresent() ? buildConfig.get()
+      : preset != null ? preset.configuration : null;
+
+    // brings the build up to date and records the dependencies of its objects
+    build(buildTargets, preset);
+
+    try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+      final Map<WatchKey, Path> folders = new HashMap<>();
+      register(watcher, source, working.toPath(), folders);
+      getLogger().lifecycle("Watching " + source + " for changes, stop with Ctrl-C");
+
+      // read before the next change arrives, so the build starts right after it
+      Affected affected = new Affected(working, config, getLogger());
+      while (!Thread.currentThread().isInterrupted()) {
+        final Set<Path> changed = new LinkedHashSet<>();
+        boolean overflow = collect(watcher.take(), folders, changed, watcher, working.toPath());
+        WatchKey key;
+        while ((key = watcher.poll(debounceMillis.get(), TimeUnit.MILLISECONDS)) != null) {
+          overflow |= collect(key, folders, changed, watcher, working.toPath());
+        }
+        if (changed.isEmpty() && !overflow) {
+          continue;
+        }
+
+        final Set<String> targets = affected.within(overflow ? null : affected.targets(changed), buildTargets);
+        if (targets != null && targets.isEmpty()) {
+          getLogger().info("  CMakePlugin.task " + getName() + " - no built target uses " + changed);
+          continue;
+        }
+        getLogger().lifecycle("Changed: " + describe(changed, source) + ", building "
+          + (targets != null ? targets : buildTargets.isEmpty() ? "all targets" : buildTargets));
+        build(targets != null ? new ArrayList<>(targets) : buildTargets, preset);
+        affected = new Affected(working, config, getLogger());
+      }
+    } catch (IOException e) {
+      throw new GradleException("Could not watch " + source, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    getLogger().lifecycle("Stopped watching " + source);
+  }
+
+  /**
+   * The targets affected by changed files, from the state of the build folder after the last build.
+   */
+  static final class Affected {
+
+    private final CMakeCodeModel model;
+    private final String config;
+    private final Map<String, Set<String>> targetsByFile = new HashMap<>();
+    private final Set<String> cmakeInputs = new HashSet<>();
+
+    Affected(final File working, final String config, final Logger logger) {
+      this.config = config;
+      model = CMakeFileApi.readReply(working);
+      if (model == null) {
+        return;
+      }
+      for (CMakeCodeModel.Target target : model.getTargets(config)) {
+        for (File file : target.getSources()) {
+          targetsByFile.computeIfAbsent(DependencyIndex.normalize(file), f -> new TreeSet<>())
+            .add(target.getName());
+        }
+      }
+      for (File input : model.getCMakeInputs()) {
+        cmakeInputs.add(DependencyIndex.normalize(input));
+      }
+      try {
+        DependencyIndex.targetsByFile(working).forEach((file, targets) ->
+          targetsByFile.computeIfAbsent(file, f -> new TreeSet<>()).addAll(targets));
+      } catch (IOException e) {
+        logger.info("  CMakePlugin - could not read the compile dependencies of " + working, e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    // null to build all targets
+    Set<String> targets(final Set<Path> changed) {
+      if (model == null) {
+        return null;
+      }
+      final Set<String> direct = new TreeSet<>();
+      for (Path path : changed) {
+        final String file = DependencyIndex.normalize(path.toFile());
+        final Set<String> owners = targetsByFile.get(file);
+        if (cmakeInputs.contains(file) || isBuildScript(path)) {
+          return null;
+        } else if (owners != null) {
+          direct.addAll(owners);
+        } else if (isSource(path)) {
+          // a new source file, maybe picked up by a glob
+          return null;
+        }
+      }
+      return withDependents(direct);
+    }
+
+    /**
+     * The affected targets the given build targets build, null for all of them. All affected
+     * targets if the build targets are empty, which builds all targets.
+     */
+    Set<String> within(final Set<String> affected, final List<String> buildTargets) {
+      if (affected == null || buildTargets.isEmpty()) {
+        return affected;
+      }
+      final Set<String> built = new HashSet<>();
+      for (String buildTarget : buildTargets) {
+        final Set<String> builtWith = model.getTargetsBuiltWith(config, buildTarget);
+        if (builtWith == null) {
+          return affected;
+        }
+        built.addAll(builtWith);
+      }
+      final Set<String> within = new TreeSet<>(affected);
+      within.retainAll(built);
+      return within;
+    }
+
+    // the targets linking a rebuilt target have to be relinked
+    private Set<String> withDependents(final Set<String> targets) {
+      final Map<String, List<String>> dependents = new HashMap<>();
+      for (CMakeCodeModel.Target target : model.getTargets(config)) {
+        for (String dependency : target.getDependencies()) {
+          dependents.computeIfAbsent(dependency, d -> new ArrayList<>()).add(target.getName());
+        }
+      }
+      final Set<String> affected = new TreeSet<>(targets);
+      final List<String> pending = new ArrayList<>(targets);
+      while (!pending.isEmpty()) {
+        for (String dependent : dependents.getOrDefault(pending.remove(pending.size() - 1),
+          Collections.emptyList())) {
+          if (affected.add(dependent)) {
+            pending.add(dependent);
+          }
+        }
+      }
+      return affected;
+    }
+  }
+
+  private static boolean isBuildScript(final Path path) {
+    return DependencyIndex.isBuildScript(path.getFileName().toString());
+  }
+
+  private static boolean isSource(final Path path) {
+    return DependencyIndex.isSource(path.getFileName().toString());
+  }
+
+  // hidden files and folders, editor backups and swap files
+  private static boolean isIgnored(final Path path, final Path working) {
+    final String name = path.getFileName().toString();
+    return path.startsWith(working) || name.startsWith(".") || name.endsWith("~")
+      || name.endsWith(".swp") || name.endsWith(".swx") || name.endsWith(".tmp");
+  }
+
+  private static void register(final WatchService watcher, final Path root, final Path working,
+    final Map<WatchKey, Path> folders) throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs)
+        throws IOException {
+        if (!dir.equals(root) && isIgnored(dir, working)) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        folders.put(dir.register(watcher, KINDS, MODIFIERS), dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  // returns whether events were lost
+  private static boolean collect(final WatchKey key, final Map<WatchKey, Path> folders,
+    final Set<Path> changed, final WatchService watcher, final Path working) throws IOException {
+    final Path folder = folders.get(key);
+    boolean overflow = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW || folder == null) {
+        overflow = true;
+        continue;
+      }
+      final Path path = folder.resolve((Path) event.context());
+      if (isIgnored(path, working)) {
+        continue;
+      }
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+        && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+        register(watcher, path, working, folders);
+      }
+      changed.add(path);
+    }
+    if (!key.reset()) {
+      folders.remove(key);
+    }
+    return overflow;
+  }
+
+  private static String describe(final Set<Path> changed, final Path source) {
+    final List<String> names = new ArrayList<>();
+    for (Path path : changed) {
+      names.add(path.startsWith(source) ? source.relativize(path).toString() : path.toString());
+    }
+    return names.size() <= 5 ? String.join(", ", names)
+      : String.join(", ", names.subList(0, 5)) + " and " + (names.size() - 5) + " more";
+  }
+
+  // the given targets, or all if empty, run like the work action of the build task runs cmake --build
+  private void build(final List<String> targets, final CMakePresets.BuildPreset preset) {
+    final File working = workingFolder.getAsFile().get();
+    final CMakeWorkAction.Invocation invocation = new CMakeWorkAction.Invocation(getName(),
+      CMakeBuildTask.buildCmdLine(executable.getOrNull(), buildConfig.getOrNull(), targets, false,
+        buildJobs.getOrNull(), preset), working);
+    if (preset != null) {
+      invocation.environment.putAll(preset.environment);
+    }
+    invocation.service = buildService.getOrNull();
+    invocation.shareJobs = CMakeBuildTask.sharesJobs(buildJobs.getOrNull(), preset);
+    invocation.joinJobServer = true;
+    invocation.compilerLauncher = CompilerCache.launcherOf(CMakeCache.read(working));
+    if (compilerCache.isPresent()) {
+      invocation.compilerCacheFolder = compilerCacheFolder.getAsFile().getOrNull();
+    }
+    invocation.diagnosticsReport = new File(working, "diagnostics.json");
+    invocation.dependencyIndex = new File(working, DependencyIndex.FILE_NAME);
+    invocation.jobMemoryProfile = new File(working, JobPools.FILE_NAME);
+    invocation.timeoutMillis = buildTimeout.isPresent() ? buildTimeout.get().toMillis() : 0L;
+
+    final long start = System.nanoTime();
+    try {
+      CMakeWorkAction.run(invocation, getLogger());
+      getLogger().lifecycle(String.format(Locale.ROOT, "Build succeeded in %.1fs",
+        (System.nanoTime() - start) / 1e9));
+    } catch (GradleException e) {
+      if (Thread.currentThread().isInterrupted()) {
+        throw e;
+      }
+      getLogger().lifecycle(String.format(Locale.ROOT, "Build failed in %.1fs",
+        (System.nanoTime() - start) / 1e9));
+    }
+  }
+
+}
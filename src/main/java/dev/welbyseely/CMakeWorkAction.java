@@ -0,0 +1,301 @@
+package dev.welbyseely;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a single CMake invocation on a Gradle worker, so independent CMake tasks of the same
+ * project can execute concurrently.
+ */
+public abstract class CMakeWorkAction implements WorkAction<CMakeWorkAction.Parameters> {
+
+  public interface Parameters extends WorkParameters {
+
+    Property<String> getTaskName();
+
+    ListProperty<String> getCommandLine();
+
+    DirectoryProperty getWorkingFolder();
+
+    // folder to run the command in, the working folder if absent
+    DirectoryProperty getExecFolder();
+
+    // variables set for the command in addition to the ones of the Gradle process
+    MapProperty<String, String> getEnvironment();
+
+    Property<CMakeBuildService> getBuildService();
+
+    // append --parallel with a share of the job budget of the build service
+    Property<Boolean> getShareJobs();
+
+    // share the jobs through the jobserver of the build service instead, if the make program can
+    Property<Boolean> getJoinJobServer();
+
+    // compiler launcher of the build, to report compiler cache statistics for
+    Property<String> getCompilerLauncher();
+
+    // isolated compiler cache folder, the launcher's default if absent
+    DirectoryProperty getCompilerCacheFolder();
+
+    // collect compiler diagnostics into this JSON report, if present
+    RegularFileProperty getDiagnosticsReport();
+
+    // index the compile dependencies of the build into this file after it succeeded, if present
+    RegularFileProperty getDependencyIndex();
+
+    // record the peak memory of single compile and link jobs into this file, if present
+    RegularFileProperty getJobMemoryProfile();
+
+    // stop the command and its child processes after this time, if positive
+    Property<Long> getTimeoutMillis();
+
+    // JUnit XML report of ctest, if it lists failed tests the task reports them instead of failing here
+    RegularFileProperty getTestReport();
+  }
+
+  /**
+   * A CMake invocation with the limits, reports and records around it, the same for every task
+   * running cmake --build or ctest.
+   */
+  static final class Invocation {
+
+    final String taskName;
+    final List<String> cmdLine;
+    final File workingFolder;
+    File execFolder; // the working folder if null
+    final Map<String, String> environment = new LinkedHashMap<>();
+    CMakeBuildService service; // no limits and no timings if null
+    boolean shareJobs;
+    boolean joinJobServer;
+    String compilerLauncher;
+    File compilerCacheFolder;
+    File diagnosticsReport;
+    File dependencyIndex;
+    File jobMemoryProfile;
+    long timeoutMillis;
+    File testReport;
+
+    Invocation(final String taskName, final List<String> cmdLine, final File workingFolder) {
+      this.taskName = taskName;
+      this.cmdLine = cmdLine;
+      this.workingFolder = workingFolder;
+    }
+  }
+
+  @Override
+  public void execute() {
+    final Parameters parameters = getParameters();
+    final Invocation invocation = new Invocation(parameters.getTaskName().get(),
+      parameters.getCommandLine().get(), parameters.getWorkingFolder().getAsFile().get());
+    invocation.execFolder = parameters.getExecFolder().getAsFile().getOrNull();
+    invocation.environment.putAll(parameters.getEnvironment().getOrElse(Collections.emptyMap()));
+    invocation.service = parameters.getBuildService().getOrNull();
+    invocation.shareJobs = parameters.getShareJobs().getOrElse(Boolean.FALSE);
+    invocation.joinJobServer = parameters.getJoinJobServer().getOrElse(Boolean.FALSE);
+    invocation.compilerLauncher = parameters.getCompilerLauncher().getOrNull();
+    invocation.compilerCacheFolder = parameters.getCompilerCacheFolder().getAsFile().getOrNull();
+    invocation.diagnosticsReport = parameters.getDiagnosticsReport().getAsFile().getOrNull();
+    invocation.dependencyIndex = parameters.getDependencyIndex().getAsFile().getOrNull();
+    invocation.jobMemoryProfile = parameters.getJobMemoryProfile().getAsFile().getOrNull();
+    invocation.timeoutMillis = parameters.getTimeoutMillis().getOrElse(0L);
+    invocation.testReport = parameters.getTestReport().getAsFile().getOrNull();
+    run(invocation, Logging.getLogger(CMakeWorkAction.class));
+  }
+
+  /**
+   * Runs the invocation within the process and job limits of the build service and records its
+   * timings, job memory, compile dependencies, diagnostics and compiler cache statistics.
+   */
+  static void run(final Invocation invocation, final Logger logger) {
+    final String taskName = invocation.taskName;
+    final CMakeBuildService service = invocation.service;
+    final boolean shareJobs = service != null && invocation.shareJobs;
+
+    final List<String> cmdLine = new ArrayList<>(invocation.cmdLine);
+    final CMakeExecutor executor = new CMakeExecutor(logger, taskName);
+    final File workingFolder = invocation.workingFolder;
+
+    final CompilerCache compilerCache = CompilerCache.forLauncher(invocation.compilerLauncher);
+    final File statsLog = new File(workingFolder, "compiler-cache-stats.log");
+    final Map<String, String> environment = new LinkedHashMap<>(invocation.environment);
+    if (compilerCache != null) {
+      environment.putAll(compilerCache.environment(invocation.compilerCacheFolder, statsLog));
+    }
+    final JobServer jobServer = shareJobs && invocation.joinJobServer
+      ? service.jobServerFor(CMakeCache.read(workingFolder).getOrDefault("CMAKE_MAKE_PROGRAM", ""))
+      : null;
+
+    final File diagnosticsReport = invocation.diagnosticsReport;
+    final CompilerDiagnostics diagnostics = diagnosticsReport == null ? null : new CompilerDiagnostics();
+
+    if (service != null) {
+      service.acquireProcess();
+    }
+    CompilerCache.Statistics before = null;
+    ProcessMonitor.Usage usage = null;
+    try {
+      int jobs = 0;
+      boolean slotTaken = false;
+      String status = "failed";
+      try {
+        if (jobServer != null) {
+          // no --parallel, an explicit job count would start a jobserver of its own
+          environment.put("MAKEFLAGS", jobServer.makeFlags());
+          acquire(jobServer);
+          slotTaken = true;
+        } else if (shareJobs) {
+          jobs = service.acquireJobs();
+          // before the options of the build tool, if any
+          final int toolOptions = cmdLine.indexOf("--");
+          cmdLine.addAll(toolOptions < 0 ? cmdLine.size() : toolOptions,
+            Arrays.asList("--parallel", String.valueOf(jobs)));
+        }
+        if (compilerCache != null) {
+          statsLog.delete();
+          before = compilerCache.statistics(statsLog, environment);
+        }
+        final long ninjaLogOffset = NinjaLog.size(workingFolder);
+        final long started = System.nanoTime();
+        int exitCode = -1;
+        try {
+          usage = executor.exec(cmdLine, invocation.execFolder != null ? invocation.execFolder : workingFolder,
+            environment, diagnostics, invocation.timeoutMillis);
+          status = "succeeded";
+          exitCode = 0;
+        } catch (CMakeExecutor.Failure e) {
+          usage = e.usage;
+          status = e.status;
+          exitCode = e.exitCode;
+          if (!hasFailedTests(invocation.testReport, e)) {
+            throw e;
+          }
+        } finally {
+          // failed and timed out invocations are the ones most worth seeing
+          if (service != null) {
+            service.recordTimings(timings(taskName, status, exitCode, usage,
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), workingFolder, ninjaLogOffset, logger));
+          }
+        }
+      } finally {
+        // first, so other builds can start while this one reports
+        if (slotTaken) {
+          release(jobServer, !status.equals("succeeded") && !status.equals("failed"), logger);
+        } else if (jobs > 0) {
+          service.releaseJobs(jobs);
+        }
+      }
+      if (invocation.jobMemoryProfile != null) {
+        try {
+          JobPools.record(invocation.jobMemoryProfile, usage);
+        } catch (IOException e) {
+          logger.info("[" + taskName + "] could not record the job memory", e);
+        }
+      }
+      if (invocation.dependencyIndex != null) {
+        DependencyIndex.harvest(workingFolder, invocation.dependencyIndex, logger);
+      }
+    } finally {
+      try {
+        if (diagnostics != null) {
+          // the report must not hide the failure of the build or skip the clean-up below
+          try {
+            diagnostics.writeReport(diagnosticsReport);
+          } catch (GradleException e) {
+            logger.warn("[" + taskName + "] " + e.getMessage(), e.getCause());
+          }
+          diagnostics.summarize(logger, taskName);
+        }
+        if (compilerCache != null) {
+          compilerCache.report(logger, taskName, before, compilerCache.statistics(statsLog, environment));
+        }
+      } finally {
+        if (service != null) {
+          service.releaseProcess();
+        }
+      }
+    }
+  }
+
+  private static boolean hasFailedTests(final File testReport, final CMakeExecutor.Failure failure) {
+    if (!failure.status.equals("failed") || testReport == null) {
+      return false;
+    }
+    final CTestReport report = CTestReport.read(testReport);
+    return report != null && !report.getFailed().isEmpty();
+  }
+
+  private static void acquire(final JobServer jobServer) {
+    try {
+      jobServer.acquire();
+    } catch (IOException e) {
+      throw new GradleException("Could not take a slot of the CMake jobserver", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GradleException("Interrupted while waiting for a slot of the CMake jobserver", e);
+    }
+  }
+
+  private static void release(final JobServer jobServer, final boolean stopped, final Logger logger) {
+    try {
+      jobServer.release(stopped);
+    } catch (IOException e) {
+      logger.info("Could not return a slot to the CMake jobserver", e);
+    }
+  }
+
+  private static Map<String, Object> timings(final String taskName, final String status, final int exitCode,
+    final ProcessMonitor.Usage usage, final long wallMillis, final File workingFolder, final long ninjaLogOffset,
+    final Logger logger) {
+    final Map<String, Object> record = new LinkedHashMap<>();
+    record.put("task", taskName);
+    record.put("status", status);
+    if (exitCode >= 0) {
+      record.put("exitCode", exitCode);
+    }
+    // without a usage cmake did not start
+    record.put("wallMillis", usage != null ? usage.wallMillis : wallMillis);
+    if (usage == null) {
+      return record;
+    }
+    if (usage.cpuMillis >= 0) {
+      record.put("cpuMillis", usage.cpuMillis);
+    }
+    if (usage.peakRssBytes >= 0) {
+      record.put("peakRssBytes", usage.peakRssBytes);
+    }
+    if (usage.peakCompileJobBytes >= 0) {
+      record.put("peakCompileJobBytes", usage.peakCompileJobBytes);
+    }
+    if (usage.peakLinkJobBytes >= 0) {
+      record.put("peakLinkJobBytes", usage.peakLinkJobBytes);
+    }
+    try {
+      final List<NinjaLog.Step> steps = NinjaLog.readFrom(workingFolder, ninjaLogOffset);
+      if (!steps.isEmpty()) {
+        record.put("ninja", NinjaLog.summarize(steps, 20));
+      }
+    } catch (IOException e) {
+      logger.info("[" + taskName + "] could not read " + NinjaLog.FILE_NAME, e);
+    }
+    return record;
+  }
+
+}
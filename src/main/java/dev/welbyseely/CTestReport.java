@@ -0,0 +1,173 @@
+package dev.welbyseely;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.tasks.testing.GroupTestEventReporter;
+import org.gradle.api.tasks.testing.TestEventReporter;
+import org.gradle.api.tasks.testing.TestOutputEvent;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * The test cases of a JUnit XML report written by ctest --output-junit, summarized and reported
+ * to Gradle like the results of its test tasks.
+ */
+final class CTestReport {
+
+  static final class TestCase {
+
+    final String name;
+    final String time;
+    final String status; // passed, failed or skipped
+    final String failure; // the message of a failed test
+    final String output;
+
+    TestCase(final String name, final String time, final String status, final String failure,
+      final String output) {
+      this.name = name;
+      this.time = time;
+      this.status = status;
+      this.failure = failure;
+      this.output = output;
+    }
+
+    long millis() {
+      try {
+        return Math.max(0, Math.round(Double.parseDouble(time) * 1000));
+      } catch (NumberFormatException e) {
+        return 0;
+      }
+    }
+  }
+
+  private final List<TestCase> testCases;
+
+  private CTestReport(final List<TestCase> testCases) {
+    this.testCases = testCases;
+  }
+
+  /**
+   * Reads the report, null if ctest did not write one.
+   */
+  static CTestReport read(final File junitReport) {
+    if (!junitReport.isFile()) {
+      return null;
+    }
+
+    final Document document;
+    try {
+      final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      document = factory.newDocumentBuilder().parse(junitReport);
+    } catch (ParserConfigurationException | SAXException | IOException e) {
+      throw new GradleException("Could not read the test report " + junitReport, e);
+    }
+
+    final List<TestCase> testCases = new ArrayList<>();
+    final NodeList elements = document.getElementsByTagName("testcase");
+    for (int i = 0; i < elements.getLength(); i++) {
+      final Element testCase = (Element) elements.item(i);
+      final String status;
+      String failure = null;
+      final NodeList failures = testCase.getElementsByTagName("failure").getLength() > 0
+        ? testCase.getElementsByTagName("failure") : testCase.getElementsByTagName("error");
+      if (failures.getLength() > 0) {
+        status = "failed";
+        failure = ((Element) failures.item(0)).getAttribute("message");
+        if (failure.isEmpty()) {
+          failure = "Failed";
+        }
+      } else if (testCase.getElementsByTagName("skipped").getLength() > 0) {
+        status = "skipped";
+      } else {
+        status = "passed";
+      }
+      final NodeList output = testCase.getElementsByTagName("system-out");
+      testCases.add(new TestCase(testCase.getAttribute("name"), testCase.getAttribute("time"), status, failure,
+        output.getLength() > 0 ? output.item(0).getTextContent() : ""));
+    }
+    return new CTestReport(testCases);
+  }
+
+  List<TestCase> getTestCases() {
+    return Collections.unmodifiableList(testCases);
+  }
+
+  List<String> getFailed() {
+    return named("failed");
+  }
+
+  List<String> getSkipped() {
+    return named("skipped");
+  }
+
+  private List<String> named(final String status) {
+    final List<String> names = new ArrayList<>();
+    for (TestCase testCase : testCases) {
+      if (testCase.status.equals(status)) {
+        names.add(testCase.name);
+      }
+    }
+    return names;
+  }
+
+  /**
+   * The summary Gradle's test tasks log, like "3 tests completed, 1 failed, 1 skipped".
+   */
+  String summary() {
+    final StringBuilder summary = new StringBuilder()
+      .append(testCases.size()).append(testCases.size() == 1 ? " test" : " tests").append(" completed");
+    if (!getFailed().isEmpty()) {
+      summary.append(", ").append(getFailed().size()).append(" failed");
+    }
+    if (!getSkipped().isEmpty()) {
+      summary.append(", ").append(getSkipped().size()).append(" skipped");
+    }
+    return summary.toString();
+  }
+
+  /**
+   * Reports the test cases to Gradle, which renders its HTML report of them and fails the task if
+   * any of them failed. ctest runs the tests in parallel, so they are reported one after the
+   * other from the start, each taking the time it took.
+   */
+  void reportTo(final GroupTestEventReporter reporter, final Instant start) {
+    Instant time = start;
+    try (GroupTestEventReporter root = reporter) {
+      root.started(start);
+      for (TestCase testCase : testCases) {
+        try (TestEventReporter test = root.reportTest(testCase.name, testCase.name)) {
+          test.started(time);
+          if (!testCase.output.isEmpty()) {
+            test.output(time, TestOutputEvent.Destination.StdOut, testCase.output);
+          }
+          time = time.plusMillis(testCase.millis());
+          if (testCase.status.equals("failed")) {
+            test.failed(time, testCase.failure);
+          } else if (testCase.status.equals("skipped")) {
+            test.skipped(time);
+          } else {
+            test.succeeded(time);
+          }
+        }
+      }
+      if (getFailed().isEmpty()) {
+        root.succeeded(time);
+      } else {
+        root.failed(time, "There were failing tests.");
+      }
+    }
+  }
+
+}
@@ -0,0 +1,195 @@
+package dev.welbyseely;
+
+import groovy.json.JsonSlurper;
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Support for the ccache and sccache compiler launchers: finding them, isolating their cache
+ * folder and reporting hits and misses of a build.
+ */
+final class CompilerCache {
+
+  static final String AUTO = "auto";
+  private static final List<String> KNOWN = Arrays.asList("ccache", "sccache");
+
+  static final class Statistics {
+
+    final long hits;
+    final long misses;
+
+    Statistics(final long hits, final long misses) {
+      this.hits = hits;
+      this.misses = misses;
+    }
+  }
+
+  private final String launcher;
+  private final boolean sccache;
+
+  private CompilerCache(final String launcher) {
+    this.launcher = launcher;
+    this.sccache = baseName(launcher).equals("sccache");
+  }
+
+  /**
+   * Resolves the compilerCache setting: "auto" picks the first of ccache and sccache found on the
+   * PATH and returns null if there is none, other values name or point to the launcher to use.
+   */
+  static String find(final String setting) {
+    if (setting == null || setting.isEmpty()) {
+      return null;
+    }
+    if (setting.equals(AUTO)) {
+      for (String name : KNOWN) {
+        final File found = CMakeExecutor.findOnPath(name);
+        if (found != null) {
+          return found.getAbsolutePath();
+        }
+      }
+      return null;
+    }
+    final File file = new File(setting);
+    if (file.isAbsolute()) {
+      return file.getAbsolutePath();
+    }
+    final File found = CMakeExecutor.findOnPath(setting);
+    if (found == null) {
+      throw new GradleException("Compiler cache " + setting + " was not found on the PATH");
+    }
+    return found.getAbsolutePath();
+  }
+
+  /**
+   * The compiler launcher of a configured build, if any.
+   */
+  static String launcherOf(final Map<String, String> cacheEntries) {
+    final String launcher = cacheEntries.get("CMAKE_CXX_COMPILER_LAUNCHER");
+    return launcher == null || launcher.isEmpty() ? cacheEntries.get("CMAKE_C_COMPILER_LAUNCHER")
+      : launcher;
+  }
+
+  /**
+   * The compiler cache for the given launcher, or null if it is none of the supported ones.
+   */
+  static CompilerCache forLauncher(final String launcher) {
+    return launcher != null && KNOWN.contains(baseName(launcher)) ? new CompilerCache(launcher) : null;
+  }
+
+  private static String baseName(final String launcher) {
+    String name = new File(launcher).getName().toLowerCase(Locale.ROOT);
+    if (name.endsWith(".exe")) {
+      name = name.substring(0, name.length() - 4);
+    }
+    return name;
+  }
+
+  String getName() {
+    return sccache ? "sccache" : "ccache";
+  }
+
+  /**
+   * Environment for a build: the cache folder, if isolated, and for ccache the statistics log
+   * that only receives the results of this build. sccache uses the cache folder only when its
+   * server is not running yet.
+   */
+  Map<String, String> environment(final File cacheFolder, final File statsLog) {
+    final Map<String, String> environment = new HashMap<>();
+    if (cacheFolder != null) {
+      environment.put(sccache ? "SCCACHE_DIR" : "CCACHE_DIR", cacheFolder.getAbsolutePath());
+    }
+    if (!sccache) {
+      environment.put("CCACHE_STATSLOG", statsLog.getAbsolutePath());
+    }
+    return environment;
+  }
+
+  /**
+   * Hits and misses so far. For ccache they are counted from the statistics log of the build, for
+   * sccache they are the server totals, which include concurrent builds.
+   */
+  Statistics statistics(final File statsLog, final Map<String, String> environment) {
+    return sccache ? sccacheStatistics(environment) : ccacheStatistics(statsLog);
+  }
+
+  private static Statistics ccacheStatistics(final File statsLog) {
+    long hits = 0;
+    long misses = 0;
+    if (!statsLog.isFile()) {
+      return new Statistics(hits, misses);
+    }
+    try (BufferedReader reader = Files.newBufferedReader(statsLog.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        // one "# <source file>" line per compilation followed by its counters
+        if (line.equals("direct_cache_hit") || line.equals("preprocessed_cache_hit")) {
+          hits++;
+        } else if (line.equals("cache_miss")) {
+          misses++;
+        }
+      }
+    } catch (IOException e) {
+      throw new GradleException("Could not read ccache statistics " + statsLog, e);
+    }
+    return new Statistics(hits, misses);
+  }
+
+  private Statistics sccacheStatistics(final Map<String, String> environment) {
+    final ProcessBuilder pb = new ProcessBuilder(launcher, "--show-stats", "--stats-format", "json");
+    pb.environment().putAll(environment);
+    pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+    try {
+      final Process process = pb.start();
+      final Object json;
+      try (InputStream in = process.getInputStream()) {
+        json = new JsonSlurper().parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+      }
+      process.waitFor();
+      final Map<?, ?> stats = (Map<?, ?>) ((Map<?, ?>) json).get("stats");
+      return new Statistics(sum(((Map<?, ?>) stats.get("cache_hits")).get("counts")),
+        sum(((Map<?, ?>) stats.get("cache_misses")).get("counts")));
+    } catch (IOException | RuntimeException e) {
+      // statistics are informational only
+      return new Statistics(0, 0);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new Statistics(0, 0);
+    }
+  }
+
+  private static long sum(final Object counts) {
+    long sum = 0;
+    if (counts instanceof Map) {
+      for (Object count : ((Map<?, ?>) counts).values()) {
+        sum += ((Number) count).longValue();
+      }
+    }
+    return sum;
+  }
+
+  void report(final Logger logger, final String taskName, final Statistics before,
+    final Statistics after) {
+    final long hits = after.hits - before.hits;
+    final long misses = after.misses - before.misses;
+    if (hits + misses == 0) {
+      logger.info("[" + taskName + "] " + getName() + ": no cacheable compilations");
+      return;
+    }
+    logger.lifecycle(String.format(Locale.ROOT, "[%s] %s: %d hits, %d misses (%.1f%% hit rate)",
+      taskName, getName(), hits, misses, 100.0 * hits / (hits + misses)));
+  }
+
+}
@@ -0,0 +1,237 @@
+package dev.welbyseely;
+
+import groovy.json.JsonOutput;
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Collects the errors and warnings of GCC, Clang and MSVC from the output of a build, line by
+ * line. Only the counts and the first diagnostics are kept, so memory use does not grow with the
+ * output.
+ */
+final class CompilerDiagnostics implements OutputPump.LineListener {
+
+  // file:line[:column]: error|warning: message [-Wflag]
+  private static final Pattern GCC = Pattern.compile(
+    "^(.+?):(\\d+):(?:(\\d+):)?\\s+(fatal error|error|warning):\\s+(.*?)(?:\\s+\\[(-W[^\\]]+)\\])?$");
+  // [project>]file(line[,column]): error|warning C1234: message
+  private static final Pattern MSVC = Pattern.compile(
+    "^\\s*(?:\\d+>)?(.+?)\\((\\d+)(?:,(\\d+))?\\)\\s*:\\s+(fatal error|error|warning)\\s+([A-Z]+\\d+)\\s*:\\s*(.*)$");
+
+  private static final byte[] ERROR = "error".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] WARNING = "warning".getBytes(StandardCharsets.US_ASCII);
+  private static final int MAX_LINE = 4096;
+
+  private static final int MAX_KEPT = 100;
+  private static final int MAX_SEEN = 10000;
+
+  static final class Diagnostic {
+
+    final String severity; // "error" or "warning"
+    final String file;
+    final int line;
+    final int column;
+    final String kind; // warning flag or MSVC code, may be null
+    final String message;
+
+    Diagnostic(final String severity, final String file, final int line, final int column,
+      final String kind, final String message) {
+      this.severity = severity;
+      this.file = file;
+      this.line = line;
+      this.column = column;
+      this.kind = kind;
+      this.message = message;
+    }
+
+    Map<String, Object> toMap() {
+      final Map<String, Object> map = new LinkedHashMap<>();
+      map.put("severity", severity);
+      map.put("file", file);
+      map.put("line", line);
+      if (column > 0) {
+        map.put("column", column);
+      }
+      if (kind != null) {
+        map.put("kind", kind);
+      }
+      map.put("message", message);
+      return map;
+    }
+
+    @Override
+    public String toString() {
+      return file + ":" + line + (column > 0 ? ":" + column : "") + ": " + severity + ": " + message
+        + (kind != null ? " [" + kind + "]" : "");
+    }
+  }
+
+  private int errors;
+  private int warnings;
+  private final Map<String, int[]> byFile = new TreeMap<>(); // file -> {errors, warnings}
+  private final Map<String, Integer> byKind = new TreeMap<>();
+  private final List<Diagnostic> kept = new ArrayList<>();
+  // the same diagnostic is repeated for each translation unit including a header
+  private final Set<String> seen = new HashSet<>();
+
+  static Diagnostic parse(final String line) {
+    Matcher matcher = GCC.matcher(line);
+    if (matcher.matches()) {
+      return new Diagnostic(severity(matcher.group(4)), matcher.group(1), Integer.parseInt(matcher.group(2)),
+        matcher.group(3) == null ? 0 : Integer.parseInt(matcher.group(3)), matcher.group(6),
+        matcher.group(5));
+    }
+    matcher = MSVC.matcher(line);
+    if (matcher.matches()) {
+      return new Diagnostic(severity(matcher.group(4)), matcher.group(1).trim(),
+        Integer.parseInt(matcher.group(2)),
+        matcher.group(3) == null ? 0 : Integer.parseInt(matcher.group(3)), matcher.group(5),
+        matcher.group(6));
+    }
+    return null;
+  }
+
+  private static String severity(final String severity) {
+    return severity.equals("warning") ? "warning" : "error";
+  }
+
+  /**
+   * Only lines mentioning an error or a warning are decoded, which most lines of a build don't.
+   */
+  @Override
+  public boolean wants(final byte[] bytes, final int offset, final int length) {
+    return length <= MAX_LINE && (contains(bytes, offset, length, ERROR) || contains(bytes, offset, length, WARNING));
+  }
+
+  private static boolean contains(final byte[] bytes, final int offset, final int length, final byte[] word) {
+    search:
+    for (int i = offset; i <= offset + length - word.length; i++) {
+      for (int j = 0; j < word.length; j++) {
+        if (bytes[i + j] != word[j]) {
+          continue search;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public synchronized void accept(final String line) {
+    if (line.length() > MAX_LINE) {
+      return;
+    }
+    final Diagnostic diagnostic = parse(line);
+    if (diagnostic == null) {
+      return;
+    }
+    final String key = diagnostic.toString();
+    if (seen.contains(key)) {
+      return;
+    }
+    if (seen.size() < MAX_SEEN) {
+      seen.add(key);
+    }
+
+    final boolean error = diagnostic.severity.equals("error");
+    if (error) {
+      errors++;
+    } else {
+      warnings++;
+    }
+    final int[] counts = byFile.computeIfAbsent(diagnostic.file, f -> new int[2]);
+    counts[error ? 0 : 1]++;
+    if (diagnostic.kind != null) {
+      byKind.merge(diagnostic.kind, 1, Integer::sum);
+    }
+    if (kept.size() < MAX_KEPT) {
+      kept.add(diagnostic);
+    }
+  }
+
+  synchronized int getErrors() {
+    return errors;
+  }
+
+  synchronized int getWarnings() {
+    return warnings;
+  }
+
+  /**
+   * Logs the number of errors and warnings, the files with most of them and the first errors.
+   */
+  synchronized void summarize(final Logger logger, final String taskName) {
+    if (errors + warnings == 0) {
+      return;
+    }
+    final StringBuilder sb = new StringBuilder();
+    sb.append("[").append(taskName).append("] ").append(errors).append(" error(s), ")
+      .append(warnings).append(" warning(s) in ").append(byFile.size()).append(" file(s)");
+
+    final List<Map.Entry<String, int[]>> files = new ArrayList<>(byFile.entrySet());
+    files.sort((a, b) -> b.getValue()[0] != a.getValue()[0] ? b.getValue()[0] - a.getValue()[0]
+      : b.getValue()[1] - a.getValue()[1]);
+    for (Map.Entry<String, int[]> file : files.subList(0, Math.min(10, files.size()))) {
+      sb.append(System.lineSeparator()).append("  ").append(file.getKey()).append(": ")
+        .append(file.getValue()[0]).append(" error(s), ").append(file.getValue()[1])
+        .append(" warning(s)");
+    }
+    int shown = 0;
+    for (Diagnostic diagnostic : kept) {
+      if (diagnostic.severity.equals("error") && shown++ < 10) {
+        sb.append(System.lineSeparator()).append("  ").append(diagnostic);
+      }
+    }
+    if (errors > 0) {
+      logger.error(sb.toString());
+    } else {
+      logger.lifecycle(sb.toString());
+    }
+  }
+
+  /**
+   * Writes the counts and the first diagnostics as JSON.
+   */
+  synchronized void writeReport(final File report) {
+    final Map<String, Object> json = new LinkedHashMap<>();
+    json.put("errors", errors);
+    json.put("warnings", warnings);
+    final Map<String, Object> files = new LinkedHashMap<>();
+    for (Map.Entry<String, int[]> file : byFile.entrySet()) {
+      final Map<String, Integer> counts = new LinkedHashMap<>();
+      counts.put("errors", file.getValue()[0]);
+      counts.put("warnings", file.getValue()[1]);
+      files.put(file.getKey(), counts);
+    }
+    json.put("files", files);
+    json.put("kinds", byKind);
+    final List<Map<String, Object>> diagnostics = new ArrayList<>();
+    for (Diagnostic diagnostic : kept) {
+      diagnostics.add(diagnostic.toMap());
+    }
+    json.put("diagnostics", diagnostics);
+    json.put("truncated", errors + warnings > kept.size());
+    try {
+      Files.write(report.toPath(), Collections.singletonList(JsonOutput.prettyPrint(JsonOutput.toJson(json))),
+        StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new GradleException("Could not write the diagnostics report " + report, e);
+    }
+  }
+
+}
@@ -0,0 +1,360 @@
+package dev.welbyseely;
+
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.specs.Spec;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The files the compiler read during the builds in a build folder, harvested from Ninja's deps log
+ * (ninja -t deps) or from the depfiles of the Makefile generators. The index is a sorted list of
+ * "target<TAB>absolute path" lines, with an empty target for objects of no known target.
+ */
+final class DependencyIndex {
+
+  static final String FILE_NAME = "gradle-deps.txt";
+
+  private static final Set<String> HEADER_EXTENSIONS = new HashSet<>(Arrays.asList(
+    "h", "hh", "hpp", "hxx", "h++", "inl", "ipp", "tpp", "tcc"));
+  private static final Set<String> SOURCE_EXTENSIONS = new HashSet<>(Arrays.asList(
+    "c", "cc", "cpp", "cxx", "c++", "m", "mm", "cu", "asm", "s"));
+  private static final boolean CASE_INSENSITIVE = File.separatorChar == '\\';
+
+  private DependencyIndex() {
+  }
+
+  /**
+   * Rewrites the index of the build folder from the dependency information of its last build. The
+   * index is deleted if the generator does not record dependencies, for example Visual Studio.
+   */
+  static void harvest(final File buildFolder, final File index, final Logger logger) {
+    final Set<String> lines = new TreeSet<>();
+    try {
+      read(buildFolder, (object, dependency) -> {
+        final String target = NinjaLog.targetOf(object);
+        lines.add((target == null ? "" : target) + "\t" + dependency);
+      });
+      if (lines.isEmpty()) {
+        Files.deleteIfExists(index.toPath());
+        return;
+      }
+      Files.write(index.toPath(), lines, StandardCharsets.UTF_8);
+      logger.info("  CMakePlugin - " + lines.size() + " compile dependencies written to " + index);
+    } catch (IOException e) {
+      logger.info("  CMakePlugin - could not index the compile dependencies of " + buildFolder, e);
+      index.delete();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      index.delete();
+    }
+  }
+
+  /**
+   * The targets whose objects the compiler built from each file, by the normalized path of the
+   * file. Empty if the generator does not record dependencies.
+   */
+  static Map<String, Set<String>> targetsByFile(final File buildFolder)
+    throws IOException, InterruptedException {
+    final Map<String, Set<String>> targets = new HashMap<>();
+    read(buildFolder, (object, dependency) -> {
+      final String target = NinjaLog.targetOf(object);
+      if (target != null) {
+        targets.computeIfAbsent(dependency, file -> new TreeSet<>()).add(target);
+      }
+    });
+    return targets;
+  }
+
+  static String normalize(final File file) {
+    final String normalized = file.toPath().toAbsolutePath().normalize().toString();
+    return CASE_INSENSITIVE ? normalized.toLowerCase(Locale.ROOT) : normalized;
+  }
+
+  // calls the consumer with every object and one of its normalized dependencies
+  private static void read(final File buildFolder, final BiConsumer<String, String> consumer)
+    throws IOException, InterruptedException {
+    if (new File(buildFolder, ".ninja_deps").isFile()) {
+      readNinjaDeps(buildFolder, consumer);
+    } else {
+      readDepfiles(buildFolder, consumer);
+    }
+  }
+
+  private static void readNinjaDeps(final File buildFolder, final BiConsumer<String, String> consumer)
+    throws IOException, InterruptedException {
+    final String ninja = CMakeCache.read(buildFolder).getOrDefault("CMAKE_MAKE_PROGRAM", "ninja");
+    final Process process = new ProcessBuilder(ninja, "-t", "deps")
+      .directory(buildFolder)
+      .redirectErrorStream(true)
+      .start();
+    // "target: #deps 2, deps mtime 123 (VALID)" followed by one indented line per dependency
+    try (BufferedReader reader = new BufferedReader(
+      new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      String object = "";
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(" ") && !line.trim().isEmpty()) {
+          consumer.accept(object, normalize(buildFolder, line.trim()));
+        } else if (line.contains(": #deps")) {
+          object = line.substring(0, line.indexOf(": #deps"));
+        }
+      }
+    }
+    if (process.waitFor() != 0) {
+      throw new IOException(ninja + " -t deps returned " + process.exitValue());
+    }
+  }
+
+  // CMake 3.20+ keeps the depfile of each object next to it, for example foo.cpp.o.d
+  private static void readDepfiles(final File buildFolder, final BiConsumer<String, String> consumer)
+    throws IOException {
+    final Path cmakeFiles = new File(buildFolder, "CMakeFiles").toPath();
+    if (!Files.isDirectory(cmakeFiles)) {
+      return;
+    }
+    final List<Path> depfiles;
+    try (Stream<Path> walk = Files.walk(cmakeFiles)) {
+      depfiles = walk.filter(path -> path.getFileName().toString().endsWith(".d")
+        && Files.isRegularFile(path)).collect(Collectors.toList());
+    }
+    for (Path depfile : depfiles) {
+      final String object = buildFolder.toPath().relativize(depfile).toString();
+      for (String dependency : parseDepfile(
+        new String(Files.readAllBytes(depfile), StandardCharsets.UTF_8))) {
+        consumer.accept(object, normalize(buildFolder, dependency));
+      }
+    }
+  }
+
+  /**
+   * The files the compiles of each target read by target, from an index written by harvest.
+   */
+  static Map<String, Set<String>> readIndex(final File index) throws IOException {
+    final Map<String, Set<String>> files = new HashMap<>();
+    for (String line : Files.readAllLines(index.toPath(), StandardCharsets.UTF_8)) {
+      final int tab = line.indexOf('\t');
+      files.computeIfAbsent(tab < 0 ? "" : line.substring(0, tab), target -> new HashSet<>())
+        .add(line.substring(tab + 1));
+    }
+    return files;
+  }
+
+  // make syntax: "target: dep1 dep2 \" with escaped spaces, the prerequisites of all rules
+  static List<String> parseDepfile(final String contents) {
+    final List<String> dependencies = new ArrayList<>();
+    final StringBuilder word = new StringBuilder();
+    boolean prerequisites = false;
+    for (int i = 0; i < contents.length(); i++) {
+      final char c = contents.charAt(i);
+      final char next = i + 1 < contents.length() ? contents.charAt(i + 1) : '\0';
+      if (c == '\\' && (next == ' ' || next == '#')) {
+        word.append(next);
+        i++;
+      } else if (c == '\\' && (next == '\n' || next == '\r')) {
+        i++;
+        if (next == '\r' && i + 1 < contents.length() && contents.charAt(i + 1) == '\n') {
+          i++;
+        }
+        prerequisites = addWord(word, prerequisites, dependencies);
+      } else if (c == '$' && next == '$') {
+        word.append('$');
+        i++;
+      } else if (c == ':' && (next == ' ' || next == '\t' || next == '\n' || next == '\r'
+        || next == '\0')) {
+        // ends the target, a ':' followed by a letter is a drive letter
+        word.setLength(0);
+        prerequisites = true;
+      } else if (c == '\n' || c == '\r') {
+        addWord(word, prerequisites, dependencies);
+        prerequisites = false;
+      } else if (c == ' ' || c == '\t') {
+        prerequisites = addWord(word, prerequisites, dependencies);
+      } else {
+        word.append(c);
+      }
+    }
+    addWord(word, prerequisites, dependencies);
+    return dependencies;
+  }
+
+  private static boolean addWord(final StringBuilder word, final boolean prerequisites,
+    final List<String> dependencies) {
+    if (prerequisites && word.length() > 0) {
+      dependencies.add(word.toString());
+    }
+    word.setLength(0);
+    return prerequisites;
+  }
+
+  private static String normalize(final File buildFolder, final String path) {
+    return normalize(buildFolder.toPath().resolve(path).toFile());
+  }
+
+  static boolean isHeader(final String name) {
+    final int dot = name.lastIndexOf('.');
+    return dot >= 0 && HEADER_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * The files read by the compiles of the given targets and of objects of no known target, null if
+   * none of the targets was compiled yet. All files if targets is null.
+   */
+  static Set<String> readBy(final Map<String, Set<String>> index, final Set<String> targets) {
+    final Set<String> files = new HashSet<>();
+    boolean compiled = targets == null;
+    for (Map.Entry<String, Set<String>> entry : index.entrySet()) {
+      if (targets == null || targets.contains(entry.getKey())) {
+        compiled |= !entry.getKey().isEmpty();
+        files.addAll(entry.getValue());
+      } else if (entry.getKey().isEmpty()) {
+        files.addAll(entry.getValue());
+      }
+    }
+    return compiled ? files : null;
+  }
+
+  /**
+   * The files of the source folder a build of the given target and the targets it depends on uses:
+   * their sources, the files their compiles read in the last indexed build and the CMake scripts.
+   */
+  static final class BuildInputs {
+
+    private final Set<String> sources = new HashSet<>(); // of the built targets
+    private final Set<String> otherSources = new HashSet<>(); // of the targets not built
+    private final Set<String> cmakeInputs = new HashSet<>();
+    private final Set<String> read; // null if the compiles of the built targets were not indexed yet
+
+    private BuildInputs(final CMakeCodeModel model, final String buildConfig, final String buildTarget,
+      final Set<String> read) {
+      final Set<String> built = model.getTargetsBuiltWith(buildConfig, buildTarget);
+      for (CMakeCodeModel.Target target : model.getTargets(buildConfig)) {
+        final Set<String> files = built == null || built.contains(target.getName()) ? sources : otherSources;
+        for (File source : target.getSources()) {
+          files.add(normalize(source));
+        }
+      }
+      for (File input : model.getCMakeInputs()) {
+        cmakeInputs.add(normalize(input));
+      }
+      this.read = read;
+    }
+
+    /**
+     * The inputs after the last configure and build of the build folder, null before the first
+     * configure, when the targets are unknown.
+     */
+    static BuildInputs read(final File index, final File buildFolder, final String buildConfig,
+      final String buildTarget) {
+      final CMakeCodeModel model = CMakeFileApi.readReply(buildFolder);
+      if (model == null) {
+        return null;
+      }
+      Set<String> read;
+      try {
+        read = index.isFile()
+          ? readBy(readIndex(index), model.getTargetsBuiltWith(buildConfig, buildTarget)) : null;
+      } catch (IOException e) {
+        read = null;
+      }
+      return new BuildInputs(model, buildConfig, buildTarget, read);
+    }
+
+    /**
+     * Whether the build uses the file. Headers count until the compiles were indexed, and so do
+     * source files of no target, which a glob may pick up, and new CMake scripts.
+     */
+    boolean uses(final File file) {
+      final String path = normalize(file);
+      final String name = file.getName();
+      if (sources.contains(path) || cmakeInputs.contains(path) || isBuildScript(name)) {
+        return true;
+      } else if (isHeader(name)) {
+        return read == null || read.contains(path);
+      } else if (read != null && read.contains(path)) {
+        return true;
+      }
+      return isSource(name) && !otherSources.contains(path);
+    }
+  }
+
+  /**
+   * Matches the files of the source folder the built target and the targets it depends on do not
+   * use, see {@link BuildInputs}, to leave them out of the build inputs. Nothing matches before the
+   * first configure. The inputs are resolved once per build and configure of the build folder.
+   */
+  static class UnusedFiles implements Spec<FileTreeElement> {
+
+    private final Provider<RegularFile> index;
+    private final Provider<Directory> buildFolder;
+    private final Provider<String> buildConfig;
+    private final Provider<String> buildTarget;
+    private transient BuildInputs inputs;
+    private transient long indexModified = -1;
+    private transient long replyModified = -1;
+
+    UnusedFiles(final Provider<RegularFile> index, final Provider<Directory> buildFolder,
+      final Provider<String> buildConfig, final Provider<String> buildTarget) {
+      this.index = index;
+      this.buildFolder = buildFolder;
+      this.buildConfig = buildConfig;
+      this.buildTarget = buildTarget;
+    }
+
+    @Override
+    public boolean isSatisfiedBy(final FileTreeElement element) {
+      if (element.isDirectory()) {
+        return false;
+      }
+      final BuildInputs used = inputs();
+      return used != null && !used.uses(element.getFile());
+    }
+
+    // a new build rewrites the index, a new configure adds a reply to the folder
+    private synchronized BuildInputs inputs() {
+      final File folder = buildFolder.get().getAsFile();
+      final File file = index.get().getAsFile();
+      final long modified = file.lastModified();
+      final long reply = CMakeFileApi.replyFolder(folder).lastModified();
+      if (modified != indexModified || reply != replyModified) {
+        inputs = BuildInputs.read(file, folder, buildConfig.getOrNull(), buildTarget.getOrNull());
+        indexModified = modified;
+        replyModified = reply;
+      }
+      return inputs;
+    }
+  }
+
+  static boolean isBuildScript(final String name) {
+    return name.equals("CMakeLists.txt") || name.endsWith(".cmake") || name.equals("CMakePresets.json")
+      || name.equals("CMakeUserPresets.json");
+  }
+
+  static boolean isSource(final String name) {
+    final int dot = name.lastIndexOf('.');
+    return isHeader(name)
+      || (dot >= 0 && SOURCE_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT)));
+  }
+
+}
@@ -0,0 +1,118 @@
+package dev.welbyseely;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Deletes file trees in parallel: the top levels of the tree are split into one fork/join task per
+ * folder, deeper folders are deleted with a sequential walk. The deletes run on a pool of their
+ * own, so blocking file system calls don't hold up the common pool the build and other plugins use.
+ */
+final class FileTrees {
+
+  private static final int PARALLEL_DEPTH = 3;
+  private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+  private static final ForkJoinPool DELETES = new ForkJoinPool(THREADS, pool -> {
+    final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+    thread.setName("cmake-delete-" + thread.getPoolIndex());
+    thread.setDaemon(true);
+    return thread;
+  }, null, false);
+
+  private FileTrees() {
+  }
+
+  static void delete(final Path root) throws IOException {
+    if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+      return;
+    }
+    try {
+      DELETES.invoke(new DeleteFolder(root, 0));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static final class DeleteFolder extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Path folder;
+    private final int depth;
+
+    DeleteFolder(final Path folder, final int depth) {
+      this.folder = folder;
+      this.depth = depth;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        if (!Files.isDirectory(folder, LinkOption.NOFOLLOW_LINKS)) {
+          Files.deleteIfExists(folder);
+          return;
+        }
+        if (depth >= PARALLEL_DEPTH) {
+          walkAndDelete(folder);
+          return;
+        }
+        final List<DeleteFolder> subFolders = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(folder)) {
+          for (Path child : children) {
+            if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+              subFolders.add(new DeleteFolder(child, depth + 1));
+            } else {
+              Files.deleteIfExists(child);
+            }
+          }
+        }
+        invokeAll(subFolders);
+        Files.deleteIfExists(folder);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private static void walkAndDelete(final Path folder) throws IOException {
+    Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+        Files.deleteIfExists(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(final Path file, final IOException e) throws IOException {
+        if (e instanceof NoSuchFileException) {
+          return FileVisitResult.CONTINUE;
+        }
+        throw e;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+        if (e != null) {
+          throw e;
+        }
+        Files.deleteIfExists(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+}
@@ -0,0 +1,24 @@
+package dev.welbyseely;
+
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.specs.Spec;
+
+/**
+ * Matches the files below a folder, to exclude the build folder from a source tree containing it.
+ */
+class FolderSpec implements Spec<FileTreeElement> {
+
+  private final Provider<Directory> folder;
+
+  FolderSpec(final Provider<Directory> folder) {
+    this.folder = folder;
+  }
+
+  @Override
+  public boolean isSatisfiedBy(final FileTreeElement element) {
+    return element.getFile().toPath().startsWith(folder.get().getAsFile().toPath());
+  }
+
+}
@@ -0,0 +1,318 @@
+package dev.welbyseely;
+
+import org.gradle.api.GradleException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Copies a staged install tree into the install prefix, writing only the files whose contents
+ * changed. The size, modification time and hash of every synced file are kept in a state file,
+ * so unchanged files are not even read on the next sync. Only the files cmake listed in the
+ * install manifest of the last install are synced, as cmake --install never removes staged files
+ * that are no longer installed.
+ */
+final class InstallSync {
+
+  static final class Result {
+
+    final int copied;
+    final int unchanged;
+    final int deleted;
+
+    Result(final int copied, final int unchanged, final int deleted) {
+      this.copied = copied;
+      this.unchanged = unchanged;
+      this.deleted = deleted;
+    }
+  }
+
+  private static final class Entry {
+
+    final long size;
+    final long stagedMillis;
+    final String hash;
+    final long installedMillis;
+
+    Entry(final long size, final long stagedMillis, final String hash, final long installedMillis) {
+      this.size = size;
+      this.stagedMillis = stagedMillis;
+      this.hash = hash;
+      this.installedMillis = installedMillis;
+    }
+  }
+
+  private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+  // copies run on a pool of their own, so blocking file system calls don't hold up the common pool
+  private static final ForkJoinPool COPIES = new ForkJoinPool(THREADS, pool -> {
+    final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+    thread.setName("cmake-install-" + thread.getPoolIndex());
+    thread.setDaemon(true);
+    return thread;
+  }, null, false);
+
+  private InstallSync() {
+  }
+
+  /**
+   * The install manifest cmake --install writes into the build folder, one for each component.
+   */
+  static File manifest(final File buildFolder, final String component) {
+    return new File(buildFolder, component == null ? "install_manifest.txt"
+      : "install_manifest_" + component + ".txt");
+  }
+
+  static Result sync(final File staging, final File manifest, final File prefix, final File stateFile) {
+    final Map<String, Entry> previous = readState(stateFile);
+    final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+    final Path stagingPath = staging.toPath().toAbsolutePath().normalize();
+    final List<Callable<Boolean>> copies = new ArrayList<>();
+    for (Path path : installedFiles(stagingPath, manifest)) {
+      final String relative = stagingPath.relativize(path).toString().replace('\\', '/');
+      final Path target = prefix.toPath().resolve(relative);
+      copies.add(() -> syncFile(path, target, relative, previous.get(relative), current));
+    }
+
+    int copied = 0;
+    int unchanged = 0;
+    try {
+      for (Future<Boolean> copy : COPIES.invokeAll(copies)) {
+        if (copy.get()) {
+          copied++;
+        } else {
+          unchanged++;
+        }
+      }
+    } catch (ExecutionException e) {
+      throw new GradleException("Could not install into " + prefix,
+        e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GradleException("Interrupted installing into " + prefix, e);
+    }
+
+    // files installed by the previous sync that are no longer installed
+    int deleted = 0;
+    for (String relative : previous.keySet()) {
+      if (!current.containsKey(relative) && new File(prefix, relative).delete()) {
+        deleted++;
+      }
+    }
+
+    writeState(stateFile, current);
+    return new Result(copied, unchanged, deleted);
+  }
+
+  /**
+   * Whether the last sync installed the files of the manifest and none of them changed in the
+   * prefix since, so syncing again would copy nothing as long as the staged files are the same.
+   */
+  static boolean isInSync(final File staging, final File manifest, final File prefix, final File stateFile) {
+    if (!stateFile.isFile()) {
+      return false;
+    }
+    final Path stagingPath = staging.toPath().toAbsolutePath().normalize();
+    final Set<String> listed = new HashSet<>();
+    for (Path path : listed(stagingPath, manifest)) {
+      listed.add(stagingPath.relativize(path).toString().replace('\\', '/'));
+    }
+    final Map<String, Entry> state = readState(stateFile);
+    if (!state.keySet().equals(listed)) {
+      return false;
+    }
+    try {
+      for (Map.Entry<String, Entry> entry : state.entrySet()) {
+        final Path target = prefix.toPath().resolve(entry.getKey());
+        final Entry e = entry.getValue();
+        if (e.hash.startsWith("link:")) {
+          if (!Files.isSymbolicLink(target)
+            || !("link:" + Files.readSymbolicLink(target)).equals(e.hash)) {
+            return false;
+          }
+        } else if (!Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS) || Files.size(target) != e.size
+          || Files.getLastModifiedTime(target).toMillis() != e.installedMillis) {
+          return false;
+        }
+      }
+    } catch (IOException e) {
+      return false;
+    }
+    return true;
+  }
+
+  // the files of the manifest in the staging folder
+  private static Set<Path> listed(final Path stagingPath, final File manifest) {
+    final Set<Path> listed = new HashSet<>();
+    try {
+      // without a manifest nothing was installed
+      final List<String> lines = manifest.isFile()
+        ? Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8) : Collections.emptyList();
+      for (String line : lines) {
+        final Path path = Paths.get(line).toAbsolutePath().normalize();
+        if (!line.isEmpty() && path.startsWith(stagingPath)) {
+          listed.add(path);
+        }
+      }
+    } catch (IOException e) {
+      throw new GradleException("Could not read the install manifest " + manifest, e);
+    }
+    return listed;
+  }
+
+  // the staged files listed in the manifest, staged files that are not are removed
+  private static List<Path> installedFiles(final Path stagingPath, final File manifest) {
+    final Set<Path> listed = listed(stagingPath, manifest);
+    final List<Path> files = new ArrayList<>();
+    if (!Files.isDirectory(stagingPath)) {
+      return files;
+    }
+    try (Stream<Path> walk = Files.walk(stagingPath)) {
+      for (Path path : walk.filter(path -> Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)
+        || Files.isSymbolicLink(path)).collect(Collectors.toList())) {
+        if (listed.contains(path)) {
+          files.add(path);
+        } else {
+          Files.delete(path);
+        }
+      }
+    } catch (IOException e) {
+      throw new GradleException("Could not list the staged install files in " + stagingPath, e);
+    }
+    return files;
+  }
+
+  // returns whether the file was copied
+  private static boolean syncFile(final Path source, final Path target, final String relative,
+    final Entry previous, final Map<String, Entry> current) {
+    try {
+      if (Files.isSymbolicLink(source)) {
+        final Path link = Files.readSymbolicLink(source);
+        current.put(relative, new Entry(-1, -1, "link:" + link, -1));
+        if (Files.isSymbolicLink(target) && Files.readSymbolicLink(target).equals(link)) {
+          return false;
+        }
+        Files.createDirectories(target.getParent());
+        Files.deleteIfExists(target);
+        Files.createSymbolicLink(target, link);
+        return true;
+      }
+
+      final long size = Files.size(source);
+      final long stagedMillis = Files.getLastModifiedTime(source).toMillis();
+      final boolean targetUntouched = previous != null && Files.isRegularFile(target)
+        && Files.size(target) == previous.size
+        && Files.getLastModifiedTime(target).toMillis() == previous.installedMillis;
+
+      if (targetUntouched && previous.size == size && previous.stagedMillis == stagedMillis) {
+        current.put(relative, previous);
+        return false;
+      }
+
+      final String hash = hash(source);
+      if (targetUntouched && previous.size == size && previous.hash.equals(hash)) {
+        // rebuilt with the same contents
+        current.put(relative, new Entry(size, stagedMillis, hash, previous.installedMillis));
+        return false;
+      }
+      if (previous == null && Files.isRegularFile(target) && Files.size(target) == size
+        && hash(target).equals(hash)) {
+        // installed before the state was recorded
+        current.put(relative, new Entry(size, stagedMillis, hash,
+          Files.getLastModifiedTime(target).toMillis()));
+        return false;
+      }
+
+      Files.createDirectories(target.getParent());
+      Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+      current.put(relative, new Entry(size, stagedMillis, hash,
+        Files.getLastModifiedTime(target).toMillis()));
+      return true;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static String hash(final Path file) throws IOException {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      final byte[] buffer = new byte[64 * 1024];
+      try (InputStream in = Files.newInputStream(file)) {
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+          digest.update(buffer, 0, read);
+        }
+      }
+      final StringBuilder sb = new StringBuilder();
+      for (byte b : digest.digest()) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // one "path<TAB>size<TAB>staged mtime<TAB>hash<TAB>installed mtime" line per file
+  private static Map<String, Entry> readState(final File stateFile) {
+    final Map<String, Entry> state = new TreeMap<>();
+    if (!stateFile.isFile()) {
+      return state;
+    }
+    try {
+      for (String line : Files.readAllLines(stateFile.toPath(), StandardCharsets.UTF_8)) {
+        final String[] fields = line.split("\t");
+        if (fields.length == 5) {
+          state.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+            fields[3], Long.parseLong(fields[4])));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // start over, every file is compared by contents
+      state.clear();
+    }
+    return state;
+  }
+
+  private static void writeState(final File stateFile, final Map<String, Entry> state) {
+    final List<String> lines = new ArrayList<>();
+    for (Map.Entry<String, Entry> entry : new TreeMap<>(state).entrySet()) {
+      final Entry e = entry.getValue();
+      lines.add(entry.getKey() + "\t" + e.size + "\t" + e.stagedMillis + "\t" + e.hash + "\t"
+        + e.installedMillis);
+    }
+    try {
+      Files.createDirectories(stateFile.getParentFile().toPath());
+      Files.write(stateFile.toPath(), lines, StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new GradleException("Could not write the install state " + stateFile, e);
+    }
+  }
+
+}
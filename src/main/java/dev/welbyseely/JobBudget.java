@@ -0,0 +1,43 @@
+package dev.welbyseely;
+
+/**
+ * The parallel jobs shared by the concurrently running builds. A starting build gets an equal share
+ * of the budget for the builds running at that time, but no more than is still free, so an early
+ * build does not leave nothing to later ones for longer than it runs. A build never waits for jobs:
+ * one starting while all jobs are taken runs a single job, so concurrent builds and tests still make
+ * progress and the budget is exceeded by at most one job for each of them.
+ */
+final class JobBudget {
+
+  private final int maxJobs;
+  private int freeJobs; // negative while builds started without a free job run
+  private int activeBuilds;
+
+  JobBudget(final int maxJobs) {
+    this.maxJobs = Math.max(1, maxJobs);
+    this.freeJobs = this.maxJobs;
+  }
+
+  /**
+   * Registers a starting build and returns the number of jobs it may run, at least one.
+   */
+  synchronized int acquire() {
+    activeBuilds++;
+    final int jobs = Math.max(1, Math.min(freeJobs, maxJobs / activeBuilds));
+    freeJobs -= jobs;
+    return jobs;
+  }
+
+  /**
+   * Returns the jobs of a finished build.
+   */
+  synchronized void release(final int jobs) {
+    activeBuilds--;
+    freeJobs += jobs;
+  }
+
+  synchronized int getFreeJobs() {
+    return freeJobs;
+  }
+
+}
@@ -0,0 +1,187 @@
+package dev.welbyseely;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Ninja job pools sized by the available memory, so memory hungry compile and link jobs (LTO
+ * links in particular) do not run the machine into swap. The memory of one job is estimated as
+ * configured at first, and as the peak observed by earlier builds of the same folder once there
+ * is one. The memory is split evenly between the builds expected to run at the same time.
+ */
+final class JobPools {
+
+  static final String FILE_NAME = "gradle-job-memory.properties";
+  static final int DEFAULT_COMPILE_JOB_MEMORY = 1024; // MiB
+  static final int DEFAULT_LINK_JOB_MEMORY = 4096; // MiB
+
+  private static final String COMPILE = "compile";
+  private static final String LINK = "link";
+  private static final double HEADROOM = 1.25;
+  private static final double DECAY = 0.9;
+  private static final long MIB = 1024 * 1024;
+
+  private JobPools() {
+  }
+
+  /**
+   * The CMAKE_JOB_POOLS, CMAKE_JOB_POOL_COMPILE and CMAKE_JOB_POOL_LINK definitions for the
+   * build folder, given the number of builds expected to run at the same time, empty if the
+   * available memory is unknown.
+   */
+  static Map<String, String> definitions(final File buildFolder, final int compileJobMemory,
+    final int linkJobMemory, final int concurrentBuilds) {
+    return definitions(buildFolder, compileJobMemory, linkJobMemory, concurrentBuilds, availableMemory());
+  }
+
+  /**
+   * The definitions for the given available memory in bytes, empty if it is unknown.
+   */
+  static Map<String, String> definitions(final File buildFolder, final int compileJobMemory,
+    final int linkJobMemory, final int concurrentBuilds, final long memory) {
+    return memory <= 0 ? new LinkedHashMap<>()
+      : poolDefinitions(buildFolder, compileJobMemory, linkJobMemory, memory / Math.max(1, concurrentBuilds));
+  }
+
+  /**
+   * The definitions for pools sharing the given memory in bytes.
+   */
+  static Map<String, String> poolDefinitions(final File buildFolder, final int compileJobMemory,
+    final int linkJobMemory, final long available) {
+    final Map<String, String> definitions = new LinkedHashMap<>();
+    final Properties observed = read(new File(buildFolder, FILE_NAME));
+    final long compilePool = poolSize(available, estimate(observed, COMPILE, compileJobMemory));
+    final long linkPool = poolSize(available, estimate(observed, LINK, linkJobMemory));
+    definitions.put("CMAKE_JOB_POOLS", COMPILE + "=" + compilePool + ";" + LINK + "=" + linkPool);
+    definitions.put("CMAKE_JOB_POOL_COMPILE", COMPILE);
+    definitions.put("CMAKE_JOB_POOL_LINK", LINK);
+    return definitions;
+  }
+
+  /**
+   * Whether the CMAKE_JOB_POOLS of a cache are close enough to the requested ones to keep the
+   * configuration, so a little more or less free memory does not reconfigure every time.
+   */
+  static boolean similar(final String cached, final String requested) {
+    if (cached == null) {
+      return false;
+    }
+    final Map<String, Long> cachedPools = parse(cached);
+    final Map<String, Long> requestedPools = parse(requested);
+    if (!cachedPools.keySet().equals(requestedPools.keySet())) {
+      return false;
+    }
+    for (Map.Entry<String, Long> pool : requestedPools.entrySet()) {
+      final long have = cachedPools.get(pool.getKey());
+      if (Math.abs(have - pool.getValue()) > Math.max(1, pool.getValue() / 4)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Updates the observed peaks of the build folder with the usage of a build: a higher peak
+   * replaces the recorded one, a lower one lets it decay slowly, as a build often only rebuilds a
+   * few jobs.
+   */
+  static void record(final File profile, final ProcessMonitor.Usage usage) throws IOException {
+    if (usage.peakCompileJobBytes <= 0 && usage.peakLinkJobBytes <= 0) {
+      return;
+    }
+    final Properties observed = read(profile);
+    update(observed, COMPILE, usage.peakCompileJobBytes);
+    update(observed, LINK, usage.peakLinkJobBytes);
+    try (OutputStream out = Files.newOutputStream(profile.toPath())) {
+      observed.store(out, "peak memory of single jobs in bytes, written by the cmake plugin");
+    }
+  }
+
+  private static void update(final Properties observed, final String kind, final long peak) {
+    if (peak <= 0) {
+      return;
+    }
+    final long recorded = parseLong(observed.getProperty(kind));
+    observed.setProperty(kind, Long.toString(Math.max(peak, (long) (recorded * DECAY))));
+  }
+
+  private static long estimate(final Properties observed, final String kind, final int configuredMiB) {
+    final long recorded = parseLong(observed.getProperty(kind));
+    return recorded > 0 ? (long) (recorded * HEADROOM) : configuredMiB * MIB;
+  }
+
+  private static long poolSize(final long available, final long jobMemory) {
+    return Math.max(1, available / Math.max(MIB, jobMemory));
+  }
+
+  /**
+   * The available physical memory in bytes: MemAvailable on Linux, the free physical memory
+   * elsewhere, -1 if unknown.
+   */
+  static long availableMemory() {
+    final File meminfo = new File("/proc/meminfo");
+    if (meminfo.isFile()) {
+      try {
+        for (String line : Files.readAllLines(meminfo.toPath(), StandardCharsets.UTF_8)) {
+          if (line.startsWith("MemAvailable:")) {
+            return parseLong(line.substring(13).trim().split("\\s+")[0]) * 1024;
+          }
+        }
+      } catch (IOException e) {
+        // fall back to the management bean
+      }
+    }
+    try {
+      return (Long) Class.forName("com.sun.management.OperatingSystemMXBean")
+        .getMethod("getFreePhysicalMemorySize")
+        .invoke(ManagementFactory.getOperatingSystemMXBean());
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return -1;
+    }
+  }
+
+  static String describe(final long bytes) {
+    return bytes < 0 ? "n/a" : String.format(Locale.ROOT, "%d MiB", bytes / MIB);
+  }
+
+  private static Map<String, Long> parse(final String pools) {
+    final Map<String, Long> sizes = new LinkedHashMap<>();
+    for (String pool : pools.split(";")) {
+      final int equals = pool.indexOf('=');
+      if (equals > 0) {
+        sizes.put(pool.substring(0, equals).trim(), parseLong(pool.substring(equals + 1).trim()));
+      }
+    }
+    return sizes;
+  }
+
+  private static Properties read(final File profile) {
+    final Properties properties = new Properties();
+    if (profile.isFile()) {
+      try (InputStream in = Files.newInputStream(profile.toPath())) {
+        properties.load(in);
+      } catch (IOException | IllegalArgumentException e) {
+        properties.clear();
+      }
+    }
+    return properties;
+  }
+
+  private static long parseLong(final String value) {
+    try {
+      return value == null ? -1 : Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+}
@@ -0,0 +1,178 @@
+package dev.welbyseely;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A GNU make jobserver backed by a named pipe holding one byte per free job slot. GNU make 4.4+
+ * and Ninja 1.13+ started with its MAKEFLAGS take a slot for every job beyond their first, so
+ * concurrently running builds share the same slots instead of each starting its own jobs.
+ */
+final class JobServer implements AutoCloseable {
+
+  private static final Pattern GNU_MAKE = Pattern.compile("GNU Make (\\d+)\\.(\\d+)");
+  private static final Pattern NINJA = Pattern.compile("^(\\d+)\\.(\\d+)");
+
+  private final File folder;
+  private final File fifo;
+  private final RandomAccessFile pipe;
+  private final FileInputStream reader; // of the same pipe, for available() when restoring slots
+  private final int slots;
+  private final Object readLock = new Object(); // guards builds and the restoring of slots
+  private int builds; // running builds that took their first slot
+  private boolean slotsLost;
+
+  private JobServer(final File folder, final File fifo, final RandomAccessFile pipe, final int slots)
+    throws IOException {
+    this.folder = folder;
+    this.fifo = fifo;
+    this.pipe = pipe;
+    this.reader = new FileInputStream(pipe.getFD());
+    this.slots = slots;
+  }
+
+  /**
+   * Creates the pipe with the given number of slots, or returns null where named pipes are not
+   * available, for example on Windows.
+   */
+  static JobServer create(final int slots) throws IOException, InterruptedException {
+    if (File.separatorChar == '\\') {
+      return null;
+    }
+    final File folder = Files.createTempDirectory("cmake-jobserver").toFile();
+    final File fifo = new File(folder, "fifo");
+    final Process mkfifo = new ProcessBuilder("mkfifo", "-m", "600", fifo.getAbsolutePath())
+      .redirectErrorStream(true)
+      .start();
+    if (mkfifo.waitFor() != 0) {
+      folder.delete();
+      return null;
+    }
+    // read and write, so opening does not wait for another end of the pipe
+    final RandomAccessFile pipe = new RandomAccessFile(fifo, "rw");
+    final byte[] tokens = new byte[slots];
+    Arrays.fill(tokens, (byte) '+');
+    pipe.write(tokens);
+    return new JobServer(folder, fifo, pipe, slots);
+  }
+
+  /**
+   * Whether the given make program joins a jobserver passed as a named pipe.
+   */
+  static boolean supports(final String makeProgram) {
+    try {
+      final Process process = new ProcessBuilder(makeProgram, "--version")
+        .redirectErrorStream(true)
+        .start();
+      final String firstLine;
+      try (BufferedReader output = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+        firstLine = output.readLine();
+        while (output.readLine() != null) {
+          // drain
+        }
+      }
+      return process.waitFor() == 0 && firstLine != null && supports(makeProgram, firstLine);
+    } catch (IOException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Whether the make program with the given first line of --version output joins a jobserver
+   * passed as a named pipe: GNU make 4.4+ or Ninja 1.13+.
+   */
+  static boolean supports(final String makeProgram, final String versionLine) {
+    final String name = new File(makeProgram).getName().toLowerCase(Locale.ROOT);
+    final boolean ninja = name.startsWith("ninja");
+    final Matcher matcher = (ninja ? NINJA : GNU_MAKE).matcher(versionLine.trim());
+    if (!matcher.find()) {
+      return false;
+    }
+    final int major = Integer.parseInt(matcher.group(1));
+    final int minor = Integer.parseInt(matcher.group(2));
+    return ninja ? major > 1 || minor >= 13 : major > 4 || (major == 4 && minor >= 4);
+  }
+
+  /**
+   * The MAKEFLAGS of the processes joining the jobserver.
+   */
+  String makeFlags() {
+    return "-j" + slots + " --jobserver-auth=fifo:" + fifo.getAbsolutePath();
+  }
+
+  /**
+   * Takes the slot of the first job of a starting build, waiting until one is free. The slot is
+   * read through a channel of its own, which an interrupt closes to end the wait without closing
+   * the pipe of the other builds. No lock is held while waiting.
+   */
+  void acquire() throws IOException, InterruptedException {
+    // read and write, so opening does not wait for another end of the pipe
+    try (FileChannel channel = FileChannel.open(fifo.toPath(), StandardOpenOption.READ,
+      StandardOpenOption.WRITE)) {
+      if (channel.read(ByteBuffer.allocate(1)) < 0) {
+        throw new IOException("The jobserver pipe " + fifo + " was closed");
+      }
+    } catch (ClosedByInterruptException e) {
+      Thread.interrupted();
+      final InterruptedException interrupted = new InterruptedException("Interrupted waiting for a jobserver slot");
+      interrupted.initCause(e);
+      throw interrupted;
+    }
+    synchronized (readLock) {
+      builds++;
+    }
+  }
+
+  /**
+   * Returns the slot of the first job of a finished build. If the build was stopped, its jobs may
+   * have been killed holding slots, so all slots are put back once no other build is running.
+   */
+  void release(final boolean stopped) throws IOException {
+    synchronized (readLock) {
+      builds--;
+      slotsLost |= stopped;
+      if (builds > 0 || !slotsLost) {
+        pipe.write('+');
+        return;
+      }
+      // no job holds a slot now
+      final byte[] buffer = new byte[Math.max(1, slots)];
+      int available;
+      while ((available = reader.available()) > 0) {
+        reader.read(buffer, 0, Math.min(available, buffer.length));
+      }
+      Arrays.fill(buffer, (byte) '+');
+      pipe.write(buffer, 0, slots);
+      slotsLost = false;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      pipe.close();
+    } finally {
+      fifo.delete();
+      folder.delete();
+    }
+  }
+
+}
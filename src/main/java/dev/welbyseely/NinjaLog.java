@@ -0,0 +1,139 @@
+package dev.welbyseely;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The steps Ninja records in .ninja_log: one tab separated line per finished step with its start
+ * and end time in milliseconds, the output's mtime, the output path and a command hash.
+ */
+final class NinjaLog {
+
+  static final String FILE_NAME = ".ninja_log";
+
+  // CMake places the objects of target "foo" in CMakeFiles/foo.dir
+  private static final Pattern TARGET = Pattern.compile("(?:^|/)CMakeFiles/([^/]+)\\.dir/");
+
+  static final class Step {
+
+    final String output;
+    final String target; // null if the owning target is unknown, for example for links
+    final long millis;
+
+    Step(final String output, final String target, final long millis) {
+      this.output = output;
+      this.target = target;
+      this.millis = millis;
+    }
+
+    boolean isCompile() {
+      return output.endsWith(".o") || output.endsWith(".obj");
+    }
+  }
+
+  private NinjaLog() {
+  }
+
+  /**
+   * The target owning a build output, from its folder below CMakeFiles, or null if unknown.
+   */
+  static String targetOf(final String output) {
+    final Matcher matcher = TARGET.matcher(output.replace('\\', '/'));
+    return matcher.find() ? matcher.group(1) : null;
+  }
+
+  /**
+   * The current size of the log in the given build folder, to read the steps of a following
+   * build from.
+   */
+  static long size(final File buildFolder) {
+    return new File(buildFolder, FILE_NAME).length();
+  }
+
+  /**
+   * The steps appended to the log after the given offset. Ninja rewrites the log when it
+   * recompacts it, in that case all steps are returned.
+   */
+  static List<Step> readFrom(final File buildFolder, final long offset) throws IOException {
+    final File log = new File(buildFolder, FILE_NAME);
+    final List<Step> steps = new ArrayList<>();
+    if (!log.isFile()) {
+      return steps;
+    }
+    try (FileInputStream in = new FileInputStream(log)) {
+      in.getChannel().position(offset <= log.length() ? offset : 0);
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("#")) {
+          continue;
+        }
+        final String[] fields = line.split("\t");
+        if (fields.length < 4) {
+          continue;
+        }
+        try {
+          final String output = fields[3];
+          steps.add(new Step(output, targetOf(output),
+            Long.parseLong(fields[1]) - Long.parseLong(fields[0])));
+        } catch (NumberFormatException e) {
+          // a line being written by a concurrent ninja
+        }
+      }
+    }
+    return steps;
+  }
+
+  /**
+   * The slowest steps and the compile and other (mostly link) time of each target.
+   */
+  static Map<String, Object> summarize(final List<Step> steps, final int slowest) {
+    final Map<String, long[]> targets = new TreeMap<>(); // target -> {compile, other, steps}
+    for (Step step : steps) {
+      final long[] totals = targets.computeIfAbsent(step.target == null ? "<other>" : step.target,
+        t -> new long[3]);
+      totals[step.isCompile() ? 0 : 1] += step.millis;
+      totals[2]++;
+    }
+    final Map<String, Object> byTarget = new LinkedHashMap<>();
+    for (Map.Entry<String, long[]> entry : targets.entrySet()) {
+      final Map<String, Long> totals = new LinkedHashMap<>();
+      totals.put("compileMillis", entry.getValue()[0]);
+      totals.put("otherMillis", entry.getValue()[1]);
+      totals.put("steps", entry.getValue()[2]);
+      byTarget.put(entry.getKey(), totals);
+    }
+
+    final List<Step> sorted = new ArrayList<>(steps);
+    sorted.sort(Comparator.comparingLong((Step step) -> step.millis).reversed());
+    final List<Map<String, Object>> slowestSteps = new ArrayList<>();
+    for (Step step : sorted.subList(0, Math.min(slowest, sorted.size()))) {
+      final Map<String, Object> map = new LinkedHashMap<>();
+      map.put("output", step.output);
+      if (step.target != null) {
+        map.put("target", step.target);
+      }
+      map.put("millis", step.millis);
+      slowestSteps.add(map);
+    }
+
+    final Map<String, Object> summary = new LinkedHashMap<>();
+    summary.put("steps", steps.size());
+    summary.put("targets", byTarget);
+    summary.put("slowest", slowestSteps);
+    return summary;
+  }
+
+}
@@ -0,0 +1,190 @@
+package dev.welbyseely;
+
+import org.gradle.api.logging.LogLevel;
+import org.gradle.api.logging.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Copies the output of CMake processes to a Gradle logger. A few threads shared by all processes
+ * of the build poll the streams instead of blocking on one each, and lines are logged in batches
+ * of whatever one read returned, so verbose builds do not pay for a thread per stream and a log
+ * event per line. Lines are decoded in place, and only when they are logged or wanted by a listener.
+ */
+final class OutputPump {
+
+  /**
+   * Receives lines of the output. Only the lines it wants are decoded for it.
+   */
+  interface LineListener extends Consumer<String> {
+
+    default boolean wants(final byte[] bytes, final int offset, final int length) {
+      return true;
+    }
+  }
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final long POLL_MILLIS = 10;
+  private static final int MAX_READS = 16; // per turn, so one verbose process can't starve the others
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  static final int THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() / 4));
+
+  private static final ScheduledExecutorService PUMPS = new ScheduledThreadPoolExecutor(THREADS, runnable -> {
+    final Thread thread = new Thread(runnable, "cmake-output-pump-" + THREAD_COUNT.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private OutputPump() {
+  }
+
+  /**
+   * Starts copying the stream to the logger at the given level and passing the lines the listener
+   * wants, if any, to it. Once exited returns true, the remaining output is read and the stream is
+   * closed, even if processes started by the exited one still hold it open. The stream is only
+   * drained when that level is disabled and there is no listener, without looking for lines.
+   */
+  static Future<Void> start(final InputStream inputStream, final BooleanSupplier exited,
+    final Logger logger, final LogLevel level, final LineListener listener) {
+    final Pump pump = new Pump(inputStream, exited, logger.isEnabled(level) ? logger : null, level,
+      listener);
+    PUMPS.execute(pump);
+    return pump.done;
+  }
+
+  private static final class Pump implements Runnable {
+
+    private final InputStream in;
+    private final BooleanSupplier exited;
+    private final Logger logger; // null if the level is disabled
+    private final LogLevel level;
+    private final LineListener listener;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private byte[] partialLine = new byte[256];
+    private int partialLength;
+    private final StringBuilder batch = new StringBuilder();
+
+    Pump(final InputStream in, final BooleanSupplier exited, final Logger logger, final LogLevel level,
+      final LineListener listener) {
+      this.in = in;
+      this.exited = exited;
+      this.logger = logger;
+      this.level = level;
+      this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+      try {
+        // checked before reading, so everything written before the exit is read this turn
+        final boolean last = exited.getAsBoolean();
+        boolean closed = false;
+        int reads = 0;
+        int available;
+        while ((available = in.available()) > 0 && reads < MAX_READS) {
+          final int read = in.read(buffer, 0, Math.min(available, buffer.length));
+          if (read < 0) {
+            closed = true;
+            break;
+          }
+          reads++;
+          consume(read);
+          flush();
+        }
+        if (closed || (last && available <= 0)) {
+          finish();
+          done.complete(null);
+        } else if (reads > 0) {
+          PUMPS.execute(this);
+        } else {
+          PUMPS.schedule(this, POLL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+      } catch (IOException | RuntimeException e) {
+        close();
+        done.completeExceptionally(e);
+      }
+    }
+
+    private void consume(final int read) {
+      if (logger == null && listener == null) {
+        return;
+      }
+      int lineStart = 0;
+      for (int i = 0; i < read; i++) {
+        if (buffer[i] == '\n') {
+          if (partialLength == 0) {
+            line(buffer, lineStart, i - lineStart);
+          } else {
+            append(lineStart, i - lineStart);
+            line(partialLine, 0, partialLength);
+            partialLength = 0;
+          }
+          lineStart = i + 1;
+        }
+      }
+      append(lineStart, read - lineStart);
+    }
+
+    private void append(final int offset, final int length) {
+      if (partialLength + length > partialLine.length) {
+        partialLine = Arrays.copyOf(partialLine, Math.max(partialLine.length * 2, partialLength + length));
+      }
+      System.arraycopy(buffer, offset, partialLine, partialLength, length);
+      partialLength += length;
+    }
+
+    private void line(final byte[] bytes, final int offset, final int length) {
+      final int end = length > 0 && bytes[offset + length - 1] == '\r' ? length - 1 : length;
+      final boolean wanted = listener != null && listener.wants(bytes, offset, end);
+      if (logger == null && !wanted) {
+        return;
+      }
+      final String decoded = new String(bytes, offset, end, StandardCharsets.UTF_8);
+      if (wanted) {
+        listener.accept(decoded);
+      }
+      if (logger != null) {
+        batch.append(decoded).append('\n');
+      }
+    }
+
+    private void flush() {
+      if (batch.length() > 0) {
+        // one log event for all lines, without the last line break
+        logger.log(level, batch.substring(0, batch.length() - 1));
+        batch.setLength(0);
+      }
+    }
+
+    private void finish() {
+      if (partialLength > 0) {
+        line(partialLine, 0, partialLength);
+        partialLength = 0;
+        flush();
+      }
+      close();
+    }
+
+    private void close() {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // the output was read
+      }
+    }
+  }
+
+}
@@ -0,0 +1,301 @@
+package dev.welbyseely;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the wall time of a process and, on Linux, the CPU time and peak resident memory of the
+ * process and all of its descendants by sampling /proc. The peak memory of single compile and link
+ * jobs, a compiler or linker process together with its descendants (cc1plus, as, lto-wrapper, ...),
+ * is measured too; make and ninja, recursive sub-makes, cmake and custom commands are no jobs.
+ *
+ * <p>One sampler serves all monitored processes. It finds the descendants of each through the
+ * children files of its threads, so a sample reads only the processes of the monitored builds, and
+ * scans all of /proc once per sample only on kernels without them.
+ */
+final class ProcessMonitor {
+
+  private static final long SAMPLE_MILLIS = 250;
+  private static final long CLOCK_TICKS_PER_SECOND = 100; // USER_HZ, 100 on all common kernels
+  private static final File PROC = new File("/proc");
+  // the name of the executable, with a cross compiling prefix and a version suffix, as in
+  // aarch64-linux-gnu-g++-12 or clang++-17
+  private static final Pattern COMPILER = Pattern.compile(
+    "(?:.+-)?(?:gcc|g\\+\\+|cc|c\\+\\+|clang|clang\\+\\+|icc|icpc|icx|icpx|nvcc|cl)(?:-[0-9.]+)?(?:\\.exe)?");
+  private static final Pattern LINKER = Pattern.compile(
+    "(?:.+-)?(?:ld|ld\\.bfd|ld\\.gold|ld\\.lld|ld64\\.lld|lld|lld-link|mold|link)(?:-[0-9.]+)?(?:\\.exe)?");
+  private static final boolean CHILDREN_FILES = hasChildrenFiles();
+
+  private static final Set<ProcessMonitor> ACTIVE = ConcurrentHashMap.newKeySet();
+  private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(
+    runnable -> {
+      final Thread thread = new Thread(runnable, "cmake-process-monitor");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+  static {
+    if (PROC.isDirectory()) {
+      SAMPLER.scheduleAtFixedRate(ProcessMonitor::sampleAll, 0, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  static final class Usage {
+
+    final long wallMillis;
+    final long cpuMillis; // -1 if unknown
+    final long peakRssBytes; // -1 if unknown
+    final long peakCompileJobBytes; // -1 if unknown or no compile job ran
+    final long peakLinkJobBytes; // -1 if unknown or no link job ran
+
+    Usage(final long wallMillis, final long cpuMillis, final long peakRssBytes,
+      final long peakCompileJobBytes, final long peakLinkJobBytes) {
+      this.wallMillis = wallMillis;
+      this.cpuMillis = cpuMillis;
+      this.peakRssBytes = peakRssBytes;
+      this.peakCompileJobBytes = peakCompileJobBytes;
+      this.peakLinkJobBytes = peakLinkJobBytes;
+    }
+  }
+
+  private final long startNanos = System.nanoTime();
+  private final long pid;
+  // the kind of the jobs seen in the last sample by pid and start time. Other processes are not
+  // remembered, a process forked by ninja or make is no job until it executes the compiler
+  private Map<String, String> kinds = new HashMap<>();
+  private long cpuTicks = -1;
+  private long peakRss = -1;
+  private long peakCompileJob = -1;
+  private long peakLinkJob = -1;
+
+  private ProcessMonitor(final Process process) {
+    pid = pidOf(process);
+    if (pid > 0 && PROC.isDirectory()) {
+      ACTIVE.add(this);
+      // the first sample right away, so short commands are measured as well
+      SAMPLER.execute(() -> sample(new Snapshot()));
+    }
+  }
+
+  static ProcessMonitor start(final Process process) {
+    return new ProcessMonitor(process);
+  }
+
+  /**
+   * Stops sampling and returns the usage so far. CPU time spent after the last sample is not
+   * included.
+   */
+  synchronized Usage stop() {
+    ACTIVE.remove(this);
+    final long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    return new Usage(wallMillis, cpuTicks < 0 ? -1 : cpuTicks * 1000 / CLOCK_TICKS_PER_SECOND,
+      peakRss, peakCompileJob, peakLinkJob);
+  }
+
+  // Process.pid() exists since Java 9
+  private static long pidOf(final Process process) {
+    try {
+      return (Long) Process.class.getMethod("pid").invoke(process);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return -1;
+    }
+  }
+
+  private static void sampleAll() {
+    if (ACTIVE.isEmpty()) {
+      return;
+    }
+    final Snapshot snapshot = new Snapshot();
+    for (ProcessMonitor monitor : ACTIVE) {
+      monitor.sample(snapshot);
+    }
+  }
+
+  /**
+   * The processes read during one sample, shared by all monitors.
+   */
+  private static final class Snapshot {
+
+    private final Map<Long, String[]> stats = new HashMap<>();
+    private Map<Long, List<Long>> allChildren; // only without children files
+
+    // null if the process exited
+    String[] stat(final long id) {
+      return stats.computeIfAbsent(id, p -> readStat(new File(PROC, Long.toString(p))));
+    }
+
+    List<Long> children(final long id) {
+      if (CHILDREN_FILES) {
+        return readChildren(id);
+      }
+      if (allChildren == null) {
+        allChildren = new HashMap<>();
+        final File[] entries = PROC.listFiles();
+        for (File entry : entries == null ? new File[0] : entries) {
+          final long process = parseLong(entry.getName());
+          final String[] stat = process > 0 ? stat(process) : null;
+          if (stat != null) {
+            allChildren.computeIfAbsent(parseLong(stat[1]), p -> new ArrayList<>()).add(process);
+          }
+        }
+      }
+      return allChildren.getOrDefault(id, Collections.emptyList());
+    }
+  }
+
+  private synchronized void sample(final Snapshot snapshot) {
+    if (!ACTIVE.contains(this) || snapshot.stat(pid) == null) {
+      return;
+    }
+
+    // utime + stime + cutime + cstime, reaped children are included in their parent's counters
+    long ticks = 0;
+    long rss = 0;
+    final Map<String, String> seen = new HashMap<>();
+    final Map<Long, Long> jobs = new HashMap<>(); // job root -> kind index, 0 compile, 1 link
+    final long[] jobRss = new long[2];
+    final List<long[]> pending = new ArrayList<>(); // {pid, job root or 0, kind index}
+    pending.add(new long[]{pid, 0, -1});
+    while (!pending.isEmpty()) {
+      final long[] process = pending.remove(pending.size() - 1);
+      final String[] stat = snapshot.stat(process[0]);
+      if (stat == null) {
+        continue;
+      }
+      ticks += parseLong(stat[11]) + parseLong(stat[12]) + parseLong(stat[13]) + parseLong(stat[14]);
+      final long processRss = readRss(new File(PROC, Long.toString(process[0])));
+      rss += processRss;
+
+      long jobRoot = process[1];
+      long kind = process[2];
+      if (jobRoot == 0) {
+        // the outermost compiler or linker, its helpers belong to its job
+        final String key = process[0] + ":" + stat[19];
+        final String jobKind = kinds.containsKey(key) ? kinds.get(key) : jobKind(readCmdline(process[0]));
+        if (!jobKind.isEmpty()) {
+          seen.put(key, jobKind);
+          jobRoot = process[0];
+          kind = jobKind.equals("compile") ? 0 : 1;
+        }
+      }
+      if (jobRoot != 0) {
+        jobs.merge(jobRoot, processRss, Long::sum);
+        jobRss[(int) kind] = Math.max(jobRss[(int) kind], jobs.get(jobRoot));
+      }
+      for (long child : snapshot.children(process[0])) {
+        pending.add(new long[]{child, jobRoot, kind});
+      }
+    }
+    kinds = seen;
+    cpuTicks = Math.max(cpuTicks, ticks);
+    peakRss = Math.max(peakRss, rss);
+    if (jobRss[0] > 0) {
+      peakCompileJob = Math.max(peakCompileJob, jobRss[0]);
+    }
+    if (jobRss[1] > 0) {
+      peakLinkJob = Math.max(peakLinkJob, jobRss[1]);
+    }
+  }
+
+  /**
+   * "compile" for a compiler invocation with -c (/c for MSVC), "link" for a linker or a compiler
+   * linking, "" for any other command.
+   */
+  static String jobKind(final List<String> arguments) {
+    if (arguments.isEmpty()) {
+      return "";
+    }
+    final String name = new File(arguments.get(0).replace('\\', '/')).getName();
+    if (COMPILER.matcher(name).matches()) {
+      return arguments.contains("-c") || arguments.contains("/c") ? "compile" : "link";
+    }
+    return LINKER.matcher(name).matches() ? "link" : "";
+  }
+
+  private static List<String> readCmdline(final long id) {
+    try {
+      final String cmdline = new String(Files.readAllBytes(new File(PROC, id + "/cmdline").toPath()),
+        StandardCharsets.UTF_8);
+      return Arrays.asList(cmdline.split("\0"));
+    } catch (IOException e) {
+      return Collections.emptyList();
+    }
+  }
+
+  // the fields after the command name, which may contain spaces and parentheses
+  private static String[] readStat(final File processFolder) {
+    try {
+      final String stat = new String(Files.readAllBytes(new File(processFolder, "stat").toPath()),
+        StandardCharsets.UTF_8);
+      final int end = stat.lastIndexOf(')');
+      return end < 0 ? null : stat.substring(end + 2).trim().split(" ");
+    } catch (IOException e) {
+      // the process exited
+      return null;
+    }
+  }
+
+  // the direct children of all threads of the process
+  private static List<Long> readChildren(final long id) {
+    final File[] threads = new File(PROC, id + "/task").listFiles();
+    if (threads == null) {
+      return Collections.emptyList();
+    }
+    final List<Long> children = new ArrayList<>();
+    for (File thread : threads) {
+      try {
+        final String ids = new String(Files.readAllBytes(new File(thread, "children").toPath()),
+          StandardCharsets.US_ASCII).trim();
+        for (String child : ids.isEmpty() ? new String[0] : ids.split(" ")) {
+          children.add(parseLong(child));
+        }
+      } catch (IOException e) {
+        // the thread exited
+      }
+    }
+    return children;
+  }
+
+  // needs CONFIG_PROC_CHILDREN, which most distribution kernels enable
+  private static boolean hasChildrenFiles() {
+    final File[] threads = new File(PROC, "self/task").listFiles();
+    return threads != null && threads.length > 0 && new File(threads[0], "children").isFile();
+  }
+
+  private static long readRss(final File processFolder) {
+    try {
+      for (String line : Files.readAllLines(new File(processFolder, "status").toPath(),
+        StandardCharsets.UTF_8)) {
+        if (line.startsWith("VmRSS:")) {
+          return parseLong(line.substring(6).trim().split("\\s+")[0]) * 1024;
+        }
+      }
+    } catch (IOException e) {
+      // the process exited
+    }
+    return 0;
+  }
+
+  private static long parseLong(final String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+}
@@ -0,0 +1,156 @@
+package dev.welbyseely;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stops a process together with all of its descendants, for example the compilers started by the
+ * build tool of cmake --build. The descendants are found through ProcessHandle on Java 9+, on
+ * Java 8 only the process itself can be stopped.
+ */
+final class ProcessTree {
+
+  static final long GRACE_MILLIS = 5000;
+
+  // processes still running when the JVM exits, for example when the daemon is stopped after a
+  // cancelled build
+  private static final Set<Process> RUNNING = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      for (Process process : new ArrayList<>(RUNNING)) {
+        destroy(process, 0);
+      }
+    }, "cmake-process-teardown"));
+  }
+
+  private static final Method DESCENDANTS;
+  private static final Method HANDLE_DESCENDANTS;
+  private static final Method DESTROY;
+  private static final Method DESTROY_FORCIBLY;
+  private static final Method IS_ALIVE;
+
+  static {
+    Method descendants = null;
+    Method handleDescendants = null;
+    Method destroy = null;
+    Method destroyForcibly = null;
+    Method isAlive = null;
+    try {
+      final Class<?> handle = Class.forName("java.lang.ProcessHandle");
+      descendants = Process.class.getMethod("descendants");
+      handleDescendants = handle.getMethod("descendants");
+      destroy = handle.getMethod("destroy");
+      destroyForcibly = handle.getMethod("destroyForcibly");
+      isAlive = handle.getMethod("isAlive");
+    } catch (ReflectiveOperationException e) {
+      // Java 8
+    }
+    DESCENDANTS = descendants;
+    HANDLE_DESCENDANTS = handleDescendants;
+    DESTROY = destroy;
+    DESTROY_FORCIBLY = destroyForcibly;
+    IS_ALIVE = isAlive;
+  }
+
+  private ProcessTree() {
+  }
+
+  static void track(final Process process) {
+    RUNNING.add(process);
+  }
+
+  static void untrack(final Process process) {
+    RUNNING.remove(process);
+  }
+
+  /**
+   * Asks the process and its descendants to terminate and kills the ones still running after the
+   * grace period, including the ones started during it. An interrupt of the calling thread is kept
+   * but does not shorten the grace period.
+   */
+  static void destroy(final Process process, final long graceMillis) {
+    final boolean interrupted = Thread.interrupted();
+    try {
+      // collected first, the descendants are reparented once the process exits
+      final List<Object> descendants = descendants(process);
+      process.destroy();
+      for (Object descendant : descendants) {
+        invoke(DESTROY, descendant);
+      }
+
+      final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(graceMillis);
+      while (System.nanoTime() < deadline && (process.isAlive() || anyAlive(descendants))) {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          break;
+        }
+      }
+
+      // processes started while the others were terminating, for example by a build tool
+      // starting the next job, are only killed if they are known
+      final Set<Object> remaining = new LinkedHashSet<>(descendants);
+      remaining.addAll(descendants(process));
+      for (Object descendant : descendants) {
+        if (Boolean.TRUE.equals(invoke(IS_ALIVE, descendant))) {
+          remaining.addAll(descendants(descendant, HANDLE_DESCENDANTS));
+        }
+      }
+
+      process.destroyForcibly();
+      for (Object descendant : remaining) {
+        if (Boolean.TRUE.equals(invoke(IS_ALIVE, descendant))) {
+          invoke(DESTROY_FORCIBLY, descendant);
+        }
+      }
+    } finally {
+      untrack(process);
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static List<Object> descendants(final Process process) {
+    return descendants(process, DESCENDANTS);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Object> descendants(final Object processOrHandle, final Method descendants) {
+    if (descendants == null) {
+      return Collections.emptyList();
+    }
+    try (Stream<Object> stream = (Stream<Object>) descendants.invoke(processOrHandle)) {
+      return stream.collect(Collectors.toList());
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return Collections.emptyList();
+    }
+  }
+
+  private static boolean anyAlive(final List<Object> handles) {
+    for (Object handle : handles) {
+      if (Boolean.TRUE.equals(invoke(IS_ALIVE, handle))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Object invoke(final Method method, final Object handle) {
+    try {
+      return method.invoke(handle);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+}
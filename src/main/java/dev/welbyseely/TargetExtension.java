@@ -15,9 +15,13 @@
 package dev.welbyseely;
 
 import java.io.File;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import org.gradle.api.Project;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 
@@ -31,17 +35,41 @@ public class TargetExtension {
   private final DirectoryProperty sourceFolder;
   private final Property<String> configurationTypes;
   private final Property<String> installPrefix;
-  private final Property<String> generator; // for example: "Visual Studio 16 2019"
+  private final Property<String> generator; // for example: "Visual Studio 16 2019", or "auto" to prefer Ninja
   private final Property<String> platform; // for example "x64" or "Win32" or "ARM" or "ARM64", supported on vs > 8.0
   private final Property<String> toolset; // for example "v142", supported on vs > 10.0
   private final Property<Boolean> buildSharedLibs;
   private final Property<Boolean> buildStaticLibs;
   private final MapProperty<String, String> defs;
+  private final Property<String> compilerCache; // "auto", "ccache", "sccache" or a launcher path
+  private final Property<Boolean> forceConfigure; // run cmake even if the configuration is unchanged
+  private final Property<String> configurePreset; // configure with cmake --preset
+  private final Property<Duration> configureTimeout; // stop cmake and its child processes after this time
+  private final Property<Boolean> jobPools; // size ninja compile and link job pools by the available memory
+  private final Property<Integer> compileJobMemory; // MiB per compile job, until one is observed
+  private final Property<Integer> linkJobMemory; // MiB per link job, until one is observed
+  private final Property<Integer> concurrentBuilds; // builds sharing the memory of the job pools
 
   // parameters used on build step
   private final Property<String> buildConfig;
   private final Property<String> buildTarget;
   private final Property<Boolean> buildClean;
+  private final Property<Integer> buildJobs; // parallel jobs, defaults to a share of --max-workers
+  private final Property<Duration> buildTimeout; // stop cmake --build and its child processes after this time
+  private final MapProperty<String, File> artifacts; // files produced by the build, by name
+  private final MapProperty<String, File> artifactFolders; // folders produced by the build, by name
+  private final Property<Boolean> cacheable; // store the build outputs in the gradle build cache
+
+  // parameters used on install step
+  private final Property<String> installComponent; // only install this component
+
+  // attributes of the published build outputs
+  private final Property<String> operatingSystem; // for example "linux", "windows" or "macos"
+  private final Property<String> architecture; // for example "x86-64" or "aarch64"
+  private final Property<String> buildPreset; // build with cmake --build --preset
+
+  // names of other targets that have to be built before this target is configured
+  private final ListProperty<String> dependsOn;
   private final String name;
 
   public TargetExtension(final Project project, final String name) {
@@ -56,9 +84,27 @@ public class TargetExtension {
     buildSharedLibs = project.getObjects().property(Boolean.class);
     buildStaticLibs = project.getObjects().property(Boolean.class);
     defs = project.getObjects().mapProperty(String.class, String.class);
+    compilerCache = project.getObjects().property(String.class);
+    forceConfigure = project.getObjects().property(Boolean.class);
+    configurePreset = project.getObjects().property(String.class);
+    configureTimeout = project.getObjects().property(Duration.class);
+    jobPools = project.getObjects().property(Boolean.class);
+    compileJobMemory = project.getObjects().property(Integer.class);
+    linkJobMemory = project.getObjects().property(Integer.class);
+    concurrentBuilds = project.getObjects().property(Integer.class);
     buildConfig = project.getObjects().property(String.class);
     buildTarget = project.getObjects().property(String.class);
     buildClean = project.getObjects().property(Boolean.class);
+    buildJobs = project.getObjects().property(Integer.class);
+    buildTimeout = project.getObjects().property(Duration.class);
+    artifacts = project.getObjects().mapProperty(String.class, File.class);
+    artifactFolders = project.getObjects().mapProperty(String.class, File.class);
+    cacheable = project.getObjects().property(Boolean.class);
+    installComponent = project.getObjects().property(String.class);
+    operatingSystem = project.getObjects().property(String.class);
+    architecture = project.getObjects().property(String.class);
+    buildPreset = project.getObjects().property(String.class);
+    dependsOn = project.getObjects().listProperty(String.class);
     this.name = name;
   }
 
@@ -106,6 +152,38 @@ public class TargetExtension {
     return defs;
   }
 
+  public Property<String> getCompilerCache() {
+    return compilerCache;
+  }
+
+  public Property<Boolean> getForceConfigure() {
+    return forceConfigure;
+  }
+
+  public Property<String> getConfigurePreset() {
+    return configurePreset;
+  }
+
+  public Property<Duration> getConfigureTimeout() {
+    return configureTimeout;
+  }
+
+  public Property<Boolean> getJobPools() {
+    return jobPools;
+  }
+
+  public Property<Integer> getCompileJobMemory() {
+    return compileJobMemory;
+  }
+
+  public Property<Integer> getLinkJobMemory() {
+    return linkJobMemory;
+  }
+
+  public Property<Integer> getConcurrentBuilds() {
+    return concurrentBuilds;
+  }
+
   public Property<String> getBuildConfig() {
     return buildConfig;
   }
@@ -118,6 +196,46 @@ public class TargetExtension {
     return buildClean;
   }
 
+  public Property<Integer> getBuildJobs() {
+    return buildJobs;
+  }
+
+  public Property<Duration> getBuildTimeout() {
+    return buildTimeout;
+  }
+
+  public MapProperty<String, File> getArtifacts() {
+    return artifacts;
+  }
+
+  public MapProperty<String, File> getArtifactFolders() {
+    return artifactFolders;
+  }
+
+  public Property<Boolean> getCacheable() {
+    return cacheable;
+  }
+
+  public Property<String> getInstallComponent() {
+    return installComponent;
+  }
+
+  public Property<String> getOperatingSystem() {
+    return operatingSystem;
+  }
+
+  public Property<String> getArchitecture() {
+    return architecture;
+  }
+
+  public Property<String> getBuildPreset() {
+    return buildPreset;
+  }
+
+  public ListProperty<String> getDependsOn() {
+    return dependsOn;
+  }
+
   public String getName() {
     return name;
   }
@@ -174,6 +292,38 @@ public class TargetExtension {
     this.defs.set(defs);
   }
 
+  public void setCompilerCache(String compilerCache) {
+    this.compilerCache.set(compilerCache);
+  }
+
+  public void setForceConfigure(Boolean forceConfigure) {
+    this.forceConfigure.set(forceConfigure);
+  }
+
+  public void setConfigurePreset(String configurePreset) {
+    this.configurePreset.set(configurePreset);
+  }
+
+  public void setConfigureTimeout(Duration configureTimeout) {
+    this.configureTimeout.set(configureTimeout);
+  }
+
+  public void setJobPools(Boolean jobPools) {
+    this.jobPools.set(jobPools);
+  }
+
+  public void setCompileJobMemory(Integer compileJobMemory) {
+    this.compileJobMemory.set(compileJobMemory);
+  }
+
+  public void setLinkJobMemory(Integer linkJobMemory) {
+    this.linkJobMemory.set(linkJobMemory);
+  }
+
+  public void setConcurrentBuilds(Integer concurrentBuilds) {
+    this.concurrentBuilds.set(concurrentBuilds);
+  }
+
   public void setBuildConfig(String buildConfig) {
     this.buildConfig.set(buildConfig);
   }
@@ -186,4 +336,48 @@ public class TargetExtension {
     this.buildClean.set(buildClean);
   }
 
+  public void setBuildJobs(Integer buildJobs) {
+    this.buildJobs.set(buildJobs);
+  }
+
+  public void setBuildTimeout(Duration buildTimeout) {
+    this.buildTimeout.set(buildTimeout);
+  }
+
+  public void setArtifacts(Map<String, File> artifacts) {
+    this.artifacts.set(artifacts);
+  }
+
+  public void setArtifactFolders(Map<String, File> artifactFolders) {
+    this.artifactFolders.set(artifactFolders);
+  }
+
+  public void setCacheable(Boolean cacheable) {
+    this.cacheable.set(cacheable);
+  }
+
+  public void setInstallComponent(String installComponent) {
+    this.installComponent.set(installComponent);
+  }
+
+  public void setOperatingSystem(String operatingSystem) {
+    this.operatingSystem.set(operatingSystem);
+  }
+
+  public void setArchitecture(String architecture) {
+    this.architecture.set(architecture);
+  }
+
+  public void setBuildPreset(String buildPreset) {
+    this.buildPreset.set(buildPreset);
+  }
+
+  public void setDependsOn(List<String> dependsOn) {
+    this.dependsOn.set(dependsOn);
+  }
+
+  public void dependsOn(String... targets) {
+    this.dependsOn.addAll(Arrays.asList(targets));
+  }
+
 }
\ No newline at end of file
@@ -2,31 +2,157 @@ package dev.welbyseely;
 
 import groovy.lang.Closure;
 import groovy.lang.MissingMethodException;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import javax.inject.Inject;
+import org.gradle.api.Action;
 import org.gradle.api.NamedDomainObjectContainer;
+import org.gradle.api.NamedDomainObjectProvider;
 import org.gradle.api.Project;
 
 public class TargetListExtension {
 
   @Inject
   public TargetListExtension(Project project) {
+    this.project = project;
     targetContainer = project.container(TargetExtension.class, name -> new TargetExtension(project, name));
+    // targets created directly in the container are announced when they are added. Unlike
+    // whenObjectAdded, configureEach does not create the targets registered through the DSL
+    targetContainer.configureEach(target -> announce(target.getName()));
   }
 
+  private final Project project;
   private final NamedDomainObjectContainer<TargetExtension> targetContainer;
+  private final Set<String> names = new LinkedHashSet<>();
+  private final List<Action<String>> listeners = new ArrayList<>();
 
   public NamedDomainObjectContainer<TargetExtension> getTargetContainer() {
     return targetContainer;
   }
 
+  /**
+   * Registers a target without creating it, or adds the action to the target declared before. It
+   * is created and configured when its tasks are.
+   */
+  public NamedDomainObjectProvider<TargetExtension> register(String name, Action<? super TargetExtension> action) {
+    if (names.contains(name)) {
+      // for example a target imported from presets
+      final NamedDomainObjectProvider<TargetExtension> target = targetContainer.named(name);
+      target.configure(action);
+      return target;
+    }
+    final NamedDomainObjectProvider<TargetExtension> target = targetContainer.register(name, action);
+    announce(name);
+    return target;
+  }
+
+  /**
+   * Calls the action with the name of every target declared so far and every target declared later,
+   * without creating the targets.
+   */
+  public void whenTargetDeclared(Action<String> action) {
+    listeners.add(action);
+    for (String name : new ArrayList<>(names)) {
+      action.execute(name);
+    }
+  }
+
+  /**
+   * Whether any target has been declared.
+   */
+  public boolean hasTargets() {
+    return !names.isEmpty();
+  }
+
+  /**
+   * The names of the targets declared so far, in declaration order.
+   */
+  public List<String> getTargetNames() {
+    return new ArrayList<>(names);
+  }
+
+  /**
+   * Declares a target for each configure preset of the CMakePresets.json (and
+   * CMakeUserPresets.json) in the main sourceFolder, see {@link #fromPresets(Object)} for the
+   * preset settings that are applied.
+   */
+  public void fromPresets() {
+    fromPresets(project.getExtensions().getByType(CMakePluginExtension.class).getSourceFolder());
+  }
+
+  /**
+   * Declares a target for each configure preset of the CMakePresets.json (and
+   * CMakeUserPresets.json) in the given source folder. The target is named after the preset, for
+   * example "LinuxX64" for "linux-x64", configures with cmake --preset and builds with the first
+   * build preset of the configure preset, if any. Settings of a target with the same name declared
+   * in the targets block override the preset's.
+   * <p>
+   * The build runs cmake --build on the working folder with the settings of the build preset
+   * rather than with cmake --build --preset. Its targets, configuration, jobs, cleanFirst, verbose,
+   * nativeToolOptions and environment, with the configure preset's environment unless
+   * inheritConfigureEnvironment is false, are applied. Included preset files are followed.
+   * Conditions and resolvePackageReferences are not evaluated, and the $vendor{} and
+   * ${hostSystemName} macros are not expanded.
+   */
+  public void fromPresets(Object sourceFolder) {
+    final File source = project.file(sourceFolder);
+    final CMakePresets presets = CMakePresets.read(source);
+    for (CMakePresets.ConfigurePreset preset : presets.getConfigurePresets()) {
+      final String buildPreset = presets.buildPresetOf(preset.name);
+      // conventions, so explicit settings of the target win in any order
+      final Action<TargetExtension> action = target -> {
+        target.getSourceFolder().convention(project.getLayout().dir(project.provider(() -> source)));
+        target.getConfigurePreset().convention(preset.name);
+        if (preset.binaryDir != null) {
+          target.getWorkingFolder().convention(project.getLayout().dir(project.provider(() -> preset.binaryDir)));
+        }
+        if (buildPreset != null) {
+          target.getBuildPreset().convention(buildPreset);
+        }
+      };
+      register(targetName(preset.name), action);
+    }
+  }
+
+  private static String targetName(String presetName) {
+    final StringBuilder sb = new StringBuilder();
+    boolean upper = true;
+    for (char c : presetName.toCharArray()) {
+      if (Character.isLetterOrDigit(c)) {
+        sb.append(upper ? Character.toUpperCase(c) : c);
+        upper = false;
+      } else {
+        upper = true;
+      }
+    }
+    return sb.toString();
+  }
+
+  private void announce(String name) {
+    if (names.add(name)) {
+      for (Action<String> listener : listeners) {
+        listener.execute(name);
+      }
+    }
+  }
+
   public Object methodMissing(String name, Object args) {
     if (args instanceof Object[] && ((Object[]) args)[0] instanceof Closure) {
       Closure<?> closure = (Closure<?>) ((Object[]) args)[0];
-      return targetContainer.create(name, closure);
+      // the closure runs when the target is created, targetContainer.create(name) creates it right away
+      return register(name, target -> {
+        Closure<?> configure = (Closure<?>) closure.clone();
+        configure.setResolveStrategy(Closure.DELEGATE_FIRST);
+        configure.setDelegate(target);
+        configure.call(target);
+      });
     } else {
       final Object[] normalizedArgs;
       normalizedArgs = args instanceof Object[] ? (Object[]) args : new Object[]{args};
       throw new MissingMethodException(name, this.getClass(), normalizedArgs);
     }
   }
-}
\ No newline at end of file
+}
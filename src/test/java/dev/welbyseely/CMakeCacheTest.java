@@ -0,0 +1,64 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CMakeCacheTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  private File cache(final String... lines) throws Exception {
+    final File build = temp.newFolder("build");
+    Files.write(new File(build, CMakeCache.FILE_NAME).toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    return build;
+  }
+
+  @Test
+  public void readsEntries() throws Exception {
+    final Map<String, String> entries = CMakeCache.read(cache(
+      "# This is the CMakeCache file.",
+      "//Build type",
+      "CMAKE_BUILD_TYPE:STRING=Release",
+      "\"WITH:COLON\":BOOL=ON",
+      "CMAKE_CACHE_MAJOR_VERSION:INTERNAL=3",
+      "",
+      "EMPTY:STRING="));
+
+    assertEquals("Release", entries.get("CMAKE_BUILD_TYPE"));
+    assertEquals("ON", entries.get("WITH:COLON"));
+    assertEquals("3", entries.get("CMAKE_CACHE_MAJOR_VERSION"));
+    assertEquals("", entries.get("EMPTY"));
+    assertEquals(4, entries.size());
+  }
+
+  @Test
+  public void noEntriesBeforeConfiguring() throws Exception {
+    assertTrue(CMakeCache.read(temp.newFolder("build")).isEmpty());
+  }
+
+  @Test
+  public void comparesTheVersionOfCMake() throws Exception {
+    final Map<String, String> entries = CMakeCache.read(cache(
+      "CMAKE_CACHE_MAJOR_VERSION:INTERNAL=3",
+      "CMAKE_CACHE_MINOR_VERSION:INTERNAL=20"));
+
+    assertTrue(CMakeCache.isAtLeast(entries, 3, 20));
+    assertTrue(CMakeCache.isAtLeast(entries, 2, 30));
+    assertFalse(CMakeCache.isAtLeast(entries, 3, 21));
+    assertFalse(CMakeCache.isAtLeast(entries, 4, 0));
+    assertTrue(CMakeCache.isAtLeast(Collections.emptyMap(), 3, 21));
+  }
+
+}
@@ -0,0 +1,67 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CMakeFileApiTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void readsTargetsInputsAndToolchains() throws Exception {
+    final File source = temp.newFolder("src");
+    final File build = temp.newFolder("build");
+    FileApiReplies.write(build, source, "2024-01-01T00-00-00-0000");
+
+    final CMakeCodeModel model = CMakeFileApi.readReply(build);
+    final List<CMakeCodeModel.Target> targets = model.getTargets("debug");
+    assertEquals(2, targets.size());
+    final CMakeCodeModel.Target lib = targets.get(0);
+    final CMakeCodeModel.Target app = targets.get(1);
+    assertEquals("lib", lib.getName());
+    assertEquals("STATIC_LIBRARY", lib.getType());
+    assertEquals(Collections.singletonList(new File(source, "lib/lib.cpp")), lib.getSources());
+    assertEquals(Collections.singletonList(new File(build, "lib/liblib.a")), lib.getArtifacts());
+    assertEquals(Collections.singletonList("lib"), app.getDependencies());
+    assertEquals(Arrays.asList(new File(source, "CMakeLists.txt"), new File(source, "lib/CMakeLists.txt"),
+      new File(source, "cmake/options.cmake")), model.getCMakeInputs());
+    assertEquals("GNU 12.2.0", model.getToolchains().get("CXX"));
+    assertEquals(2, model.getArtifacts(null, null).size());
+    assertEquals(Collections.singleton("app/app"), model.getArtifacts(null, "app").keySet());
+  }
+
+  @Test
+  public void noReplyBeforeConfiguring() throws Exception {
+    assertNull(CMakeFileApi.readReply(temp.newFolder("build")));
+  }
+
+  @Test
+  public void replyIsParsedOncePerIndexFile() throws Exception {
+    final File source = temp.newFolder("src");
+    final File build = temp.newFolder("build");
+    final File index = FileApiReplies.write(build, source, "2024-01-01T00-00-00-0000");
+
+    final CMakeCodeModel first = CMakeFileApi.readReply(build);
+    assertSame(first, CMakeFileApi.readReply(build));
+
+    // cmake rewrites the reply with a new index file
+    FileApiReplies.write(build, source, "2024-01-02T00-00-00-0000");
+    assertTrue(index.delete());
+    final CMakeCodeModel second = CMakeFileApi.readReply(build);
+    assertNotSame(first, second);
+    assertSame(second, CMakeFileApi.readReply(build));
+  }
+
+}
@@ -0,0 +1,212 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs the plugin in real builds, with a shell script standing in for cmake: it configures by
+ * writing a CMakeCache.txt and builds by writing built.txt into the build folder.
+ */
+public class CMakePluginFunctionalTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  private File projectFolder;
+  private File cmake;
+
+  @Before
+  public void setUp() throws IOException {
+    assumeFalse(System.getProperty("os.name").toLowerCase(Locale.ROOT).contains("windows"));
+    projectFolder = temp.newFolder("project");
+    cmake = new File(temp.getRoot(), "cmake");
+    write(cmake,
+      "#!/bin/sh",
+      "echo \"$@\" >> \"" + new File(temp.getRoot(), "cmake.log").getAbsolutePath() + "\"",
+      "case \"$1\" in",
+      "  --build) echo built > built.txt; exit 0 ;;",
+      "  --install|--version|--help) exit 0 ;;",
+      "esac",
+      "for source; do :; done",
+      "echo \"CMAKE_HOME_DIRECTORY:INTERNAL=$source\" > CMakeCache.txt",
+      "echo \"CMAKE_GENERATOR:INTERNAL=Unix Makefiles\" >> CMakeCache.txt");
+    assertTrue(cmake.setExecutable(true));
+    write(new File(projectFolder, "settings.gradle"), "rootProject.name = 'native'");
+    write(new File(projectFolder, "src/main/cpp/CMakeLists.txt"), "project(native)");
+  }
+
+  private static void write(final File file, final String... lines) throws IOException {
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+  }
+
+  private void buildScript(final String... lines) throws IOException {
+    final List<String> script = new ArrayList<>(Arrays.asList(
+      "plugins {",
+      "  id 'dev.welbyseely.gradle-cmake-plugin'",
+      "}",
+      "cmake {",
+      "  executable = '" + cmake.getAbsolutePath() + "'",
+      "  sourceFolder = file('src/main/cpp')",
+      "}"));
+    script.addAll(Arrays.asList(lines));
+    write(new File(projectFolder, "build.gradle"), script.toArray(new String[0]));
+  }
+
+  private GradleRunner runner(final String... arguments) {
+    return GradleRunner.create()
+      .withProjectDir(projectFolder)
+      .withPluginClasspath()
+      .withArguments(arguments)
+      .forwardOutput();
+  }
+
+  @Test
+  public void configurationCacheIsReused() throws IOException {
+    buildScript();
+
+    final BuildResult first = runner("cmakeBuild", "--configuration-cache").build();
+    assertTrue(first.getOutput().contains("Configuration cache entry stored"));
+    assertTrue(new File(projectFolder, "build/cmake/built.txt").isFile());
+
+    final BuildResult second = runner("cmakeBuild", "--configuration-cache").build();
+    assertTrue(second.getOutput().contains("Reusing configuration cache"));
+    assertFalse(second.getOutput().contains("problem"));
+  }
+
+  @Test
+  public void defaultTasksRunAllTargets() throws IOException {
+    buildScript(
+      "def configured = false",
+      "def declared = cmake.targets.first { configured = true; workingFolder = file('build/first') }",
+      "assert declared instanceof org.gradle.api.NamedDomainObjectProvider",
+      "assert !configured // until its tasks are configured",
+      "cmake.targets {",
+      "  second { workingFolder = file('build/second') }",
+      "}");
+
+    final BuildResult result = runner("cmakeBuild").build();
+    assertTrue(result.getOutput().contains("Task :cmakeBuildfirst"));
+    assertTrue(result.getOutput().contains("Task :cmakeBuildsecond"));
+    assertTrue(new File(projectFolder, "build/first/built.txt").isFile());
+    assertTrue(new File(projectFolder, "build/second/built.txt").isFile());
+    assertFalse(new File(projectFolder, "build/cmake/built.txt").exists());
+
+    final BuildResult watch = runner("cmakeWatch").buildAndFail();
+    assertTrue(watch.getOutput().contains("run one of cmakeWatchfirst, cmakeWatchsecond instead"));
+  }
+
+  @Test
+  public void presetTargetsBuildTheirWorkingFolderWithThePresetSettings() throws IOException {
+    write(new File(projectFolder, "src/main/cpp/CMakePresets.json"),
+      "{\"version\": 3,",
+      " \"configurePresets\": [{\"name\": \"linux\", \"binaryDir\": \"${sourceDir}/../../../build/presets/linux\"}],",
+      " \"buildPresets\": [{\"name\": \"linux-build\", \"configurePreset\": \"linux\",",
+      "   \"targets\": [\"app\", \"lib\"], \"configuration\": \"Release\"}]}");
+    buildScript(
+      "cmake {",
+      "  defs.FROM_EXTENSION = 'yes'",
+      "  buildConfig = 'Debug'",
+      "  targets {",
+      "    fromPresets()",
+      "  }",
+      "}");
+
+    runner("cmakeBuildLinux").build();
+    assertTrue(new File(projectFolder, "build/presets/linux/built.txt").isFile());
+    final String log = new String(Files.readAllBytes(new File(temp.getRoot(), "cmake.log").toPath()),
+      StandardCharsets.UTF_8);
+    assertTrue(log, log.contains("--preset linux -S "));
+    assertTrue(log, log.contains("--build . --config Release --target app lib"));
+    assertFalse(log, log.contains("FROM_EXTENSION"));
+  }
+
+  @Test
+  public void consumersSelectTheOutputsOfATarget() throws IOException {
+    write(new File(projectFolder, "settings.gradle"), "rootProject.name = 'consumer'", "include 'native'");
+    final File nativeFolder = new File(projectFolder, "native");
+    write(new File(nativeFolder, "src/main/cpp/CMakeLists.txt"), "project(native)");
+    write(new File(nativeFolder, "build.gradle"),
+      "plugins {",
+      "  id 'dev.welbyseely.gradle-cmake-plugin'",
+      "}",
+      "cmake {",
+      "  executable = '" + cmake.getAbsolutePath() + "'",
+      "  sourceFolder = file('src/main/cpp')",
+      "  targets {",
+      "    first { workingFolder = file('build/first') }",
+      "    second { workingFolder = file('build/second') }",
+      "  }",
+      "}");
+    write(new File(projectFolder, "build.gradle"),
+      "configurations {",
+      "  nativeLibs {",
+      "    canBeConsumed = false",
+      "    attributes {",
+      "      attribute(Usage.USAGE_ATTRIBUTE, objects.named(Usage, Usage.NATIVE_RUNTIME))",
+      "      attribute(Attribute.of('dev.welbyseely.cmake.target', String), 'second')",
+      "    }",
+      "  }",
+      "}",
+      "dependencies {",
+      "  nativeLibs project(':native')",
+      "}",
+      "tasks.register('resolve') {",
+      "  def files = configurations.nativeLibs",
+      "  inputs.files(files)",
+      "  doLast { files.each { println 'resolved ' + it.name } }",
+      "}");
+
+    final BuildResult result = runner("resolve", ":native:outgoingVariants").build();
+    assertTrue(result.getOutput().contains("resolved second"));
+    assertTrue(result.getOutput().contains("Task :native:cmakeBuildsecond"));
+    assertFalse(result.getOutput().contains("Task :native:cmakeBuildfirst"));
+    assertFalse(result.getOutput().contains("Variant cmakeElements\n"));
+  }
+
+  @Test
+  public void failingTestsAreReported() throws IOException {
+    final File ctest = new File(temp.getRoot(), "ctest");
+    write(ctest,
+      "#!/bin/sh",
+      "while [ \"$1\" != --output-junit ]; do shift; done",
+      "cat > \"$2\" <<EOF",
+      "<testsuite name=\"host\" tests=\"2\" failures=\"1\">",
+      "<testcase name=\"passes\" time=\"0.01\" status=\"run\"/>",
+      "<testcase name=\"fails\" time=\"0.01\" status=\"fail\"><failure message=\"Failed\"/></testcase>",
+      "</testsuite>",
+      "EOF",
+      "exit 8");
+    assertTrue(ctest.setExecutable(true));
+    buildScript();
+
+    final BuildResult result = runner("cmakeTest").buildAndFail();
+    assertTrue(result.getOutput().contains("cmakeTest > fails FAILED"));
+    assertTrue(result.getOutput().contains("2 tests completed, 1 succeeded, 1 failed"));
+    assertTrue(result.getOutput().contains("There were failing tests. See the test results for more details: file:"));
+    assertTrue(new File(projectFolder, "build/test-results/cmakeTest/ctest.xml").isFile());
+    assertTrue(new File(projectFolder, "build/reports/tests/cmakeTest/index.html").isFile());
+
+    // the options of the test task
+    final BuildResult shard = runner("cmakeTest", "--shard-index=1", "--shard-count=3", "--rerun-failed",
+      "--info").buildAndFail();
+    assertTrue(shard.getOutput().contains("-I 2,,3 --rerun-failed"));
+  }
+
+}
@@ -0,0 +1,117 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import org.gradle.api.GradleException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CMakePresetsTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  private File presets(final String json) throws Exception {
+    final File source = temp.newFolder("src");
+    Files.write(new File(source, CMakePresets.FILE_NAME).toPath(), json.getBytes(StandardCharsets.UTF_8));
+    return source;
+  }
+
+  @Test
+  public void readsConfigureAndBuildPresets() throws Exception {
+    final File source = presets("{\"version\": 3,"
+      + " \"configurePresets\": ["
+      + "  {\"name\": \"base\", \"hidden\": true, \"binaryDir\": \"${sourceDir}/out/${presetName}\"},"
+      + "  {\"name\": \"linux-x64\", \"inherits\": \"base\"},"
+      + "  {\"name\": \"no-dir\"}],"
+      + " \"buildPresets\": ["
+      + "  {\"name\": \"common\", \"hidden\": true, \"jobs\": 4, \"targets\": \"app\"},"
+      + "  {\"name\": \"linux-release\", \"inherits\": [\"common\"], \"configurePreset\": \"linux-x64\","
+      + "   \"configuration\": \"Release\", \"cleanFirst\": true},"
+      + "  {\"name\": \"linux-all\", \"configurePreset\": \"linux-x64\", \"targets\": [\"app\", \"lib\"]}]}");
+
+    final CMakePresets presets = CMakePresets.read(source);
+    assertEquals(2, presets.getConfigurePresets().size());
+    final CMakePresets.ConfigurePreset linux = presets.getConfigurePresets().get(0);
+    assertEquals("linux-x64", linux.name);
+    assertEquals(new File(source.getAbsoluteFile(), "out/linux-x64"), linux.binaryDir);
+    assertNull(presets.getConfigurePresets().get(1).binaryDir);
+
+    assertEquals("linux-release", presets.buildPresetOf("linux-x64"));
+    assertNull(presets.buildPresetOf("no-dir"));
+    final CMakePresets.BuildPreset release = presets.getBuildPreset("linux-release");
+    assertEquals(Collections.singletonList("app"), release.targets);
+    assertEquals("Release", release.configuration);
+    assertEquals(Integer.valueOf(4), release.jobs);
+    assertTrue(release.cleanFirst);
+    final CMakePresets.BuildPreset all = presets.getBuildPreset("linux-all");
+    assertEquals(Arrays.asList("app", "lib"), all.targets);
+    assertNull(all.configuration);
+    assertNull(all.jobs);
+    assertFalse(all.cleanFirst);
+  }
+
+  @Test
+  public void appliesTheBuildSettingsOfCMakeBuildPreset() throws Exception {
+    final File source = presets("{\"version\": 6,"
+      + " \"configurePresets\": [{\"name\": \"linux\", \"environment\":"
+      + "  {\"CC\": \"gcc\", \"TOOLS\": \"${sourceDir}/tools\", \"UNSET\": \"x\"}}],"
+      + " \"buildPresets\": ["
+      + "  {\"name\": \"base\", \"hidden\": true, \"verbose\": true, \"nativeToolOptions\": [\"-k\", \"0\"]},"
+      + "  {\"name\": \"linux-build\", \"inherits\": \"base\", \"configurePreset\": \"linux\","
+      + "   \"environment\": {\"PATH\": \"$env{TOOLS}:$penv{PATH}\", \"UNSET\": null}},"
+      + "  {\"name\": \"linux-own\", \"configurePreset\": \"linux\", \"inheritConfigureEnvironment\": false,"
+      + "   \"environment\": {\"CMAKE_BUILD_PARALLEL_LEVEL\": \"2\"}}]}");
+
+    final CMakePresets presets = CMakePresets.read(source);
+    final CMakePresets.BuildPreset build = presets.getBuildPreset("linux-build");
+    assertTrue(build.verbose);
+    assertEquals(Arrays.asList("-k", "0"), build.nativeToolOptions);
+    assertEquals("gcc", build.environment.get("CC"));
+    assertEquals(source.getAbsolutePath() + "/tools:" + System.getenv("PATH"), build.environment.get("PATH"));
+    assertFalse(build.environment.containsKey("UNSET"));
+    assertEquals(Arrays.asList("cmake", "--build", ".", "--parallel", "4", "--verbose", "--", "-k", "0"),
+      CMakeBuildTask.buildCmdLine(null, null, build.targets, false, 4, build));
+    assertTrue(CMakeBuildTask.sharesJobs(null, build) == (System.getenv("CMAKE_BUILD_PARALLEL_LEVEL") == null));
+
+    final CMakePresets.BuildPreset own = presets.getBuildPreset("linux-own");
+    assertEquals(Collections.singletonMap("CMAKE_BUILD_PARALLEL_LEVEL", "2"), own.environment);
+    assertFalse(CMakeBuildTask.sharesJobs(null, own));
+  }
+
+  @Test
+  public void followsIncludedPresetFiles() throws Exception {
+    final File source = presets("{\"version\": 4, \"include\": [\"presets/linux.json\"],"
+      + " \"configurePresets\": [{\"name\": \"base\", \"hidden\": true, \"binaryDir\": \"out/${presetName}\"}]}");
+    final File included = new File(source, "presets/linux.json");
+    assertTrue(included.getParentFile().mkdirs());
+    Files.write(included.toPath(), ("{\"version\": 4, \"configurePresets\":"
+      + " [{\"name\": \"linux\", \"inherits\": \"base\"}]}").getBytes(StandardCharsets.UTF_8));
+
+    CMakePresets presets = CMakePresets.read(source);
+    assertEquals(1, presets.getConfigurePresets().size());
+    assertEquals(new File(source.getAbsoluteFile(), "out/linux"), presets.getConfigurePresets().get(0).binaryDir);
+
+    // a changed included file is parsed again, although the including files are unchanged
+    Files.write(included.toPath(), ("{\"version\": 4, \"configurePresets\":"
+      + " [{\"name\": \"linux\", \"inherits\": \"base\"}, {\"name\": \"mac\", \"inherits\": \"base\"}]}")
+      .getBytes(StandardCharsets.UTF_8));
+    presets = CMakePresets.read(source);
+    assertEquals(2, presets.getConfigurePresets().size());
+  }
+
+  @Test(expected = GradleException.class)
+  public void failsForUnknownBuildPreset() throws Exception {
+    CMakePresets.read(presets("{\"version\": 3, \"configurePresets\": []}")).getBuildPreset("missing");
+  }
+
+}
@@ -0,0 +1,92 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import org.gradle.api.logging.Logger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CMakeWatchTaskTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  private File source;
+  private CMakeWatchTask.Affected affected;
+
+  private static Logger logger() {
+    return (Logger) Proxy.newProxyInstance(Logger.class.getClassLoader(), new Class<?>[]{Logger.class},
+      (proxy, method, args) -> method.getReturnType() == boolean.class ? false : null);
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    final File build = temp.newFolder("build");
+    source = temp.newFolder("src");
+    FileApiReplies.write(build, source, "2024-01-01T00-00-00-0000");
+    // the last build compiled main.cpp including the header of lib
+    final File app = new File(build, "CMakeFiles/app.dir");
+    assertTrue(app.mkdirs());
+    Files.write(new File(app, "main.cpp.o.d").toPath(), ("CMakeFiles/app.dir/main.cpp.o: "
+      + source + "/main.cpp " + source + "/lib/lib.h\n").getBytes(StandardCharsets.UTF_8));
+    affected = new CMakeWatchTask.Affected(build, "Debug", logger());
+  }
+
+  private Set<String> targets(final String... changed) {
+    final Set<Path> paths = new HashSet<>();
+    for (String path : changed) {
+      paths.add(new File(source, path).toPath());
+    }
+    return affected.targets(paths);
+  }
+
+  private static Set<String> set(final String... names) {
+    return new TreeSet<>(Arrays.asList(names));
+  }
+
+  @Test
+  public void changedSourcesRebuildTheirTargetsAndTheTargetsLinkingThem() {
+    assertEquals(set("app"), targets("main.cpp"));
+    assertEquals(set("app", "lib"), targets("lib/lib.cpp"));
+    // files no target uses build nothing, new sources everything
+    assertEquals(set(), targets("README.md"));
+    assertNull(targets("lib/new.cpp"));
+  }
+
+  @Test
+  public void changedHeadersRebuildTheTargetsThatIncludedThem() {
+    assertEquals(set("app"), targets("lib/lib.h"));
+    assertEquals(set("app"), targets("lib/lib.h", "README.md"));
+  }
+
+  @Test
+  public void changedCMakeScriptsRebuildEverything() {
+    assertNull(targets("CMakeLists.txt"));
+    assertNull(targets("cmake/options.cmake"));
+    assertNull(targets("main.cpp", "lib/CMakeLists.txt"));
+  }
+
+  @Test
+  public void rebuildsStayWithinTheBuiltTargets() {
+    assertEquals(set("lib"), affected.within(set("app", "lib"), Collections.singletonList("lib")));
+    assertEquals(set("app", "lib"), affected.within(set("app", "lib"), Collections.singletonList("app")));
+    assertEquals(set("app", "lib"), affected.within(set("app", "lib"), Collections.<String>emptyList()));
+    assertEquals(set("app"), affected.within(set("app"), Collections.singletonList("all")));
+    assertNull(affected.within(null, Collections.singletonList("lib")));
+  }
+
+}
@@ -0,0 +1,58 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CTestReportTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  // as written by ctest 3.28 --output-junit
+  private static final String REPORT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+    + "<testsuite name=\"host\" tests=\"3\" failures=\"1\" disabled=\"1\" skipped=\"0\" hostname=\"\""
+    + " time=\"0\" timestamp=\"2024-01-01T00:00:00\">\n"
+    + "  <testcase name=\"parses\" classname=\"parses\" time=\"0.01\" status=\"run\">\n"
+    + "    <system-out>ok</system-out>\n"
+    + "  </testcase>\n"
+    + "  <testcase name=\"links &lt;lib&gt;\" classname=\"links\" time=\"0.02\" status=\"fail\">\n"
+    + "    <failure message=\"Failed\"/>\n"
+    + "    <system-out>expected 1 but was 2</system-out>\n"
+    + "  </testcase>\n"
+    + "  <testcase name=\"slow\" classname=\"slow\" time=\"0\" status=\"disabled\">\n"
+    + "    <skipped message=\"Disabled\"/>\n"
+    + "  </testcase>\n"
+    + "</testsuite>\n";
+
+  @Test
+  public void summarizesTheTestCases() throws Exception {
+    final File xml = temp.newFile("ctest.xml");
+    Files.write(xml.toPath(), REPORT.getBytes(StandardCharsets.UTF_8));
+
+    final CTestReport report = CTestReport.read(xml);
+    assertEquals(3, report.getTestCases().size());
+    assertEquals(Collections.singletonList("links <lib>"), report.getFailed());
+    assertEquals(Collections.singletonList("slow"), report.getSkipped());
+    assertEquals("3 tests completed, 1 failed, 1 skipped", report.summary());
+
+    final CTestReport.TestCase links = report.getTestCases().get(1);
+    assertEquals("Failed", links.failure);
+    assertEquals("expected 1 but was 2", links.output);
+    assertEquals(20, links.millis());
+    assertNull(report.getTestCases().get(0).failure);
+  }
+
+  @Test
+  public void noReportWithoutXml() {
+    assertNull(CTestReport.read(new File(temp.getRoot(), "ctest.xml")));
+  }
+
+}
@@ -0,0 +1,65 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.gradle.api.GradleException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompilerCacheTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void findResolvesLaunchers() {
+    assertNull(CompilerCache.find(null));
+    assertNull(CompilerCache.find(""));
+    final File launcher = new File(temp.getRoot(), "ccache");
+    assertEquals(launcher.getAbsolutePath(), CompilerCache.find(launcher.getAbsolutePath()));
+  }
+
+  @Test(expected = GradleException.class)
+  public void findFailsForMissingLauncher() {
+    CompilerCache.find("no-such-compiler-cache");
+  }
+
+  @Test
+  public void launcherOfPrefersCxx() {
+    final Map<String, String> cache = new HashMap<>();
+    assertNull(CompilerCache.launcherOf(cache));
+    cache.put("CMAKE_C_COMPILER_LAUNCHER", "/usr/bin/ccache");
+    assertEquals("/usr/bin/ccache", CompilerCache.launcherOf(cache));
+    cache.put("CMAKE_CXX_COMPILER_LAUNCHER", "/usr/bin/sccache");
+    assertEquals("/usr/bin/sccache", CompilerCache.launcherOf(cache));
+  }
+
+  @Test
+  public void ccacheStatisticsCountStatsLog() throws Exception {
+    final CompilerCache ccache = CompilerCache.forLauncher("/usr/bin/ccache");
+    assertEquals("ccache", ccache.getName());
+    assertNull(CompilerCache.forLauncher("/usr/bin/distcc"));
+
+    final File statsLog = temp.newFile("stats.log");
+    Files.write(statsLog.toPath(), Arrays.asList("# a.cpp", "direct_cache_hit", "# b.cpp", "cache_miss",
+      "# c.cpp", "preprocessed_cache_hit"), StandardCharsets.UTF_8);
+    final CompilerCache.Statistics statistics = ccache.statistics(statsLog, Collections.emptyMap());
+    assertEquals(2, statistics.hits);
+    assertEquals(1, statistics.misses);
+
+    final File folder = temp.newFolder("cache");
+    final Map<String, String> environment = ccache.environment(folder, statsLog);
+    assertEquals(folder.getAbsolutePath(), environment.get("CCACHE_DIR"));
+    assertEquals(statsLog.getAbsolutePath(), environment.get("CCACHE_STATSLOG"));
+  }
+
+}
@@ -0,0 +1,81 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import groovy.json.JsonSlurper;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompilerDiagnosticsTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void parsesGccAndClang() {
+    final CompilerDiagnostics.Diagnostic diagnostic = CompilerDiagnostics.parse(
+      "/src/a.cpp:12:5: warning: unused variable 'x' [-Wunused-variable]");
+    assertEquals("warning", diagnostic.severity);
+    assertEquals("/src/a.cpp", diagnostic.file);
+    assertEquals(12, diagnostic.line);
+    assertEquals(5, diagnostic.column);
+    assertEquals("-Wunused-variable", diagnostic.kind);
+    assertEquals("unused variable 'x'", diagnostic.message);
+
+    final CompilerDiagnostics.Diagnostic fatal = CompilerDiagnostics.parse(
+      "b.h:3: fatal error: missing.h: No such file or directory");
+    assertEquals("error", fatal.severity);
+    assertEquals(0, fatal.column);
+    assertNull(fatal.kind);
+  }
+
+  @Test
+  public void parsesMsvc() {
+    final CompilerDiagnostics.Diagnostic diagnostic = CompilerDiagnostics.parse(
+      "  2>C:\\src\\a.cpp(7,10): error C2065: 'y': undeclared identifier");
+    assertEquals("error", diagnostic.severity);
+    assertEquals("C:\\src\\a.cpp", diagnostic.file);
+    assertEquals(7, diagnostic.line);
+    assertEquals(10, diagnostic.column);
+    assertEquals("C2065", diagnostic.kind);
+    assertEquals("'y': undeclared identifier", diagnostic.message);
+  }
+
+  @Test
+  public void ignoresOtherLines() {
+    assertNull(CompilerDiagnostics.parse("[3/10] Building CXX object CMakeFiles/app.dir/main.cpp.o"));
+    final CompilerDiagnostics diagnostics = new CompilerDiagnostics();
+    final byte[] progress = "[3/10] Linking CXX executable app".getBytes(StandardCharsets.US_ASCII);
+    assertFalse(diagnostics.wants(progress, 0, progress.length));
+    final byte[] error = "xx a.c:1: error: y".getBytes(StandardCharsets.US_ASCII);
+    assertTrue(diagnostics.wants(error, 3, error.length - 3));
+    assertFalse(diagnostics.wants(error, 0, 8));
+  }
+
+  @Test
+  public void countsRepeatedDiagnosticsOnce() throws Exception {
+    final CompilerDiagnostics diagnostics = new CompilerDiagnostics();
+    diagnostics.accept("inc/a.h:1:1: warning: w [-Wshadow]");
+    diagnostics.accept("inc/a.h:1:1: warning: w [-Wshadow]");
+    diagnostics.accept("main.cpp:2:3: error: e");
+    assertEquals(1, diagnostics.getErrors());
+    assertEquals(1, diagnostics.getWarnings());
+
+    final File report = temp.newFile("diagnostics.json");
+    diagnostics.writeReport(report);
+    final Map<?, ?> json = (Map<?, ?>) new JsonSlurper().parse(report);
+    assertEquals(1, json.get("errors"));
+    assertEquals(1, ((Map<?, ?>) json.get("kinds")).get("-Wshadow"));
+    assertEquals(2, ((List<?>) json.get("diagnostics")).size());
+    assertEquals(Boolean.FALSE, json.get("truncated"));
+  }
+
+}
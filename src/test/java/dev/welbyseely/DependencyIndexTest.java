@@ -0,0 +1,128 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.gradle.api.logging.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DependencyIndexTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  private static Logger logger() {
+    return (Logger) Proxy.newProxyInstance(Logger.class.getClassLoader(), new Class<?>[]{Logger.class},
+      (proxy, method, args) -> method.getReturnType() == boolean.class ? false : null);
+  }
+
+  @Test
+  public void parsesDepfiles() {
+    assertEquals(Arrays.asList("../src/main.cpp", "/usr/include/stdio.h", "../src/my header.h"),
+      DependencyIndex.parseDepfile("CMakeFiles/app.dir/main.cpp.o: ../src/main.cpp \\\n"
+        + "  /usr/include/stdio.h \\\r\n  ../src/my\\ header.h\n"));
+    // several rules, the empty ones gcc -MP adds for each header
+    assertEquals(Arrays.asList("a.cpp", "a.h", "$HOME/b#.h"),
+      DependencyIndex.parseDepfile("a.o: a.cpp a.h $$HOME/b\\#.h\na.h:\n"));
+    assertEquals(Arrays.asList("C:/src/a.cpp", "C:/src/a.h"),
+      DependencyIndex.parseDepfile("C:/build/a.obj: C:/src/a.cpp C:/src/a.h"));
+    assertEquals(Collections.emptyList(), DependencyIndex.parseDepfile(""));
+  }
+
+  @Test
+  public void indexesTheDependenciesOfEachTarget() throws Exception {
+    final File build = temp.newFolder("build");
+    final File source = temp.newFolder("src");
+    final File app = new File(build, "CMakeFiles/app.dir");
+    final File lib = new File(build, "CMakeFiles/lib.dir/lib");
+    assertTrue(app.mkdirs());
+    assertTrue(lib.mkdirs());
+    Files.write(new File(app, "main.cpp.o.d").toPath(), ("CMakeFiles/app.dir/main.cpp.o: "
+      + source + "/main.cpp " + source + "/app.h " + source + "/lib/lib.h\n").getBytes(StandardCharsets.UTF_8));
+    Files.write(new File(lib, "lib.cpp.o.d").toPath(), ("CMakeFiles/lib.dir/lib/lib.cpp.o: "
+      + source + "/lib/lib.cpp " + source + "/lib/lib.h " + source + "/lib/impl.h\n")
+      .getBytes(StandardCharsets.UTF_8));
+    final File index = new File(build, DependencyIndex.FILE_NAME);
+
+    DependencyIndex.harvest(build, index, logger());
+    final Map<String, Set<String>> indexed = DependencyIndex.readIndex(index);
+    assertEquals(new TreeSet<>(Arrays.asList("app", "lib")), new TreeSet<>(indexed.keySet()));
+    assertEquals(new HashSet<>(Arrays.asList(DependencyIndex.normalize(new File(source, "lib/lib.cpp")),
+      DependencyIndex.normalize(new File(source, "lib/lib.h")),
+      DependencyIndex.normalize(new File(source, "lib/impl.h")))), indexed.get("lib"));
+
+    // the headers of lib are read when building app, not the other way around
+    final Set<String> byLib = DependencyIndex.readBy(indexed, Collections.singleton("lib"));
+    assertFalse(byLib.contains(DependencyIndex.normalize(new File(source, "app.h"))));
+    final Set<String> byApp = DependencyIndex.readBy(indexed, new HashSet<>(Arrays.asList("app", "lib")));
+    assertTrue(byApp.contains(DependencyIndex.normalize(new File(source, "app.h"))));
+    assertTrue(byApp.contains(DependencyIndex.normalize(new File(source, "lib/impl.h"))));
+    assertEquals(5, DependencyIndex.readBy(indexed, null).size());
+    // a target that was not compiled yet uses all headers
+    assertNull(DependencyIndex.readBy(indexed, Collections.singleton("tool")));
+  }
+
+  @Test
+  public void targetsAreBuiltWithTheirDependencies() throws Exception {
+    final File build = temp.newFolder("build");
+    FileApiReplies.write(build, temp.newFolder("src"), "2024-01-01T00-00-00-0000");
+    final CMakeCodeModel model = CMakeFileApi.readReply(build);
+
+    assertEquals(new TreeSet<>(Arrays.asList("app", "lib")), model.getTargetsBuiltWith("Debug", "app"));
+    assertEquals(Collections.singleton("lib"), model.getTargetsBuiltWith("Debug", "lib"));
+    assertNull(model.getTargetsBuiltWith("Debug", null));
+    assertNull(model.getTargetsBuiltWith("Debug", "install"));
+  }
+
+  @Test
+  public void buildInputsAreTheFilesOfTheBuiltTargets() throws Exception {
+    final File build = temp.newFolder("build");
+    final File source = temp.newFolder("src");
+    final File index = new File(build, DependencyIndex.FILE_NAME);
+    assertNull(DependencyIndex.BuildInputs.read(index, build, "Debug", "lib"));
+
+    FileApiReplies.write(build, source, "2024-01-01T00-00-00-0000");
+    DependencyIndex.BuildInputs lib = DependencyIndex.BuildInputs.read(index, build, "Debug", "lib");
+    assertTrue(lib.uses(new File(source, "lib/lib.cpp")));
+    assertTrue(lib.uses(new File(source, "CMakeLists.txt")));
+    assertTrue(lib.uses(new File(source, "cmake/options.cmake")));
+    assertTrue(lib.uses(new File(source, "cmake/new.cmake")));
+    // not indexed yet, all headers count
+    assertTrue(lib.uses(new File(source, "app.h")));
+    // a new source a glob may pick up
+    assertTrue(lib.uses(new File(source, "lib/new.cpp")));
+    assertFalse(lib.uses(new File(source, "main.cpp")));
+    assertFalse(lib.uses(new File(source, "docs/index.md")));
+
+    final File depfiles = new File(build, "CMakeFiles/lib.dir/lib");
+    assertTrue(depfiles.mkdirs());
+    Files.write(new File(depfiles, "lib.cpp.o.d").toPath(), ("CMakeFiles/lib.dir/lib/lib.cpp.o: "
+      + source + "/lib/lib.cpp " + source + "/lib/lib.h\n").getBytes(StandardCharsets.UTF_8));
+    DependencyIndex.harvest(build, index, logger());
+    lib = DependencyIndex.BuildInputs.read(index, build, "Debug", "lib");
+    assertTrue(lib.uses(new File(source, "lib/lib.h")));
+    assertFalse(lib.uses(new File(source, "lib/impl.h")));
+    assertFalse(lib.uses(new File(source, "app.h")));
+
+    // app is built with lib
+    final DependencyIndex.BuildInputs app = DependencyIndex.BuildInputs.read(index, build, "Debug", "app");
+    assertTrue(app.uses(new File(source, "main.cpp")));
+    assertTrue(app.uses(new File(source, "lib/lib.cpp")));
+    assertTrue(app.uses(new File(source, "lib/lib.h")));
+  }
+
+}
@@ -0,0 +1,56 @@
+package dev.welbyseely;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Writes a CMake File API reply like CMake 3.20+ does: a static library "lib" built from
+ * lib/lib.cpp and an executable "app" built from main.cpp and linking lib, configured from
+ * CMakeLists.txt, lib/CMakeLists.txt and cmake/options.cmake.
+ */
+final class FileApiReplies {
+
+  private FileApiReplies() {
+  }
+
+  static File write(final File buildFolder, final File sourceFolder, final String timestamp)
+    throws IOException {
+    final File reply = new File(buildFolder, ".cmake/api/v1/reply");
+    reply.mkdirs();
+    final String source = json(sourceFolder.getAbsolutePath());
+    final String build = json(buildFolder.getAbsolutePath());
+    write(reply, "target-lib.json", "{\"name\": \"lib\", \"id\": \"lib::@1\", \"type\": \"STATIC_LIBRARY\","
+      + " \"artifacts\": [{\"path\": \"lib/liblib.a\"}],"
+      + " \"sources\": [{\"path\": \"lib/lib.cpp\"}, {\"path\": \"gen/version.cpp\", \"isGenerated\": true}]}");
+    write(reply, "target-app.json", "{\"name\": \"app\", \"id\": \"app::@2\", \"type\": \"EXECUTABLE\","
+      + " \"artifacts\": [{\"path\": \"app\"}], \"sources\": [{\"path\": \"main.cpp\"}],"
+      + " \"dependencies\": [{\"id\": \"lib::@1\"}]}");
+    write(reply, "codemodel-v2.json", "{\"paths\": {\"source\": " + source + ", \"build\": " + build + "},"
+      + " \"configurations\": [{\"name\": \"Debug\", \"targets\": ["
+      + "{\"name\": \"lib\", \"jsonFile\": \"target-lib.json\"},"
+      + " {\"name\": \"app\", \"jsonFile\": \"target-app.json\"}]}]}");
+    write(reply, "cmakeFiles-v1.json", "{\"inputs\": [{\"path\": \"CMakeLists.txt\"},"
+      + " {\"path\": \"lib/CMakeLists.txt\"}, {\"path\": \"cmake/options.cmake\"},"
+      + " {\"path\": \"/usr/share/cmake/Modules/CMakeCXXInformation.cmake\", \"isCMake\": true, \"isExternal\": true}]}");
+    write(reply, "toolchains-v1.json", "{\"toolchains\": [{\"language\": \"CXX\","
+      + " \"compiler\": {\"id\": \"GNU\", \"version\": \"12.2.0\"}}]}");
+    return write(reply, "index-" + timestamp + ".json", "{\"reply\": {\"" + CMakeFileApi.CLIENT + "\": {"
+      + "\"codemodel-v2\": {\"jsonFile\": \"codemodel-v2.json\"},"
+      + " \"cmakeFiles-v1\": {\"jsonFile\": \"cmakeFiles-v1.json\"},"
+      + " \"toolchains-v1\": {\"jsonFile\": \"toolchains-v1.json\"}}}}");
+  }
+
+  private static File write(final File folder, final String name, final String contents)
+    throws IOException {
+    final File file = new File(folder, name);
+    Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  private static String json(final String value) {
+    return "\"" + value.replace("\\", "\\\\") + "\"";
+  }
+
+}
@@ -0,0 +1,43 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileTreesTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void deletesTreesDeeperThanTheParallelLevels() throws Exception {
+    final File root = temp.newFolder("build");
+    for (int i = 0; i < 5; i++) {
+      final File folder = new File(root, "a" + i + "/b/c/d/e");
+      assertTrue(folder.mkdirs());
+      assertTrue(new File(folder, "object.o").createNewFile());
+      assertTrue(new File(root, "a" + i + "/top.txt").createNewFile());
+    }
+    final File outside = temp.newFile("outside.txt");
+    Files.createSymbolicLink(new File(root, "a0/b/link").toPath(), outside.toPath());
+
+    FileTrees.delete(root.toPath());
+    assertFalse(root.exists());
+    // links are deleted, not followed
+    assertTrue(outside.isFile());
+  }
+
+  @Test
+  public void missingTreesAreIgnored() throws Exception {
+    final Path missing = new File(temp.getRoot(), "missing").toPath();
+    FileTrees.delete(missing);
+    assertFalse(Files.exists(missing));
+  }
+
+}
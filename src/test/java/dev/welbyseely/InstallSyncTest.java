@@ -0,0 +1,125 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InstallSyncTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  private File build;
+  private File staging;
+  private File prefix;
+  private File state;
+
+  @Before
+  public void setUp() throws Exception {
+    build = temp.newFolder("build");
+    staging = new File(build, "gradle-install/all");
+    prefix = temp.newFolder("prefix");
+    state = new File(build, "gradle-install/all.state");
+  }
+
+  // stages the files like cmake --install, listing them in the manifest
+  private void install(final String... files) throws Exception {
+    final List<String> manifest = new ArrayList<>();
+    for (String file : files) {
+      final String[] pathAndContents = file.split("=");
+      final File staged = new File(staging, pathAndContents[0]);
+      staged.getParentFile().mkdirs();
+      if (!staged.isFile() || !new String(Files.readAllBytes(staged.toPath()), StandardCharsets.UTF_8)
+        .equals(pathAndContents[1])) {
+        Files.write(staged.toPath(), pathAndContents[1].getBytes(StandardCharsets.UTF_8));
+      }
+      manifest.add(staged.getAbsolutePath());
+    }
+    Files.write(InstallSync.manifest(build, null).toPath(), manifest, StandardCharsets.UTF_8);
+  }
+
+  private InstallSync.Result sync() {
+    return InstallSync.sync(staging, InstallSync.manifest(build, null), prefix, state);
+  }
+
+  private String installed(final String path) throws Exception {
+    return new String(Files.readAllBytes(new File(prefix, path).toPath()), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void copiesOnlyChangedFiles() throws Exception {
+    install("bin/app=app 1", "include/lib.h=header");
+    InstallSync.Result result = sync();
+    assertEquals(2, result.copied);
+    assertEquals("app 1", installed("bin/app"));
+
+    result = sync();
+    assertEquals(0, result.copied);
+    assertEquals(2, result.unchanged);
+
+    install("bin/app=app 2", "include/lib.h=header");
+    result = sync();
+    assertEquals(1, result.copied);
+    assertEquals(1, result.unchanged);
+    assertEquals("app 2", installed("bin/app"));
+  }
+
+  @Test
+  public void removesFilesThatAreNoLongerInstalled() throws Exception {
+    install("bin/app=app", "include/old.h=old");
+    sync();
+
+    // cmake --install leaves include/old.h in the staging folder
+    install("bin/app=app");
+    final InstallSync.Result result = sync();
+    assertEquals(1, result.deleted);
+    assertFalse(new File(prefix, "include/old.h").exists());
+    assertFalse(new File(staging, "include/old.h").exists());
+    assertTrue(new File(prefix, "bin/app").isFile());
+  }
+
+  @Test
+  public void replacesInstalledFilesThatWereChanged() throws Exception {
+    install("share/config.txt=config");
+    sync();
+
+    Files.write(new File(prefix, "share/config.txt").toPath(), "edited by hand".getBytes(StandardCharsets.UTF_8));
+    final InstallSync.Result result = sync();
+    assertEquals(1, result.copied);
+    assertEquals("config", installed("share/config.txt"));
+  }
+
+  @Test
+  public void isInSyncUntilTheInstalledFilesChange() throws Exception {
+    install("bin/app=app", "share/config.txt=config");
+    assertFalse(InstallSync.isInSync(staging, InstallSync.manifest(build, null), prefix, state));
+    sync();
+    assertTrue(InstallSync.isInSync(staging, InstallSync.manifest(build, null), prefix, state));
+
+    Files.write(new File(prefix, "share/config.txt").toPath(), "edited by hand".getBytes(StandardCharsets.UTF_8));
+    assertFalse(InstallSync.isInSync(staging, InstallSync.manifest(build, null), prefix, state));
+    sync();
+    assertTrue(InstallSync.isInSync(staging, InstallSync.manifest(build, null), prefix, state));
+
+    // the manifest lists a file the last sync did not install
+    install("bin/app=app", "share/config.txt=config", "include/lib.h=header");
+    assertFalse(InstallSync.isInSync(staging, InstallSync.manifest(build, null), prefix, state));
+  }
+
+  @Test
+  public void componentsHaveTheirOwnManifest() {
+    assertEquals(new File(build, "install_manifest.txt"), InstallSync.manifest(build, null));
+    assertEquals(new File(build, "install_manifest_Runtime.txt"), InstallSync.manifest(build, "Runtime"));
+  }
+
+}
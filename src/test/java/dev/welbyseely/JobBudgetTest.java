@@ -0,0 +1,85 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class JobBudgetTest {
+
+  @Test
+  public void singleBuildGetsWholeBudget() throws Exception {
+    final JobBudget budget = new JobBudget(8);
+    assertEquals(8, budget.acquire());
+    budget.release(8);
+    assertEquals(8, budget.getFreeJobs());
+  }
+
+  @Test
+  public void laterBuildsStartWithoutWaiting() throws Exception {
+    final JobBudget budget = new JobBudget(8);
+    final int first = budget.acquire();
+    assertEquals(8, first);
+
+    // a build starting while the budget is taken runs a job instead of waiting for the first
+    final ExecutorService builds = Executors.newSingleThreadExecutor();
+    final int second;
+    try {
+      second = builds.submit(budget::acquire).get(5, TimeUnit.SECONDS);
+    } finally {
+      builds.shutdownNow();
+    }
+    assertEquals(1, second);
+
+    // once the first finished, the next build shares the budget with the second
+    budget.release(first);
+    final int third = budget.acquire();
+    assertEquals(4, third);
+    assertTrue(second + third <= 8);
+    budget.release(second);
+    budget.release(third);
+    assertEquals(8, budget.getFreeJobs());
+  }
+
+  @Test
+  public void concurrentBuildsShareBudget() throws Exception {
+    final JobBudget budget = new JobBudget(16);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger peak = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+    final int concurrent = 6;
+    final ExecutorService builds = Executors.newFixedThreadPool(concurrent);
+    try {
+      final List<Future<?>> results = new ArrayList<>();
+      for (int i = 0; i < 24; i++) {
+        results.add(builds.submit(() -> {
+          start.await();
+          final int jobs = budget.acquire();
+          peak.accumulateAndGet(running.addAndGet(jobs), Math::max);
+          Thread.sleep(5);
+          running.addAndGet(-jobs);
+          budget.release(jobs);
+          return null;
+        }));
+      }
+      start.countDown();
+      for (Future<?> result : results) {
+        result.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      builds.shutdownNow();
+    }
+    // at most one job more for each build that started while all jobs were taken
+    assertTrue("at most 21 jobs ran at once, saw " + peak.get(), peak.get() <= 16 + concurrent - 1);
+    assertEquals(16, budget.getFreeJobs());
+  }
+
+}
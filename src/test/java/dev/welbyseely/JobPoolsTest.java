@@ -0,0 +1,78 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JobPoolsTest {
+
+  private static final long MIB = 1024 * 1024;
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  private static ProcessMonitor.Usage usage(final long compileMiB, final long linkMiB) {
+    return new ProcessMonitor.Usage(1000, -1, -1, compileMiB * MIB, linkMiB * MIB);
+  }
+
+  @Test
+  public void similarPoolsKeepTheConfiguration() {
+    assertTrue(JobPools.similar("compile=8;link=2", "compile=8;link=2"));
+    assertTrue(JobPools.similar("compile=8;link=2", "compile=10;link=3"));
+    assertTrue(JobPools.similar("compile=1;link=1", "compile=2;link=1"));
+    assertFalse(JobPools.similar("compile=8;link=2", "compile=12;link=2"));
+    assertFalse(JobPools.similar("compile=8;link=2", "compile=8;link=4"));
+    assertFalse(JobPools.similar("compile=8", "compile=8;link=2"));
+    assertFalse(JobPools.similar(null, "compile=8;link=2"));
+  }
+
+  @Test
+  public void poolsAreSizedByTheMemoryOfOneJob() throws Exception {
+    final File build = temp.newFolder("build");
+
+    Map<String, String> definitions = JobPools.poolDefinitions(build, 1024, 4096, 16384 * MIB);
+    assertEquals("compile=16;link=4", definitions.get("CMAKE_JOB_POOLS"));
+    assertEquals("compile", definitions.get("CMAKE_JOB_POOL_COMPILE"));
+    assertEquals("link", definitions.get("CMAKE_JOB_POOL_LINK"));
+    // at least one job of each
+    assertEquals("compile=1;link=1", JobPools.poolDefinitions(build, 1024, 4096, 512 * MIB)
+      .get("CMAKE_JOB_POOLS"));
+
+    // the peaks of earlier builds with 25% headroom
+    JobPools.record(new File(build, JobPools.FILE_NAME), usage(800, 3200));
+    definitions = JobPools.poolDefinitions(build, 1024, 4096, 16000 * MIB);
+    assertEquals("compile=16;link=4", definitions.get("CMAKE_JOB_POOLS"));
+  }
+
+  @Test
+  public void aSingleBuildUsesTheWholeMachine() throws Exception {
+    final File build = temp.newFolder("build");
+    final long memory = 64L * 1024 * MIB;
+
+    assertEquals("compile=64;link=16", JobPools.definitions(build, 1024, 4096, 1, memory)
+      .get("CMAKE_JOB_POOLS"));
+    // only builds expected to run at the same time split it
+    assertEquals("compile=16;link=4", JobPools.definitions(build, 1024, 4096, 4, memory)
+      .get("CMAKE_JOB_POOLS"));
+    assertTrue(JobPools.definitions(build, 1024, 4096, 1, -1).isEmpty());
+  }
+
+  @Test
+  public void lowerPeaksDecaySlowly() throws Exception {
+    final File build = temp.newFolder("build");
+    final File profile = new File(build, JobPools.FILE_NAME);
+    JobPools.record(profile, usage(1000, 2000));
+    JobPools.record(profile, usage(100, 0));
+
+    // 1000 * 0.9 * 1.25 = 1125 MiB per compile job, the link peak is kept
+    assertEquals("compile=10;link=4", JobPools.poolDefinitions(build, 1024, 4096, 11250 * MIB)
+      .get("CMAKE_JOB_POOLS"));
+  }
+
+}
@@ -0,0 +1,121 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class JobServerTest {
+
+  @Test
+  public void supportsGnuMake44AndNinja113() {
+    assertTrue(JobServer.supports("/usr/bin/make", "GNU Make 4.4.1"));
+    assertTrue(JobServer.supports("gmake", "GNU Make 5.0"));
+    assertFalse(JobServer.supports("/usr/bin/make", "GNU Make 4.3"));
+    assertFalse(JobServer.supports("make", "GNU Make 3.81"));
+    assertFalse(JobServer.supports("bmake", "bmake 20220208"));
+    assertTrue(JobServer.supports("/opt/bin/ninja", "1.13.0"));
+    assertTrue(JobServer.supports("ninja.exe", "2.0.1"));
+    assertFalse(JobServer.supports("ninja", "1.12.1"));
+    assertFalse(JobServer.supports("ninja", "unknown"));
+  }
+
+  private static JobServer create(final int slots) throws Exception {
+    final JobServer jobServer = JobServer.create(slots);
+    assumeTrue(jobServer != null);
+    return jobServer;
+  }
+
+  private static Future<Void> acquireLater(final JobServer jobServer, final AtomicReference<Thread> thread) {
+    final CompletableFuture<Void> acquired = new CompletableFuture<>();
+    final Thread acquiring = new Thread(() -> {
+      try {
+        jobServer.acquire();
+        acquired.complete(null);
+      } catch (Exception e) {
+        acquired.completeExceptionally(e);
+      }
+    });
+    thread.set(acquiring);
+    acquiring.start();
+    return acquired;
+  }
+
+  @Test
+  public void waitingForASlotCanBeInterrupted() throws Exception {
+    try (JobServer jobServer = create(1)) {
+      jobServer.acquire();
+      final AtomicReference<Thread> thread = new AtomicReference<>();
+      final Future<Void> acquired = acquireLater(jobServer, thread);
+      try {
+        acquired.get(200, TimeUnit.MILLISECONDS);
+        throw new AssertionError("took a slot that was not free");
+      } catch (TimeoutException e) {
+        // waiting
+      }
+      thread.get().interrupt();
+      try {
+        acquired.get(5, TimeUnit.SECONDS);
+        throw new AssertionError("not interrupted");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof InterruptedException);
+      }
+      jobServer.release(false);
+    }
+  }
+
+  @Test
+  public void anInterruptedWaitLeavesThePipeToTheOtherBuilds() throws Exception {
+    try (JobServer jobServer = create(1)) {
+      jobServer.acquire();
+      final AtomicReference<Thread> first = new AtomicReference<>();
+      final Future<Void> interrupted = acquireLater(jobServer, first);
+      final Future<Void> waiting = acquireLater(jobServer, new AtomicReference<>());
+      Thread.sleep(200);
+      first.get().interrupt();
+      try {
+        interrupted.get(5, TimeUnit.SECONDS);
+        throw new AssertionError("not interrupted");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof InterruptedException);
+      }
+
+      jobServer.release(false);
+      waiting.get(5, TimeUnit.SECONDS);
+      jobServer.release(false);
+    }
+  }
+
+  @Test
+  public void slotsLostByStoppedBuildsAreRestoredWhenIdle() throws Exception {
+    try (JobServer jobServer = create(2)) {
+      jobServer.acquire();
+      jobServer.acquire();
+      // a job of the first build takes the slot returned by the second and is killed with it
+      jobServer.release(false);
+      final String flags = jobServer.makeFlags();
+      final File fifo = new File(flags.substring(flags.indexOf("fifo:") + 5));
+      try (RandomAccessFile job = new RandomAccessFile(fifo, "rw")) {
+        assertEquals('+', job.read());
+      }
+      jobServer.release(true);
+
+      // both slots are free again
+      jobServer.acquire();
+      acquireLater(jobServer, new AtomicReference<>()).get(5, TimeUnit.SECONDS);
+      jobServer.release(false);
+      jobServer.release(false);
+    }
+  }
+
+}
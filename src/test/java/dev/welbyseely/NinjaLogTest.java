@@ -0,0 +1,91 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NinjaLogTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  private static void append(final File log, final String... lines) throws Exception {
+    Files.write(log.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+      StandardOpenOption.APPEND);
+  }
+
+  @Test
+  public void findsTheTargetOfAnOutput() {
+    assertEquals("app", NinjaLog.targetOf("CMakeFiles/app.dir/main.cpp.o"));
+    assertEquals("lib", NinjaLog.targetOf("lib/CMakeFiles/lib.dir/src/lib.cpp.o"));
+    assertEquals("my-lib", NinjaLog.targetOf("C:\\build\\CMakeFiles\\my-lib.dir\\a.cpp.obj"));
+    assertNull(NinjaLog.targetOf("lib/liblib.a"));
+    assertNull(NinjaLog.targetOf("MyCMakeFiles/app.dir/main.cpp.o"));
+  }
+
+  @Test
+  public void readsTheStepsOfTheLastBuild() throws Exception {
+    final File build = temp.newFolder("build");
+    final File log = new File(build, NinjaLog.FILE_NAME);
+    assertEquals(Collections.emptyList(), NinjaLog.readFrom(build, 0));
+    assertEquals(0, NinjaLog.size(build));
+
+    append(log, "# ninja log v5",
+      "0\t1200\t1700000000000000000\tCMakeFiles/lib.dir/lib.cpp.o\t1a2b");
+    final long offset = NinjaLog.size(build);
+    append(log,
+      "10\t410\t1700000000000000000\tCMakeFiles/app.dir/main.cpp.o\t3c4d",
+      "410\t500\t1700000000000000000\tapp\t5e6f",
+      "500\tx\t1700000000000000000\tbroken\t0000",
+      "520\t530");
+
+    final List<NinjaLog.Step> steps = NinjaLog.readFrom(build, offset);
+    assertEquals(2, steps.size());
+    assertEquals("CMakeFiles/app.dir/main.cpp.o", steps.get(0).output);
+    assertEquals("app", steps.get(0).target);
+    assertEquals(400, steps.get(0).millis);
+    assertTrue(steps.get(0).isCompile());
+    assertNull(steps.get(1).target);
+    assertEquals(90, steps.get(1).millis);
+
+    // ninja recompacted the log, which is now shorter than the offset
+    Files.write(log.toPath(), Collections.singletonList("0\t5\t1\tapp\t5e6f"), StandardCharsets.UTF_8);
+    assertEquals(1, NinjaLog.readFrom(build, offset + 1000).size());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void summarizesTheTimeOfEachTarget() {
+    final Map<String, Object> summary = NinjaLog.summarize(Arrays.asList(
+      new NinjaLog.Step("CMakeFiles/lib.dir/a.cpp.o", "lib", 300),
+      new NinjaLog.Step("CMakeFiles/lib.dir/b.cpp.o", "lib", 100),
+      new NinjaLog.Step("lib/liblib.a", null, 20),
+      new NinjaLog.Step("CMakeFiles/app.dir/main.cpp.o", "app", 200)), 2);
+
+    assertEquals(4, summary.get("steps"));
+    final Map<String, Map<String, Long>> targets = (Map<String, Map<String, Long>>) summary.get("targets");
+    assertEquals(Arrays.asList("<other>", "app", "lib"), Arrays.asList(targets.keySet().toArray()));
+    assertEquals(Long.valueOf(400), targets.get("lib").get("compileMillis"));
+    assertEquals(Long.valueOf(2), targets.get("lib").get("steps"));
+    assertEquals(Long.valueOf(20), targets.get("<other>").get("otherMillis"));
+
+    final List<Map<String, Object>> slowest = (List<Map<String, Object>>) summary.get("slowest");
+    assertEquals(2, slowest.size());
+    assertEquals("CMakeFiles/lib.dir/a.cpp.o", slowest.get(0).get("output"));
+    assertEquals("lib", slowest.get(0).get("target"));
+    assertEquals(200L, slowest.get(1).get("millis"));
+  }
+
+}
@@ -0,0 +1,128 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.gradle.api.logging.LogLevel;
+import org.gradle.api.logging.Logger;
+import org.junit.Test;
+
+public class OutputPumpTest {
+
+  /**
+   * Returns at most a few bytes per read, so lines and characters are split across reads.
+   */
+  private static final class SlowStream extends ByteArrayInputStream {
+
+    SlowStream(final String text) {
+      super(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public synchronized int available() {
+      return Math.min(3, super.available());
+    }
+  }
+
+  private static final class Lines implements OutputPump.LineListener {
+
+    final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger offered = new AtomicInteger();
+    final String wanted;
+
+    Lines(final String wanted) {
+      this.wanted = wanted;
+    }
+
+    @Override
+    public boolean wants(final byte[] bytes, final int offset, final int length) {
+      offered.incrementAndGet();
+      return wanted == null || new String(bytes, offset, length, StandardCharsets.UTF_8).contains(wanted);
+    }
+
+    @Override
+    public void accept(final String line) {
+      lines.add(line);
+    }
+  }
+
+  private static Logger logger(final boolean enabled, final List<String> events) {
+    return (Logger) Proxy.newProxyInstance(Logger.class.getClassLoader(), new Class<?>[]{Logger.class},
+      (proxy, method, args) -> {
+        if (method.getName().equals("isEnabled")) {
+          return enabled;
+        }
+        if (method.getName().equals("log") && args.length == 2) {
+          events.add((String) args[1]);
+        }
+        return method.getReturnType() == boolean.class ? false : null;
+      });
+  }
+
+  @Test
+  public void splitsLinesAcrossReads() throws Exception {
+    final List<String> events = new ArrayList<>();
+    final Lines listener = new Lines(null);
+    OutputPump.start(new SlowStream("first\r\nsecond \u00fc\n\nlast"), () -> true, logger(true, events),
+      LogLevel.INFO, listener).get(10, TimeUnit.SECONDS);
+
+    assertEquals(Arrays.asList("first", "second \u00fc", "", "last"), listener.lines);
+    assertEquals("first\nsecond \u00fc\n\nlast", String.join("\n", events));
+  }
+
+  @Test
+  public void decodesOnlyWantedLinesWhenNotLogging() throws Exception {
+    final List<String> events = new ArrayList<>();
+    final Lines listener = new Lines("error");
+    OutputPump.start(new ByteArrayInputStream("a.c:1:2: error: x\nok\nb.c:3:4: warning: y\n"
+      .getBytes(StandardCharsets.UTF_8)), () -> true, logger(false, events), LogLevel.INFO, listener)
+      .get(10, TimeUnit.SECONDS);
+
+    assertEquals(Collections.singletonList("a.c:1:2: error: x"), listener.lines);
+    assertEquals(3, listener.offered.get());
+    assertTrue(events.isEmpty());
+  }
+
+  @Test
+  public void fewThreadsServeManyStreams() throws Exception {
+    final int streams = OutputPump.THREADS * 10;
+    final AtomicBoolean exited = new AtomicBoolean();
+    final List<PipedOutputStream> outputs = new ArrayList<>();
+    final List<Future<Void>> pumps = new ArrayList<>();
+    final Lines listener = new Lines(null);
+    for (int i = 0; i < streams; i++) {
+      final PipedInputStream in = new PipedInputStream(256);
+      outputs.add(new PipedOutputStream(in));
+      pumps.add(OutputPump.start(in, exited::get, logger(false, new ArrayList<>()), LogLevel.INFO, listener));
+    }
+
+    // every stream is read while all of them are open, more than the pipe holds
+    for (int round = 0; round < 20; round++) {
+      for (int i = 0; i < streams; i++) {
+        outputs.get(i).write(String.format("stream %d line %d padded to fill the pipe%n", i, round)
+          .getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    assertFalse(pumps.get(0).isDone());
+    exited.set(true);
+    for (Future<Void> pump : pumps) {
+      pump.get(10, TimeUnit.SECONDS);
+    }
+    assertEquals(streams * 20, listener.lines.size());
+  }
+
+}
@@ -0,0 +1,58 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProcessMonitorTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void onlyCompilersAndLinkersAreJobs() {
+    assertEquals("compile", ProcessMonitor.jobKind(Arrays.asList("/usr/bin/c++", "-O2", "-c", "a.cpp")));
+    assertEquals("compile", ProcessMonitor.jobKind(Arrays.asList("/opt/x/bin/aarch64-linux-gnu-g++-12", "-c", "a.cpp")));
+    assertEquals("compile", ProcessMonitor.jobKind(Arrays.asList("clang-17", "-c", "a.c")));
+    assertEquals("compile", ProcessMonitor.jobKind(Arrays.asList("C:\\VS\\bin\\cl.exe", "/nologo", "/c", "a.cpp")));
+    assertEquals("link", ProcessMonitor.jobKind(Arrays.asList("/usr/bin/c++", "-flto", "a.o", "-o", "app")));
+    assertEquals("link", ProcessMonitor.jobKind(Arrays.asList("/usr/bin/ld.lld", "a.o")));
+    assertEquals("link", ProcessMonitor.jobKind(Arrays.asList("mold", "-o", "app")));
+    // make programs, sub-makes, cmake and custom commands are no jobs
+    assertEquals("", ProcessMonitor.jobKind(Arrays.asList("/usr/bin/make", "-f", "CMakeFiles/Makefile2")));
+    assertEquals("", ProcessMonitor.jobKind(Arrays.asList("/usr/bin/ninja")));
+    assertEquals("", ProcessMonitor.jobKind(Arrays.asList("/usr/bin/cmake", "-E", "cmake_link_script", "-c")));
+    assertEquals("", ProcessMonitor.jobKind(Arrays.asList("/bin/sh", "-c", "/usr/bin/c++ -c a.cpp")));
+    assertEquals("", ProcessMonitor.jobKind(Arrays.asList("python3", "gen.py")));
+    assertEquals("", ProcessMonitor.jobKind(Arrays.asList()));
+  }
+
+  @Test
+  public void measuresTheJobsOfAProcessTree() throws Exception {
+    assumeTrue(new File("/proc/self/stat").isFile());
+    assumeTrue(!System.getProperty("java.specification.version").startsWith("1."));
+    // a shell named like a compiler, running a child as compilers run cc1plus
+    final File compiler = new File(temp.getRoot(), "gcc");
+    Files.createSymbolicLink(compiler.toPath(), new File("/bin/sh").toPath());
+
+    final Process process = new ProcessBuilder("/bin/sh", "-c",
+      compiler + " -c 'sleep 1; :'; :").start();
+    final ProcessMonitor monitor = ProcessMonitor.start(process);
+    assertEquals(0, process.waitFor());
+    final ProcessMonitor.Usage usage = monitor.stop();
+
+    assertTrue(usage.wallMillis >= 500);
+    assertTrue(usage.peakRssBytes > 0);
+    assertTrue(usage.peakCompileJobBytes > 0);
+    assertTrue(usage.peakCompileJobBytes <= usage.peakRssBytes);
+    assertEquals(-1, usage.peakLinkJobBytes);
+  }
+
+}
@@ -0,0 +1,126 @@
+package dev.welbyseely;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.gradle.api.logging.Logger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Stops shell scripts standing in for cmake, which start sleep processes and write their process
+ * ids to a file.
+ */
+public class ProcessTreeTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  private File pids;
+
+  @Before
+  public void setUp() {
+    // the descendants are only known on Java 9+, and checked through /proc
+    assumeTrue(new File("/proc/self/stat").isFile());
+    assumeTrue(!System.getProperty("java.specification.version").startsWith("1."));
+    pids = new File(temp.getRoot(), "pids");
+  }
+
+  private File script(final String... lines) throws Exception {
+    final File script = temp.newFile("cmake");
+    Files.write(script.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    assertTrue(script.setExecutable(true));
+    return script;
+  }
+
+  private List<String> startedPids(final int atLeast) throws Exception {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (System.nanoTime() < deadline) {
+      final List<String> started = pids.isFile()
+        ? Files.readAllLines(pids.toPath(), StandardCharsets.UTF_8) : Collections.emptyList();
+      if (started.size() >= atLeast) {
+        return started;
+      }
+      Thread.sleep(50);
+    }
+    fail("the script did not start " + atLeast + " processes");
+    return null;
+  }
+
+  // zombies are dead too, nothing may reap them in a container
+  private static boolean isRunning(final String pid) throws Exception {
+    final File stat = new File("/proc/" + pid.trim() + "/stat");
+    if (!stat.isFile()) {
+      return false;
+    }
+    final String contents = new String(Files.readAllBytes(stat.toPath()), StandardCharsets.UTF_8);
+    return !contents.substring(contents.lastIndexOf(')') + 2).startsWith("Z");
+  }
+
+  private static void assertStopped(final List<String> started) throws Exception {
+    // killed processes may take a moment to go away
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    for (String pid : started) {
+      while (isRunning(pid) && System.nanoTime() < deadline) {
+        Thread.sleep(20);
+      }
+      assertFalse("process " + pid + " survived", isRunning(pid));
+    }
+  }
+
+  private static Logger logger() {
+    return (Logger) Proxy.newProxyInstance(Logger.class.getClassLoader(), new Class<?>[]{Logger.class},
+      (proxy, method, args) -> method.getReturnType() == boolean.class ? false : null);
+  }
+
+  @Test
+  public void timeoutStopsTheCommandAndItsChildren() throws Exception {
+    final File cmake = script(
+      "#!/bin/sh",
+      "sleep 300 & echo $! >> '" + pids + "'",
+      "sh -c 'sleep 300 & echo $! >> \"" + pids + "\"; wait' &",
+      "wait");
+
+    final long started = System.nanoTime();
+    try {
+      new CMakeExecutor(logger(), "cmakeBuild").exec(Collections.singletonList(cmake.getAbsolutePath()),
+        temp.getRoot(), Collections.emptyMap(), null, 500);
+      fail("the command did not time out");
+    } catch (CMakeExecutor.Failure e) {
+      assertEquals("timed out", e.status);
+      assertEquals(-1, e.exitCode);
+    }
+    assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(30));
+    assertStopped(startedPids(2));
+  }
+
+  @Test
+  public void killsChildrenStartedWhileTerminating() throws Exception {
+    // ignores the request to terminate and starts another child instead
+    final File cmake = script(
+      "#!/bin/sh",
+      "trap 'sleep 300 & echo $! >> \"" + pids + "\"' TERM",
+      "sleep 300 & echo $! >> '" + pids + "'",
+      "while true; do sleep 0.1 & wait; done");
+    final Process process = new ProcessBuilder(cmake.getAbsolutePath()).start();
+    startedPids(1);
+
+    ProcessTree.destroy(process, 1500);
+    assertTrue(process.waitFor(5, TimeUnit.SECONDS));
+    assertStopped(startedPids(2));
+  }
+
+}